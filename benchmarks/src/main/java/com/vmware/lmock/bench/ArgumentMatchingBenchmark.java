@@ -0,0 +1,83 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.bench;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vmware.lmock.impl.Mock;
+import com.vmware.lmock.impl.Story;
+import com.vmware.lmock.impl.Stubs;
+
+/**
+ * Measures the matching of arguments which are neither literals (strings,
+ * boxed primitives) nor checkers.
+ *
+ * <p>
+ * Such arguments are compared with <code>equals</code>, once translated into
+ * their mock if they are mocks. The stubs expect either a plain value (a list)
+ * or a mock. Each invocation is compared with both stubs.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArgumentMatchingBenchmark {
+    private Repository repository;
+    private Repository otherRepository;
+    private List<String> plainKey;
+    private Story story;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        repository = Mock.getObject("repository", Repository.class);
+        otherRepository = Mock.getObject("otherRepository", Repository.class);
+        plainKey = Arrays.asList("key");
+        story = Story.create(null, new Stubs() {
+            {
+                stub(repository).find(Arrays.asList("key"));
+                willReturn("plain");
+                stub(repository).find(otherRepository);
+                willReturn("mock");
+            }
+        });
+        story.begin();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        story.end();
+    }
+
+    @Benchmark
+    public String plainValueArgument() {
+        return repository.find(plainKey);
+    }
+
+    @Benchmark
+    public String mockArgument() {
+        return repository.find(otherRepository);
+    }
+}
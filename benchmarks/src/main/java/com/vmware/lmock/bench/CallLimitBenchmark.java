@@ -0,0 +1,82 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.bench;
+
+import static com.vmware.lmock.mt.Actor.aPooledActorForThreadsLike;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vmware.lmock.checker.ThreadChecker;
+import com.vmware.lmock.impl.CallLimit;
+import com.vmware.lmock.impl.DispatchMode;
+import com.vmware.lmock.impl.Mock;
+import com.vmware.lmock.impl.Story;
+import com.vmware.lmock.impl.Stubs;
+
+/**
+ * Measures the cost of the call limits of stubs, when the limits are not
+ * reached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(MultiActorBenchmark.THREADS)
+public class CallLimitBenchmark {
+    @Param({"NONE", "RATE", "CONCURRENCY"})
+    private String limit;
+    private Repository repository;
+    private Story story;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        repository = Mock.getObject("repository", Repository.class);
+        Stubs stubs = new Stubs() {
+            {
+                stub(repository).get("key");
+                willReturn("value");
+                if ("RATE".equals(limit)) {
+                    willAccept(CallLimit.perSecond(1000000000).orThrow(new IllegalStateException()));
+                } else if ("CONCURRENCY".equals(limit)) {
+                    willAccept(CallLimit.concurrentCalls(MultiActorBenchmark.THREADS));
+                }
+            }
+        };
+
+        story = Story.create(aPooledActorForThreadsLike(ThreadChecker.anyThread).using(stubs))
+          .withDispatchMode(DispatchMode.CONCURRENT);
+        story.begin();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        story.end();
+    }
+
+    @Benchmark
+    public String limitedStubHit() {
+        return repository.get("key");
+    }
+}
@@ -0,0 +1,83 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vmware.lmock.impl.Mock;
+import com.vmware.lmock.impl.Scenario;
+import com.vmware.lmock.impl.Story;
+import com.vmware.lmock.impl.Stubs;
+
+/**
+ * Measures the default invocation hooks (<code>equals</code>,
+ * <code>hashCode</code> and <code>toString</code>).
+ *
+ * <p>
+ * The mock contributes to an ongoing story with no expectation on those
+ * methods, so that every invocation goes through the dispatcher, misses the
+ * stubs and the scenario and finally falls back to the hooks.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvocationHooksBenchmark {
+    private Repository repository;
+    private Repository other;
+    private Story story;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        repository = Mock.getObject("repository", Repository.class);
+        other = Mock.getObject("other", Repository.class);
+        story = Story.create(new Scenario(), new Stubs() {
+            {
+                stub(repository).size();
+                willReturn(0);
+            }
+        });
+        story.begin();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        story.end();
+    }
+
+    @Benchmark
+    public boolean hookEquals() {
+        return repository.equals(other);
+    }
+
+    @Benchmark
+    public int hookHashCode() {
+        return repository.hashCode();
+    }
+
+    @Benchmark
+    public String hookToString() {
+        return repository.toString();
+    }
+}
@@ -0,0 +1,102 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vmware.lmock.impl.InvocationJournal;
+import com.vmware.lmock.impl.Invocations;
+import com.vmware.lmock.impl.Mock;
+import com.vmware.lmock.impl.Story;
+import com.vmware.lmock.impl.Stubs;
+
+/**
+ * Measures the cost of an invocation journal.
+ *
+ * <p>
+ * The first benchmark measures stub hits recorded into a journal, which is
+ * periodically cleared to bound the memory footprint. The second one counts
+ * the invocations of a method in a journal of <code>journalSize</code> calls,
+ * mostly issued to other methods.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+    /** Number of recorded invocations before clearing the journal. */
+    private static final int MAX_RECORDING_SIZE = 1 << 20;
+    /** Number of invocations recorded before counting. */
+    @Param({"100000", "1000000"})
+    private int journalSize;
+    private Repository repository;
+    private Story story;
+    private InvocationJournal journal;
+    private Invocations putInvocations;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        repository = Mock.getObject("repository", Repository.class);
+        journal = new InvocationJournal();
+        story = Story.create(null, new Stubs() {
+            {
+                stub(repository).get(anyOf(String.class));
+                willReturn("value");
+                stub(repository).put(anyOf(String.class), anyOf(String.class));
+            }
+        }).withJournal(journal);
+        story.begin();
+        for (int index = 0; index < journalSize; index++) {
+            if (index % 100 == 0) {
+                repository.put("key", "value-" + index);
+            } else {
+                repository.get("key");
+            }
+        }
+        putInvocations = new Invocations() {
+            {
+                invoked(repository).put(with("key"), anyOf(String.class));
+            }
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        story.end();
+    }
+
+    @Benchmark
+    public String recordedStubHit() {
+        if (journal.size() >= journalSize + MAX_RECORDING_SIZE) {
+            journal.clear();
+        }
+        return repository.get("key");
+    }
+
+    @Benchmark
+    public int countQuery() {
+        return journal.count(putInvocations);
+    }
+}
@@ -0,0 +1,76 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.bench;
+
+import static com.vmware.lmock.checker.Occurrences.any;
+import static com.vmware.lmock.checker.Occurrences.exactly;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vmware.lmock.impl.Mock;
+import com.vmware.lmock.impl.Scenario;
+import com.vmware.lmock.impl.Story;
+
+/**
+ * Measures a story in which one invocation skips a long series of optional
+ * expectations.
+ *
+ * <p>
+ * The scenario starts with <code>expectationCount</code> expectations
+ * occurring any number of times, followed by the only expectation invoked
+ * by the benchmark. Each operation plays the whole story.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LongScenarioBenchmark {
+    @Param({ "100", "1000" })
+    private int expectationCount;
+    private Repository repository;
+    private Story story;
+
+    @Setup
+    public void setup() {
+        repository = Mock.getObject("repository", Repository.class);
+        story = Story.create(new Scenario() {
+            {
+                for (int i = 0; i < expectationCount; i++) {
+                    expect(repository).put("key" + i, "value" + i);
+                    occurs(any());
+                }
+                expect(repository).get("key");
+                willReturn("value");
+                occurs(exactly(1));
+            }
+        });
+    }
+
+    @Benchmark
+    public String skipOptionalExpectations() {
+        story.begin();
+        String result = repository.get("key");
+        story.end();
+        return result;
+    }
+}
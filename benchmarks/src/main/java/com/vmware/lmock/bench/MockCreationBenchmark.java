@@ -0,0 +1,54 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.vmware.lmock.impl.Mock;
+
+/**
+ * Measures the creation of mocks, as done by large test fixtures.
+ *
+ * <p>
+ * Each operation creates <code>FIXTURE_SIZE</code> mocks of the same
+ * interface, one by one or in a single call.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MockCreationBenchmark {
+    /** Number of mocks created by each operation. */
+    private static final int FIXTURE_SIZE = 100;
+
+    @Benchmark
+    public void getObject(Blackhole blackhole) {
+        for (int index = 0; index < FIXTURE_SIZE; index++) {
+            blackhole.consume(Mock.getObject(Repository.class));
+        }
+    }
+
+    @Benchmark
+    public Repository[] getObjects() {
+        return Mock.getObjects(Repository.class, FIXTURE_SIZE);
+    }
+}
@@ -0,0 +1,86 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.bench;
+
+import static com.vmware.lmock.mt.Actor.anActorForAnyThread;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vmware.lmock.impl.DispatchMode;
+import com.vmware.lmock.impl.Mock;
+import com.vmware.lmock.impl.Story;
+import com.vmware.lmock.impl.Stubs;
+import com.vmware.lmock.mt.Actor;
+
+/**
+ * Measures the dispatch of invocations issued by several threads.
+ *
+ * <p>
+ * Each benchmark thread is bound to its own actor, all the actors sharing the
+ * same set of stubs. The throughput is the aggregated throughput of all the
+ * threads, for each dispatch mode of the story.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(MultiActorBenchmark.THREADS)
+public class MultiActorBenchmark {
+    /** Number of threads invoking the mock concurrently. */
+    static final int THREADS = 4;
+    @Param({"SERIALIZED", "CONCURRENT"})
+    private DispatchMode dispatchMode;
+    private Repository repository;
+    private Story story;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        repository = Mock.getObject("repository", Repository.class);
+        Stubs stubs = new Stubs() {
+            {
+                stub(repository).get("key");
+                willReturn("value");
+            }
+        };
+
+        Actor[] actors = new Actor[THREADS];
+        for (int index = 0; index < THREADS; index++) {
+            actors[index] = anActorForAnyThread().using(stubs);
+        }
+        story = Story.create(actors).withDispatchMode(dispatchMode);
+        story.begin();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        story.end();
+    }
+
+    @Benchmark
+    public String multiActorStubHit() {
+        return repository.get("key");
+    }
+}
@@ -0,0 +1,58 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vmware.lmock.impl.Mock;
+import com.vmware.lmock.impl.Scenario;
+import com.vmware.lmock.impl.Story;
+
+/**
+ * Measures independent tests, each one creating, running and ending a story
+ * on its own mock.
+ *
+ * <p>
+ * Every benchmark thread plays a test suite. Comparing the throughput of a
+ * single thread (<code>-t 1</code>) to the one of several threads
+ * (<code>-t N</code>) gives the speedup of running tests in parallel.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelStoriesBenchmark {
+    private final Repository repository = Mock.getObject(Repository.class);
+
+    @Benchmark
+    public int independentTest() {
+        Story story = Story.create(new Scenario() {
+            {
+                expect(repository).size();
+                willReturn(1);
+            }
+        });
+        story.begin();
+        int result = repository.size();
+        story.end();
+        return result;
+    }
+}
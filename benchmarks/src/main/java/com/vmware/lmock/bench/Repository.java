@@ -0,0 +1,43 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.bench;
+
+/**
+ * Reference interface mocked by the benchmarks.
+ *
+ * <p>
+ * Kept deliberately small so that the measured cost is the one of the mocking
+ * framework, not the one of the mocked class.
+ * </p>
+ */
+public interface Repository {
+    /**
+     * @param key
+     *            the requested key
+     * @return The value associated to the key.
+     */
+    public String get(String key);
+
+    /**
+     * @param key
+     *            the key
+     * @param value
+     *            the stored value
+     */
+    public void put(String key, String value);
+
+    /**
+     * @param key
+     *            the requested key, of any type
+     * @return The value associated to the key.
+     */
+    public String find(Object key);
+
+    /** @return The number of entries in the repository. */
+    public int size();
+}
@@ -0,0 +1,71 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.bench;
+
+import static com.vmware.lmock.checker.Occurrences.any;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vmware.lmock.impl.Mock;
+import com.vmware.lmock.impl.Scenario;
+import com.vmware.lmock.impl.Story;
+
+/**
+ * Measures the invocation of a mock validated by a scenario expectation.
+ *
+ * <p>
+ * The expectations occur any number of times so that the story processor
+ * stays on the same position during the whole measurement.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScenarioInvocationBenchmark {
+    private Repository repository;
+    private Story story;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        repository = Mock.getObject("repository", Repository.class);
+        story = Story.create(new Scenario() {
+            {
+                expect(repository).get("key");
+                willReturn("value");
+                occurs(any());
+            }
+        });
+        story.begin();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        story.end();
+    }
+
+    @Benchmark
+    public String expectationHit() {
+        return repository.get("key");
+    }
+}
@@ -0,0 +1,91 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vmware.lmock.impl.Mock;
+import com.vmware.lmock.impl.Story;
+import com.vmware.lmock.impl.Stubs;
+
+/**
+ * Measures the invocation of a mock satisfied by a stub.
+ *
+ * <p>
+ * The story declares <code>stubCount</code> stubs on the same method, with
+ * distinct literal arguments. The benchmarks invoke the youngest one and the
+ * oldest one, which would be the last one found by a sequential search.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StubInvocationBenchmark {
+    /** Number of stubs declared on <code>Repository.get</code>. */
+    @Param({"1", "100", "5000"})
+    private int stubCount;
+    private Repository repository;
+    private Story story;
+    private String youngestKey;
+    private String oldestKey;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        repository = Mock.getObject("repository", Repository.class);
+        oldestKey = "key-0";
+        youngestKey = "key-" + (stubCount - 1);
+        story = Story.create(null, new Stubs() {
+            {
+                for (int index = 0; index < stubCount; index++) {
+                    stub(repository).get("key-" + index);
+                    willReturn("value-" + index);
+                }
+                stub(repository).size();
+                willReturn(stubCount);
+            }
+        });
+        story.begin();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        story.end();
+    }
+
+    @Benchmark
+    public String stubHitYoungest() {
+        return repository.get(youngestKey);
+    }
+
+    @Benchmark
+    public String stubHitOldest() {
+        return repository.get(oldestKey);
+    }
+
+    @Benchmark
+    public int stubHitNoArgument() {
+        return repository.size();
+    }
+}
@@ -0,0 +1,86 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vmware.lmock.impl.Mock;
+import com.vmware.lmock.impl.Story;
+import com.vmware.lmock.impl.Stubs;
+import com.vmware.lmock.trace.ActivityLogger;
+import com.vmware.lmock.trace.Trace;
+
+/**
+ * Measures the cost of the traces on the invocation path.
+ *
+ * <p>
+ * When <code>tracing</code> is off, no activity logger is defined and the
+ * traces must not allocate anything: the only allocation left is the
+ * invocation record created by the mock. When it is on, the traces are
+ * produced and sent to a logger dropping them.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraceBenchmark {
+    @Param({"false", "true"})
+    private boolean tracing;
+    private Repository repository;
+    private Story story;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if (tracing) {
+            Trace.reportActivityTo(new ActivityLogger() {
+                public void trace(String message) {
+                    // Drop the message.
+                }
+            });
+        } else {
+            Trace.dontReportActivity();
+        }
+
+        repository = Mock.getObject("repository", Repository.class);
+        story = Story.create(null, new Stubs() {
+            {
+                stub(repository).size();
+                willReturn(1);
+            }
+        });
+        story.begin();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        story.end();
+        Trace.dontReportActivity();
+    }
+
+    @Benchmark
+    public int stubHit() {
+        return repository.size();
+    }
+}
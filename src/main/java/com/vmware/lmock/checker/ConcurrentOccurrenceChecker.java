@@ -0,0 +1,61 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.checker;
+
+/**
+ * Controls the occurrences of an expectation shared by concurrent threads.
+ *
+ * <p>
+ * The story controller lets several threads record the occurrences of such
+ * an expectation at the same time, without serializing them. It only
+ * serializes the invocations that cannot be recorded with
+ * <code>tryIncrement</code>, in order to move to another expectation.
+ * </p>
+ */
+public interface ConcurrentOccurrenceChecker extends OccurrenceChecker {
+    /**
+     * The occurrences recorded between two resets of a checker.
+     */
+    public interface Round {
+        /**
+         * Atomically records a validated invocation in this round, unless
+         * the expectation has reached the limit of its occurrences.
+         *
+         * <p>
+         * This method may be called by several threads at the same time.
+         * </p>
+         *
+         * @return <code>false</code> if no additional occurrence is allowed.
+         */
+        public boolean tryIncrement();
+    }
+
+    /**
+     * Gets the round of the occurrences recorded since the last reset.
+     *
+     * <p>
+     * Resetting the checker starts a new round, so that an invocation
+     * recorded late in a previous round is not counted by the checker.
+     * </p>
+     *
+     * @return The current round.
+     */
+    public Round getRound();
+
+    /**
+     * Atomically records a validated invocation, unless the expectation has
+     * reached the limit of its occurrences.
+     *
+     * <p>
+     * This method may be called by several threads at the same time.
+     * </p>
+     *
+     * @return <code>false</code> if no additional occurrence is allowed.
+     */
+    public boolean tryIncrement();
+}
@@ -0,0 +1,148 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.checker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the occurrences of an expectation invoked by concurrent threads.
+ *
+ * <p>
+ * Such an object has the same boundaries as the <code>Occurrences</code> it
+ * is created from (see <code>Occurrences.concurrently</code>), but lets many
+ * threads record occurrences in parallel:
+ * </p>
+ * <ul>
+ * <li>without a maximum, the occurrences are counted by a striped counter,
+ * that never makes the threads contend</li>
+ * <li>with a maximum, the occurrences are counted by an atomic counter,
+ * compared with the maximum and incremented in a single operation, so that
+ * the limit holds precisely</li>
+ * </ul>
+ *
+ * <p>
+ * A reset replaces the counters rather than clearing them, so that a thread
+ * still recording an occurrence in the previous round does not change the
+ * occurrences of the new one.
+ * </p>
+ */
+public final class ConcurrentOccurrences implements ConcurrentOccurrenceChecker {
+    /**
+     * Counts the occurrences between two resets.
+     */
+    private static final class CountingRound implements Round {
+        /** Maximum number of occurrences allowed, negative if unlimited. */
+        private final int max;
+        /** Counts the occurrences if limited, null otherwise. */
+        private final AtomicInteger limitedCount;
+        /** Counts the occurrences if not limited, null otherwise. */
+        private final LongAdder unlimitedCount;
+
+        /**
+         * Creates a new round, with no occurrence.
+         *
+         * @param max
+         *            the maximum number of occurrences, negative if unlimited
+         */
+        CountingRound(int max) {
+            this.max = max;
+            if (max >= 0) {
+                limitedCount = new AtomicInteger();
+                unlimitedCount = null;
+            } else {
+                limitedCount = null;
+                unlimitedCount = new LongAdder();
+            }
+        }
+
+        /** @return The number of recorded occurrences. */
+        long getCount() {
+            return (limitedCount != null) ? limitedCount.get() : unlimitedCount.sum();
+        }
+
+        public boolean tryIncrement() {
+            if (limitedCount == null) {
+                unlimitedCount.increment();
+                return true;
+            }
+
+            int count;
+            do {
+                count = limitedCount.get();
+                if (count >= max) {
+                    return false;
+                }
+            } while (!limitedCount.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        /** Records an occurrence, whatever the limit. */
+        void increment() {
+            if (limitedCount != null) {
+                limitedCount.incrementAndGet();
+            } else {
+                unlimitedCount.increment();
+            }
+        }
+    }
+    /** The definition of the boundaries. */
+    private final Occurrences definition;
+    /** Minimum number of occurrences allowed before this can end. */
+    private final int min;
+    /** Maximum number of occurrences allowed. */
+    private final int max;
+    /** Counts the occurrences since the last reset. */
+    private volatile CountingRound round;
+
+    /**
+     * Creates concurrent occurrences with the boundaries of a definition.
+     *
+     * @param definition
+     *            the definition
+     */
+    ConcurrentOccurrences(Occurrences definition) {
+        this.definition = definition;
+        min = definition.getMin();
+        max = definition.getMax();
+        round = new CountingRound(max);
+    }
+
+    public Round getRound() {
+        return round;
+    }
+
+    public boolean tryIncrement() {
+        return round.tryIncrement();
+    }
+
+    @Override
+    public void increment() {
+        round.increment();
+    }
+
+    @Override
+    public void reset() {
+        round = new CountingRound(max);
+    }
+
+    @Override
+    public boolean canEndNow() {
+        return round.getCount() >= min;
+    }
+
+    @Override
+    public boolean hasReachedLimit() {
+        return max >= 0 && round.getCount() >= max;
+    }
+
+    @Override
+    public String toString() {
+        return definition.toString();
+    }
+}
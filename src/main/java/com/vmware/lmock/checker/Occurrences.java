@@ -55,6 +55,37 @@ public final class Occurrences implements OccurrenceChecker {
         this.max = max;
     }
 
+    /** @return The minimum number of occurrences, negative if none. */
+    int getMin() {
+        return min;
+    }
+
+    /** @return The maximum number of occurrences, negative if none. */
+    int getMax() {
+        return max;
+    }
+
+    /**
+     * Creates occurrences with the same boundaries, that can be recorded by
+     * concurrent threads.
+     *
+     * <p>
+     * For example, an expectation shared by the threads of a pool (see
+     * <code>Actor.aPooledActorForThreadsLike</code>) can be defined with:
+     * </p>
+     *
+     * <pre>
+     * <code>
+     *     occurs(atLeast(1000).concurrently());
+     * </code>
+     * </pre>
+     *
+     * @return The concurrent occurrences.
+     */
+    public ConcurrentOccurrences concurrently() {
+        return new ConcurrentOccurrences(this);
+    }
+
     @Override
     public void increment() {
         count++;
@@ -7,6 +7,11 @@
  * ************************************************************************** */
 package com.vmware.lmock.checker;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ThreadFactory;
+
 /**
  * Checker dedicated to the matching of thread.
  *
@@ -17,10 +22,99 @@ package com.vmware.lmock.checker;
  * </p>
  */
 public abstract class ThreadChecker implements Checker<Thread> {
+    /**
+     * The method telling whether a thread is virtual, <code>null</code> if the
+     * runtime does not implement virtual threads.
+     *
+     * <p>
+     * The method is resolved once into a method handle, so that checking a
+     * thread does not go through reflection.
+     * </p>
+     */
+    private static final MethodHandle isVirtualMethod = getIsVirtualMethod();
+
+    /**
+     * @return The method telling whether a thread is virtual,
+     *         <code>null</code> if it does not exist.
+     */
+    private static MethodHandle getIsVirtualMethod() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual",
+              MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether a thread is a virtual thread.
+     *
+     * @param thread
+     *            the checked thread
+     * @return <code>true</code> if the thread is virtual.
+     */
+    private static boolean isVirtual(Thread thread) {
+        if (isVirtualMethod == null) {
+            return false;
+        }
+        try {
+            return (boolean) isVirtualMethod.invokeExact(thread);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
     public Class<?> getRelatedClass() {
         return Thread.class;
     }
 
+    /**
+     * Tells whether this checker accepts one thread only.
+     *
+     * <p>
+     * Thread matchers use this to index the checkers by thread identity.
+     * </p>
+     *
+     * @return The only thread accepted by this checker, <code>null</code> if
+     *         the checker is not restricted to one thread.
+     */
+    public Thread getMatchedThread() {
+        return null;
+    }
+
+    /**
+     * Tells whether this checker accepts the threads of one name only.
+     *
+     * <p>
+     * Thread matchers use this to index the checkers by thread name.
+     * </p>
+     *
+     * @return The name of the threads accepted by this checker,
+     *         <code>null</code> if the checker is not restricted to one name.
+     */
+    public String getMatchedName() {
+        return null;
+    }
+
+    /**
+     * Tells whether this checker accepts the instances of one class only.
+     *
+     * <p>
+     * Thread matchers use this to index the checkers by thread class.
+     * </p>
+     *
+     * @return The class of the threads accepted by this checker,
+     *         <code>null</code> if the checker is not restricted to one
+     *         class.
+     */
+    public Class<?> getMatchedClass() {
+        return null;
+    }
+
     /**
      * Creates a checker that matches exactly one thread.
      *
@@ -33,6 +127,11 @@ public abstract class ThreadChecker implements Checker<Thread> {
             public boolean valueIsCompatibleWith(Thread value) {
                 return thread == value;
             }
+
+            @Override
+            public Thread getMatchedThread() {
+                return thread;
+            }
         };
     }
 
@@ -49,6 +148,11 @@ public abstract class ThreadChecker implements Checker<Thread> {
             public boolean valueIsCompatibleWith(Thread value) {
                 return value.getName() != null && value.getName().equals(name);
             }
+
+            @Override
+            public String getMatchedName() {
+                return name;
+            }
         };
     }
 
@@ -72,8 +176,53 @@ public abstract class ThreadChecker implements Checker<Thread> {
             public boolean valueIsCompatibleWith(Thread value) {
                 return clazz.isAssignableFrom(value.getClass());
             }
+
+            @Override
+            public Class<?> getMatchedClass() {
+                return clazz;
+            }
         };
     }
+
+    /**
+     * Creates a checker that matches the threads created by a thread factory.
+     *
+     * <p>
+     * The returned checker is itself a thread factory, delegating the creation
+     * of threads to the specified factory. The threads that must be matched
+     * should be created by the returned factory:
+     * </p>
+     *
+     * <pre>
+     * <code>
+     *     ThreadFactoryChecker workers = threadsCreatedBy(Executors.defaultThreadFactory());
+     *     ExecutorService pool = Executors.newFixedThreadPool(4, workers);
+     *     ... anActorForThreadLike(workers) ...
+     * </code>
+     * </pre>
+     *
+     * @param factory
+     *            the factory creating the threads
+     * @return The created checker.
+     */
+    public static ThreadFactoryChecker threadsCreatedBy(ThreadFactory factory) {
+        assert factory != null;
+        return new ThreadFactoryChecker(factory);
+    }
+
+    /**
+     * A checker that accepts virtual threads.
+     *
+     * <p>
+     * On a runtime that does not implement virtual threads, the checker does
+     * not accept any thread.
+     * </p>
+     */
+    public static final ThreadChecker virtualThreads = new ThreadChecker() {
+        public boolean valueIsCompatibleWith(Thread value) {
+            return isVirtual(value);
+        }
+    };
     /**
      * A checker that accepts any thread.
      */
@@ -0,0 +1,67 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.checker;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread factory that recognizes the threads it created.
+ *
+ * <p>
+ * The factory delegates the creation of threads to another factory (for
+ * example a factory of virtual threads) and keeps track of the created
+ * threads, without keeping them alive. The created threads are protected by
+ * an explicit lock rather than a monitor, so that virtual threads do not pin
+ * their carrier while checking them.
+ * </p>
+ *
+ * @see ThreadChecker#threadsCreatedBy(ThreadFactory)
+ */
+public final class ThreadFactoryChecker extends ThreadChecker implements ThreadFactory {
+    /** The factory actually creating the threads. */
+    private final ThreadFactory factory;
+    /** Protects the created threads. */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** The threads created by this factory. */
+    private final Map<Thread, Boolean> createdThreads = new WeakHashMap<Thread, Boolean>();
+
+    /**
+     * Creates a new factory.
+     *
+     * @param factory
+     *            the factory actually creating the threads
+     */
+    ThreadFactoryChecker(ThreadFactory factory) {
+        this.factory = factory;
+    }
+
+    public Thread newThread(Runnable runnable) {
+        Thread thread = factory.newThread(runnable);
+        if (thread != null) {
+            lock.lock();
+            try {
+                createdThreads.put(thread, Boolean.TRUE);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return thread;
+    }
+
+    public boolean valueIsCompatibleWith(Thread value) {
+        lock.lock();
+        try {
+            return createdThreads.containsKey(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
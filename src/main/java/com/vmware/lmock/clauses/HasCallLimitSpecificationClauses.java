@@ -0,0 +1,33 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.clauses;
+
+import com.vmware.lmock.exception.IncompatibleThrowableException;
+import com.vmware.lmock.impl.CallLimit;
+
+/**
+ * Defines clauses that allow to limit the calls accepted by a stub.
+ *
+ * @param <T>
+ *            the class that implements that interface (e.g. stub)
+ */
+public interface HasCallLimitSpecificationClauses<T> {
+    /**
+     * Clause limiting the calls accepted by the stub.
+     *
+     * @param limit
+     *            the call limit
+     * @return The stub under construction.
+     * @throws IllegalArgumentException
+     *            The limit is <code>null</code>.
+     * @throws IncompatibleThrowableException
+     *            The exception thrown by the calls exceeding the limit is
+     *            incompatible with the stubbed method.
+     */
+    public T willAccept(CallLimit limit);
+}
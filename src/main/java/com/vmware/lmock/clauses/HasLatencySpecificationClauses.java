@@ -0,0 +1,36 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.clauses;
+
+import com.vmware.lmock.impl.Latency;
+
+/**
+ * Defines clauses that allow to specify the time taken by an invocation.
+ *
+ * @param <T>
+ *            the class that implements that interface (e.g. expectation, stub)
+ */
+public interface HasLatencySpecificationClauses<T> {
+    /**
+     * Clause specifying the latency of the invocation.
+     *
+     * <p>
+     * The invocation of a synchronous method returns its result once the
+     * latency elapsed. The invocation of a method returning a
+     * <code>CompletableFuture</code> immediately returns a future, completed
+     * with the result once the latency elapsed.
+     * </p>
+     *
+     * @param latency
+     *            the latency
+     * @return The item under construction.
+     * @throws IllegalArgumentException
+     *            The latency is <code>null</code>.
+     */
+    public T willTakeTime(Latency latency);
+}
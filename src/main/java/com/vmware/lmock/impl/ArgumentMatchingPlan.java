@@ -0,0 +1,199 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.util.List;
+
+import com.vmware.lmock.checker.Checker;
+
+/**
+ * Flat representation of the argument checkers of an invocation checker.
+ *
+ * <p>
+ * The plan is compiled once, when the checkers are defined. It assigns a kind
+ * to each argument slot, so that the most common checkers (any argument of a
+ * class, literal values) are evaluated inline, without going through the
+ * checker interface. The other checkers are simply called.
+ * </p>
+ */
+final class ArgumentMatchingPlan {
+    /** The slot is validated by its checker. */
+    private static final int GENERIC = 0;
+    /** The slot accepts any value. */
+    private static final int ANY = 1;
+    /** The slot accepts instances of a (boxed) class. */
+    private static final int INSTANCE_OF = 2;
+    /** The slot accepts values equal to a literal (a string, a boxed value...). */
+    private static final int LITERAL = 3;
+    /** Number of arguments. */
+    private final int arity;
+    /** Kind of each slot. */
+    private final int[] kinds;
+    /** For INSTANCE_OF slots: the accepted class, with primitives boxed. */
+    private final Class<?>[] classes;
+    /** For INSTANCE_OF slots: tells whether null is accepted. */
+    private final boolean[] acceptsNull;
+    /** For LITERAL slots: the expected value. */
+    private final Object[] literals;
+    /** The original checkers, for GENERIC slots. */
+    private final Checker<Object>[] checkers;
+
+    /**
+     * Checks whether the values of a class are compared as literals.
+     *
+     * <p>
+     * Such values cannot be mocks and their <code>equals</code> method never
+     * invokes the compared object, so that there is no need to translate a
+     * compared proxy into its mock.
+     * </p>
+     *
+     * @param clazz
+     *            the checked class
+     * @return <code>true</code> if the values are literals.
+     */
+    static boolean isLiteralClass(Class<?> clazz) {
+        return clazz == String.class || clazz == Integer.class || clazz == Long.class
+          || clazz == Boolean.class || clazz == Character.class || clazz == Byte.class
+          || clazz == Short.class || clazz == Float.class || clazz == Double.class
+          || clazz.isEnum();
+    }
+
+    /**
+     * Creates an array of argument checkers.
+     *
+     * @param length
+     *            the length of the array
+     * @return The new array.
+     */
+    @SuppressWarnings("unchecked")
+    private static Checker<Object>[] newCheckerArray(int length) {
+        return (Checker<Object>[]) new Checker<?>[length];
+    }
+
+    /**
+     * Compiles a list of argument checkers.
+     *
+     * @param checkerList
+     *            the argument checkers, one per argument
+     */
+    ArgumentMatchingPlan(List<Checker<Object>> checkerList) {
+        arity = checkerList.size();
+        kinds = new int[arity];
+        classes = new Class<?>[arity];
+        acceptsNull = new boolean[arity];
+        literals = new Object[arity];
+        checkers = checkerList.toArray(newCheckerArray(arity));
+        for (int index = 0; index < arity; index++) {
+            compileSlot(index);
+        }
+    }
+
+    /**
+     * Defines the kind of a slot, according to its checker.
+     *
+     * @param index
+     *            index of the slot
+     */
+    private void compileSlot(int index) {
+        Checker<Object> checker = checkers[index];
+        if (checker.getClass() == ClassChecker.class) {
+            ClassChecker classChecker = (ClassChecker) checker;
+            Class<?> clazz = classChecker.getRelatedClass();
+            // Arrays need a per-item check (see ClassChecker).
+            if (!clazz.isArray()) {
+                if (clazz == Object.class && classChecker.acceptsNull()) {
+                    kinds[index] = ANY;
+                } else {
+                    kinds[index] = INSTANCE_OF;
+                    classes[index] = clazz;
+                    acceptsNull[index] = classChecker.acceptsNull();
+                }
+                return;
+            }
+        } else if (checker.getClass() == SimpleObjectChecker.class) {
+            Object reference = ((SimpleObjectChecker) checker).getReferenceObject();
+            if (reference == null || isLiteralClass(reference.getClass())) {
+                kinds[index] = LITERAL;
+                literals[index] = reference;
+                return;
+            }
+        }
+        kinds[index] = GENERIC;
+    }
+
+    /**
+     * Gets the expected values when all the slots are literals.
+     *
+     * @return The expected values, <code>null</code> if a slot is not a
+     *         literal or if there's no argument.
+     */
+    Object[] getLiterals() {
+        if (arity == 0) {
+            return null;
+        }
+
+        for (int kind : kinds) {
+            if (kind != LITERAL) {
+                return null;
+            }
+        }
+        return literals.clone();
+    }
+
+    /**
+     * Validates an argument against one slot.
+     *
+     * @param index
+     *            index of the slot
+     * @param argument
+     *            the argument value
+     * @return <code>true</code> if the argument is accepted.
+     */
+    private boolean slotAccepts(int index, Object argument) {
+        int kind = kinds[index];
+        if (kind == ANY) {
+            return true;
+        } else if (kind == INSTANCE_OF) {
+            if (argument == null) {
+                return acceptsNull[index];
+            } else {
+                Class<?> argumentClass = argument.getClass();
+                return argumentClass == classes[index] || classes[index].isAssignableFrom(argumentClass);
+            }
+        } else if (kind == LITERAL) {
+            Object literal = literals[index];
+            return argument == literal || (literal != null && literal.equals(argument));
+        } else {
+            return checkers[index].valueIsCompatibleWith(argument);
+        }
+    }
+
+    /**
+     * Validates a list of arguments.
+     *
+     * @param arguments
+     *            the arguments of an invocation, null if there's no argument
+     * @return <code>true</code> if all the arguments are accepted.
+     */
+    boolean matches(Object[] arguments) {
+        // Be careful! args can be null (case of void methods).
+        if (arguments == null) {
+            return arity == 0;
+        } else if (arguments.length != arity) {
+            return false;
+        }
+
+        for (int index = 0; index < arity; index++) {
+            if (!slotAccepts(index, arguments[index])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,170 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the calls accepted by a stub, so that it behaves like a saturated
+ * service.
+ *
+ * <p>
+ * Standard limits are defined by factory methods:
+ * </p>
+ * <ul>
+ * <li><code>perSecond</code> and <code>rate</code>: the stub accepts a number
+ * of calls per period</li>
+ * <li><code>concurrentCalls</code>: the stub accepts a number of calls at the
+ * same time, including their latency (see <code>willTakeTime</code>)</li>
+ * </ul>
+ *
+ * <p>
+ * By default, the calls exceeding the limit block until the stub accepts
+ * them. Alternatively, they may throw an exception (see <code>orThrow</code>)
+ * or, for rates, be delayed (see <code>RateLimit.orDelay</code>):
+ * </p>
+ *
+ * <pre>
+ * <code>
+ *     stub(service).fetch("key");
+ *     willReturn("value");
+ *     willAccept(CallLimit.perSecond(100).orThrow(new ServiceBusyException()));
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * The stubs sharing a limit share its capacity. Limits do not lock: they are
+ * updated by atomic operations.
+ * </p>
+ */
+public abstract class CallLimit {
+    /** Thrown by the calls exceeding the limit, <code>null</code> to block. */
+    private Throwable saturationException;
+
+    /**
+     * Creates a new limit, blocking the calls that exceed it.
+     */
+    CallLimit() {
+        // Nothing to do.
+    }
+
+    /**
+     * Creates a limit accepting a number of calls per second.
+     *
+     * @param calls
+     *            the number of calls per second
+     * @return The created limit.
+     */
+    public static RateLimit perSecond(long calls) {
+        return rate(calls, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates a limit accepting a number of calls per period.
+     *
+     * <p>
+     * The calls are evenly spread over the period, with bursts up to the
+     * number of calls of a period.
+     * </p>
+     *
+     * @param calls
+     *            the number of calls per period
+     * @param period
+     *            the period
+     * @param unit
+     *            the unit of the period
+     * @return The created limit.
+     */
+    public static RateLimit rate(long calls, long period, TimeUnit unit) {
+        if (calls <= 0 || period <= 0) {
+            throw new IllegalArgumentException("illegal rate: " + calls + "/" + period + unit);
+        }
+        return new RateLimit(calls, unit.toNanos(period));
+    }
+
+    /**
+     * Creates a limit accepting a number of calls at the same time.
+     *
+     * <p>
+     * A call ends when the result is applied or, for methods returning a
+     * <code>CompletableFuture</code>, when the returned future completes.
+     * </p>
+     *
+     * @param calls
+     *            the number of concurrent calls
+     * @return The created limit.
+     */
+    public static CallLimit concurrentCalls(int calls) {
+        if (calls <= 0) {
+            throw new IllegalArgumentException("illegal number of concurrent calls: " + calls);
+        }
+        return new ConcurrencyLimit(calls);
+    }
+
+    /**
+     * Makes the calls exceeding the limit throw an exception.
+     *
+     * <p>
+     * The methods returning a <code>CompletableFuture</code> rather return a
+     * future completed with the exception.
+     * </p>
+     *
+     * @param excpt
+     *            the thrown exception
+     * @return this.
+     */
+    public CallLimit orThrow(Throwable excpt) {
+        if (excpt == null) {
+            throw new IllegalArgumentException("null exception specified");
+        }
+
+        saturationException = excpt;
+        return this;
+    }
+
+    /** @return The exception thrown by the calls exceeding the limit, if any. */
+    Throwable getSaturationException() {
+        return saturationException;
+    }
+
+    /**
+     * Rejects a call exceeding the limit.
+     *
+     * @param asynchronous
+     *            <code>true</code> if the invoked method returns a future
+     * @return A future completed with the saturation exception.
+     * @throws Throwable
+     *             The saturation exception, for synchronous methods.
+     */
+    Object reject(boolean asynchronous) throws Throwable {
+        if (asynchronous) {
+            CompletableFuture<Object> future = new CompletableFuture<Object>();
+            future.completeExceptionally(saturationException);
+            return future;
+        } else {
+            throw saturationException;
+        }
+    }
+
+    /**
+     * Applies the result of a call within this limit.
+     *
+     * @param result
+     *            the result of the call
+     * @param returnType
+     *            the type returned by the invoked method
+     * @param clock
+     *            the clock measuring the time
+     * @return The value returned by the call.
+     * @throws Throwable
+     *             The exception thrown by the call.
+     */
+    abstract Object apply(InvocationResultProvider result, Class<?> returnType,
+      LatencyClock clock) throws Throwable;
+}
@@ -176,6 +176,11 @@ class ClassChecker implements Checker<Object> {
         return referenceClass;
     }
 
+    /** @return <code>true</code> if null is an element of the reference class. */
+    boolean acceptsNull() {
+        return nullIsMemberOfReferenceClass;
+    }
+
     /** Displays the name of the reference class. */
     @Override
     public String toString() {
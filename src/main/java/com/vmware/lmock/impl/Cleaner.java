@@ -9,7 +9,8 @@ package com.vmware.lmock.impl;
 
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * A central point for cleaning the invocation handlers put during a test.
@@ -25,9 +26,11 @@ import java.util.List;
  * </ul>
  *
  * <p>
- * The cleaner enriches a list of registered mock (<code>register</code>) and
- * calls all the registered mock when the method <code>cleanup</code> is
- * invoked.
+ * Each association is stamped with the current cleanup epoch. Cleaning up
+ * moves to the next epoch, so that every association made before is
+ * considered as removed, whatever the number of mocks. The cleaner still
+ * keeps a weak registry of the mocks it stamped (<code>register</code>),
+ * for inspection purpose.
  * </p>
  *
  * <p>
@@ -35,55 +38,55 @@ import java.util.List;
  * </p>
  */
 public class Cleaner implements Iterable<Mock> {
-    /** List of registered mocks. */
-    private final List<Mock> mockList = new ArrayList<Mock>();
+    /** Registered mocks, weakly referenced so that they can be collected. */
+    private final Map<Mock, Boolean> mockRegistry = new WeakHashMap<Mock, Boolean>();
     /** The cleaner singleton. */
     private static final Cleaner cleaner = new Cleaner();
 
     /**
-     * Checks if a given mock is already known by the cleaner.
+     * Registers a new mock so that it will be cleaned up.
      *
      * @param mock
-     *            the requested mock
-     * @return <code>true</code> if the specified mock is recognized.
+     *            the registered mock
      */
-    private boolean isMockRegistered(Mock mock) {
-        return mockList.contains(mock);
+    private synchronized void registerMock(Mock mock) {
+        mockRegistry.put(mock, Boolean.TRUE);
     }
 
     /**
-     * Registers a new mock so that it will be cleaned up.
+     * Provides the mocks registered up to now and not collected yet.
      *
-     * @param mock
-     *            the registered mock
+     * @return An iterator on a snapshot of the registered mocks.
      */
-    private void registerMock(Mock mock) {
-        mockList.add(mock);
-    }
-
     @Override
-    public Iterator<Mock> iterator() {
-        return mockList.iterator();
+    public synchronized Iterator<Mock> iterator() {
+        return new ArrayList<Mock>(mockRegistry.keySet()).iterator();
     }
 
     /**
      * Registers a mock so that it will be cleaned up.
      *
+     * <p>
+     * The mocks register once, when associated to a handler for the first
+     * time.
+     * </p>
+     *
      * @param mock
      *            the registered mock
      */
     protected static void register(Mock mock) {
-        if (!cleaner.isMockRegistered(mock)) {
-            cleaner.registerMock(mock);
-        }
+        cleaner.registerMock(mock);
     }
 
     /**
      * Cleans up all the registered mocks.
+     *
+     * <p>
+     * The associations of mocks to handlers made before in the story context
+     * of the current thread are considered as removed from now on.
+     * </p>
      */
     public static void cleanup() {
-        for (Mock mock : cleaner) {
-            mock.cleanupInvocationHandlers();
-        }
+        StoryContext.get().cleanup();
     }
 }
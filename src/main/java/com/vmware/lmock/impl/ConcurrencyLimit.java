@@ -0,0 +1,82 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+
+/**
+ * Limits the number of calls accepted by a stub at the same time.
+ *
+ * <p>
+ * The limit is a fair semaphore. A call first tries to take a permit with a
+ * single compare and set operation. If none is available, it waits in the
+ * queue of the semaphore, parked until a permit is released for it, in the
+ * order of arrival.
+ * </p>
+ */
+final class ConcurrencyLimit extends CallLimit {
+    /** The number of concurrent calls. */
+    private final int calls;
+    /** The available permits. */
+    private final Semaphore permits;
+
+    /**
+     * Creates a new limit.
+     *
+     * @param calls
+     *            the number of concurrent calls
+     */
+    ConcurrencyLimit(int calls) {
+        this.calls = calls;
+        this.permits = new Semaphore(calls, true);
+    }
+
+    /**
+     * Releases a permit, waking up the first waiting call if any.
+     */
+    private void release() {
+        permits.release();
+    }
+
+    @Override
+    Object apply(InvocationResultProvider result, Class<?> returnType,
+      LatencyClock clock) throws Throwable {
+        if (!permits.tryAcquire()) {
+            if (getSaturationException() != null) {
+                return reject(DelayedResult.returnsAFuture(returnType));
+            }
+            permits.acquireUninterruptibly();
+        }
+
+        boolean releaseNow = true;
+        try {
+            Object value = result.apply();
+            if (value instanceof CompletableFuture) {
+                // The call ends with the future.
+                ((CompletableFuture<?>) value).whenComplete(new BiConsumer<Object, Throwable>() {
+                    public void accept(Object ignoredValue, Throwable ignoredExcpt) {
+                        release();
+                    }
+                });
+                releaseNow = false;
+            }
+            return value;
+        } finally {
+            if (releaseNow) {
+                release();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "concurrentCalls(" + calls + ")";
+    }
+}
@@ -0,0 +1,180 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * An invocation result applied after some latency.
+ *
+ * <p>
+ * The invocations of methods returning a <code>CompletableFuture</code> (or
+ * one of its interfaces) immediately return a future, that the clock
+ * completes at the deadline with the outcome of the delayed result. The other
+ * invocations park the invoking thread until the deadline, then apply the
+ * delayed result.
+ * </p>
+ * <p>
+ * The delayed result itself is always applied by the invoking thread.
+ * </p>
+ */
+final class DelayedResult implements TimedResult {
+    /** The delayed result. */
+    private final InvocationResultProvider result;
+    /** The latency of the invocation. */
+    private final Latency latency;
+    /** Set if the result is provided by a future. */
+    private final boolean asynchronous;
+    /** The clock measuring the latency. */
+    private final LatencyClock clock;
+    /** The last copy of this result using another clock, null if none. */
+    private volatile DelayedResult rebound;
+
+    /**
+     * Creates a new delayed result.
+     *
+     * @param result
+     *            the delayed result
+     * @param latency
+     *            the latency of the invocation
+     * @param returnType
+     *            the type returned by the invoked method
+     * @param clock
+     *            the clock measuring the latency
+     */
+    DelayedResult(InvocationResultProvider result, Latency latency,
+      Class<?> returnType, LatencyClock clock) {
+        this(result, latency, returnsAFuture(returnType), clock);
+    }
+
+    /**
+     * Creates a new delayed result.
+     *
+     * @param result
+     *            the delayed result
+     * @param latency
+     *            the latency of the invocation
+     * @param asynchronous
+     *            <code>true</code> if the result is provided by a future
+     * @param clock
+     *            the clock measuring the latency
+     */
+    private DelayedResult(InvocationResultProvider result, Latency latency,
+      boolean asynchronous, LatencyClock clock) {
+        this.result = result;
+        this.latency = latency;
+        this.asynchronous = asynchronous;
+        this.clock = clock;
+    }
+
+    /**
+     * Tells whether the methods returning a given type return a future.
+     *
+     * @param returnType
+     *            the type returned by the methods
+     * @return <code>true</code> if the type is <code>CompletableFuture</code>
+     *         or one of its interfaces.
+     */
+    static boolean returnsAFuture(Class<?> returnType) {
+        return !returnType.equals(Object.class) && returnType.isAssignableFrom(CompletableFuture.class);
+    }
+
+    @Override
+    public DelayedResult on(LatencyClock otherClock) {
+        if (otherClock == clock) {
+            return this;
+        }
+
+        // A story keeps the same clock: reuse the copy made for it.
+        DelayedResult currentRebound = rebound;
+        if (currentRebound == null || currentRebound.clock != otherClock) {
+            currentRebound = new DelayedResult(result, latency, asynchronous, otherClock);
+            rebound = currentRebound;
+        }
+        return currentRebound;
+    }
+
+    /**
+     * Completes a future with the outcome of the delayed result.
+     *
+     * @param future
+     *            the completed future
+     * @param value
+     *            the value returned by the delayed result, if any
+     * @param excpt
+     *            the exception thrown by the delayed result, if any
+     */
+    private static void complete(CompletableFuture<Object> future, Object value, Throwable excpt) {
+        if (excpt != null) {
+            future.completeExceptionally(excpt);
+        } else {
+            future.complete(value);
+        }
+    }
+
+    /**
+     * Applies the delayed result and completes a future at the deadline.
+     *
+     * @param deadline
+     *            the deadline
+     * @return The future.
+     */
+    private CompletableFuture<Object> applyAsynchronously(long deadline) {
+        final CompletableFuture<Object> future = new CompletableFuture<Object>();
+        Object value;
+        try {
+            value = result.apply();
+        } catch (final Throwable e) {
+            clock.schedule(deadline, new Runnable() {
+                public void run() {
+                    complete(future, null, e);
+                }
+            });
+            return future;
+        }
+
+        if (value instanceof CompletableFuture) {
+            @SuppressWarnings("unchecked")
+            final CompletableFuture<Object> delayed = (CompletableFuture<Object>) value;
+            clock.schedule(deadline, new Runnable() {
+                public void run() {
+                    delayed.whenComplete(new BiConsumer<Object, Throwable>() {
+                        public void accept(Object delayedValue, Throwable excpt) {
+                            complete(future, delayedValue, excpt);
+                        }
+                    });
+                }
+            });
+        } else {
+            final Object delayedValue = value;
+            clock.schedule(deadline, new Runnable() {
+                public void run() {
+                    complete(future, delayedValue, null);
+                }
+            });
+        }
+        return future;
+    }
+
+    @Override
+    public Object apply() throws Throwable {
+        long deadline = clock.nanoTime() + latency.nextDelay();
+        if (asynchronous) {
+            return applyAsynchronously(deadline);
+        } else {
+            clock.parkUntil(deadline);
+            return result.apply();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return result + " after " + latency;
+    }
+}
@@ -0,0 +1,42 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+/**
+ * Defines how a story dispatches the invocations issued by concurrent threads.
+ *
+ * <p>
+ * The mode is assigned to a story with <code>Story.withDispatchMode</code>.
+ * </p>
+ */
+public enum DispatchMode {
+    /**
+     * Every invocation is processed under a single lock, owned by the story.
+     *
+     * <p>
+     * This is the default mode: the checkers and stubs are never evaluated
+     * concurrently.
+     * </p>
+     */
+    SERIALIZED,
+    /**
+     * Invocations are processed without any global lock.
+     *
+     * <p>
+     * Stubs are searched concurrently by the invoking threads. The only
+     * serialization point is the validation of a scenario, which is done under
+     * the lock of the story processor following this scenario (i.e. threads
+     * sharing the same scenario are serialized, other ones are not).
+     * </p>
+     * <p>
+     * In this mode, the user checkers involved in the stubs must be thread
+     * safe.
+     * </p>
+     */
+    CONCURRENT;
+}
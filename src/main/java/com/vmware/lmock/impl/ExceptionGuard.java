@@ -30,15 +30,15 @@ import com.vmware.lmock.exception.LMRuntimeException;
  * </ul>
  *
  * <p>
- * In practice, the system implements a single guard, which can be accessed
- * at any time from any method, but exceptions are guarded if and only if
- * the guard is enabled.
+ * In practice, each story context implements a single guard, which can be
+ * accessed at any time from any method of a thread using that context, but
+ * exceptions are guarded if and only if the guard is enabled.
  * </p>
  *
  * <p>
- * <i>Implementation note: the choice for a singleton is more a matter of
- * simplicity since in practice guarded exceptions can be thrown by the
- * invocation processor or by a mock (unexpected invocation).</i>
+ * <i>Implementation note: the choice for a per-context singleton is more a
+ * matter of simplicity since in practice guarded exceptions can be thrown by
+ * the invocation processor or by a mock (unexpected invocation).</i>
  * </p>
  */
 final class ExceptionGuard {
@@ -51,13 +51,11 @@ final class ExceptionGuard {
     private ExpectationError lastError;
     /** Set to <code>true</code> when the exception guard is turned on. */
     private boolean enabled;
-    /** The unique exception guard in the system. */
-    private static final ExceptionGuard guard = new ExceptionGuard();
 
     /**
      * Creates the exception guard, disabled for the moment.
      */
-    private ExceptionGuard() {
+    ExceptionGuard() {
         this.enabled = false;
     }
 
@@ -74,7 +72,7 @@ final class ExceptionGuard {
      * @param excpt
      *            the exception
      */
-    void record(LMRuntimeException excpt) {
+    synchronized void record(LMRuntimeException excpt) {
         logger.trace("record", "LMRuntimeException", excpt);
         if (enabled && recordedNothing()) {
             this.lastException = excpt;
@@ -87,7 +85,7 @@ final class ExceptionGuard {
      * @param error
      *            the error
      */
-    void record(ExpectationError error) {
+    synchronized void record(ExpectationError error) {
         logger.trace("record", "ExpectationError", error);
         if (enabled && recordedNothing()) {
             this.lastError = error;
@@ -107,7 +105,7 @@ final class ExceptionGuard {
     }
 
     /** If an exception or error was guarded, throw it. */
-    void throwIfPresent() {
+    synchronized void throwIfPresent() {
         if (enabled) {
             if (lastException != null) {
                 logger.trace("throwIfPresent", "throwing guarded exception");
@@ -127,7 +125,7 @@ final class ExceptionGuard {
      * are active.
      * </p>
      */
-    void enable() {
+    synchronized void enable() {
         logger.trace("enable");
         clearToState(true);
     }
@@ -140,13 +138,13 @@ final class ExceptionGuard {
      * to record or throw exceptions is dummy.
      * </p>
      */
-    void disable() {
+    synchronized void disable() {
         logger.trace("disable");
         clearToState(false);
     }
 
-    /** @return The singleton. */
+    /** @return The exception guard of the current thread's story context. */
     static ExceptionGuard get() {
-        return guard;
+        return StoryContext.get().getExceptionGuard();
     }
 }
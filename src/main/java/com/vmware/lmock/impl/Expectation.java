@@ -9,9 +9,11 @@ package com.vmware.lmock.impl;
 
 import java.lang.reflect.Method;
 
+import com.vmware.lmock.checker.ConcurrentOccurrenceChecker;
 import com.vmware.lmock.checker.OccurrenceChecker;
 import com.vmware.lmock.checker.Occurrences;
 import com.vmware.lmock.clauses.HasInvocationResultSpecificationClauses;
+import com.vmware.lmock.clauses.HasLatencySpecificationClauses;
 import com.vmware.lmock.clauses.HasOccurrencesSpecificationClauses;
 import com.vmware.lmock.exception.MockReferenceException;
 
@@ -34,15 +36,20 @@ import com.vmware.lmock.exception.MockReferenceException;
  * <li><code>willDelegateTo</code>: handle the invocation result with a user supplied
  * method.</li>
  * <li><code>occurs</code>: defines the occurrences of the expected invocation.</li>
+ * <li><code>willTakeTime</code>: by default, the invocation result is applied
+ * immediately. This method allows to simulate the latency of the invocation.</li>
  * </ul>
  */
 public final class Expectation extends InvocationChecker implements
   HasInvocationResultSpecificationClauses<Expectation>,
-  HasOccurrencesSpecificationClauses<Expectation> {
+  HasOccurrencesSpecificationClauses<Expectation>,
+  HasLatencySpecificationClauses<Expectation> {
     /** Result applied by the expectation when the method is invoked. */
     private InvocationResultProvider invocationResult;
     /** Expected occurrences of this expectation. By default, none specific. */
     private OccurrenceChecker occurrences = Occurrences.any();
+    /** Latency of the expected invocation, <code>null</code> if none. */
+    private Latency latency;
 
     /**
      * Creates a new expectation, assuming that we know the method.
@@ -104,19 +111,55 @@ public final class Expectation extends InvocationChecker implements
         return this;
     }
 
+    @Override
+    public Expectation willTakeTime(Latency latency) {
+        if (latency == null) {
+            throw new IllegalArgumentException("null latency specified");
+        }
+
+        this.latency = latency;
+        return this;
+    }
+
     /**
      * Applies the user defined invocation result, simulating a call to the
-     * object.
+     * object, unless the expectation has reached its occurrence limit.
      *
      * <p>
      * Notice that the occurrence counter is incremented by this method.
+     * Concurrent occurrences are compared with their limit and incremented in
+     * a single operation, since parallel invocations may count them at the
+     * same time.
      * </p>
      *
+     * @return The invocation result, null if the limit is reached.
+     */
+    InvocationResultProvider tryGetResult() {
+        if (occurrences instanceof ConcurrentOccurrenceChecker) {
+            if (!((ConcurrentOccurrenceChecker) occurrences).tryIncrement()) {
+                return null;
+            }
+        } else if (occurrences.hasReachedLimit()) {
+            return null;
+        } else {
+            occurrences.increment();
+        }
+        return getResultOfCountedOccurrence();
+    }
+
+    /**
+     * Applies the user defined invocation result, once the occurrence of the
+     * invocation is already counted.
+     *
      * @return The invocation result, never null.
      */
-    InvocationResultProvider getResult() {
-        occurrences.increment();
-        return invocationResult;
+    InvocationResultProvider getResultOfCountedOccurrence() {
+        if (latency == null) {
+            return invocationResult;
+        } else {
+            return new DelayedResult(invocationResult, latency,
+              getMethod().getReturnType(), LatencyClock.system());
+        }
     }
 
     @Override
@@ -126,6 +169,10 @@ public final class Expectation extends InvocationChecker implements
         // Display the result of an invocation
         builder.append(':');
         builder.append(invocationResult);
+        if (latency != null) {
+            builder.append(" after ");
+            builder.append(latency);
+        }
 
         builder.append('/');
         builder.append(occurrences);
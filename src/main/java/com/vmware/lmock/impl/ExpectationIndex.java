@@ -0,0 +1,76 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of the positions of expectations in an expectation list.
+ *
+ * <p>
+ * The positions are indexed by mock and method name, which are the first
+ * criteria validated by an expectation when checking an invocation. This
+ * allows to find the next expectation that may accept an invocation without
+ * inspecting the expectations in between.
+ * </p>
+ */
+final class ExpectationIndex {
+    /** Per-mock map of per-method name positions. */
+    private final Map<Mock, Map<String, PositionList>> map =
+      new HashMap<Mock, Map<String, PositionList>>();
+
+    /**
+     * Registers an expectation at a given position.
+     *
+     * <p>
+     * The positions must be registered in increasing order.
+     * </p>
+     *
+     * @param expectation
+     *            the registered expectation
+     * @param position
+     *            position of the expectation in the list
+     */
+    void add(Expectation expectation, int position) {
+        Map<String, PositionList> methodMap = map.get(expectation.getProxy());
+        if (methodMap == null) {
+            methodMap = new HashMap<String, PositionList>();
+            map.put(expectation.getProxy(), methodMap);
+        }
+
+        String methodName = expectation.getMethod().getName();
+        PositionList positions = methodMap.get(methodName);
+        if (positions == null) {
+            positions = new PositionList();
+            methodMap.put(methodName, positions);
+        }
+
+        positions.add(position);
+    }
+
+    /**
+     * Searches for the first expectation that may accept an invocation,
+     * starting from a given position.
+     *
+     * @param invocation
+     *            the invocation
+     * @param from
+     *            the first position to consider
+     * @return The position of the fetched expectation, -1 if none.
+     */
+    int nextCandidate(Invocation invocation, int from) {
+        Map<String, PositionList> methodMap = map.get(invocation.getMock());
+        if (methodMap == null) {
+            return -1;
+        }
+
+        PositionList positions = methodMap.get(invocation.getMethod().getName());
+        return (positions == null) ? -1 : positions.firstFrom(from);
+    }
+}
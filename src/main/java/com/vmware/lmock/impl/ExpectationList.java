@@ -10,6 +10,7 @@ package com.vmware.lmock.impl;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * List of expectations built by a test to create a scenario.
@@ -26,11 +27,13 @@ final class ExpectationList implements Iterable<Expectation> {
     /** Unique identifier of the list, to help debugging. */
     private long uuid;
     /** A static counter of the lists, to help debugging. */
-    private static long uuidCounter;
+    private static final AtomicLong uuidCounter = new AtomicLong();
     /** The registered expectations, in the order they were declared. */
     private final List<Expectation> expectationList = new ArrayList<Expectation>();
     /** Index of the current expectation. */
     private int currentExpectationIndex = 0;
+    /** Positions of the expectations, by mock and method. */
+    private final ExpectationIndex index = new ExpectationIndex();
 
     /**
      * Creates a new list of expectations.
@@ -42,7 +45,7 @@ final class ExpectationList implements Iterable<Expectation> {
      *            the expectation list
      */
     protected ExpectationList(Expectation... expectations) {
-        uuid = uuidCounter++;
+        uuid = uuidCounter.getAndIncrement();
         logger.trace("ExpectationList", "uuid=", uuid);
         addExpectations(expectations);
     }
@@ -59,6 +62,7 @@ final class ExpectationList implements Iterable<Expectation> {
      */
     ExpectationList addExpectation(Expectation expectation) {
         logger.trace("addExpectation", "uuid=", uuid, "expectation=", expectation);
+        index.add(expectation, expectationList.size());
         expectationList.add(expectation);
         return this;
     }
@@ -89,6 +93,31 @@ final class ExpectationList implements Iterable<Expectation> {
         }
     }
 
+    /** @return The position of the current expectation in the list. */
+    int getCurrentPosition() {
+        return currentExpectationIndex;
+    }
+
+    /**
+     * Searches for the first expectation after the current one that may
+     * accept an invocation.
+     *
+     * <p>
+     * The returned expectation has the same mock and method name as the
+     * invocation, but its arguments are not checked. The expectations in
+     * between do not accept the invocation.
+     * </p>
+     *
+     * @param invocation
+     *            the invocation
+     * @return The position of the fetched expectation, the size of the list
+     *         if none.
+     */
+    int nextCandidatePosition(Invocation invocation) {
+        int position = index.nextCandidate(invocation, currentExpectationIndex + 1);
+        return (position < 0) ? expectationList.size() : position;
+    }
+
     /**
      * Moves to the next expectation, if any.
      *
@@ -8,7 +8,11 @@
 package com.vmware.lmock.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Objects tracking the expectations in order to provide an accurate report of
@@ -18,6 +22,17 @@ import java.util.List;
  * Such a report includes an expectation and the number of times it was
  * satisfied.
  * </p>
+ *
+ * <p>
+ * In order to tell how the threads interleaved, a report keeps one run per
+ * sequence of consecutive invocations from a thread. Consecutive invocations
+ * from the same thread only read the latest run of the report and increment
+ * their own counter. Each switch to another thread however allocates a run and
+ * publishes it as the latest run of the report, a write shared by all the
+ * invoking threads. Threads interleaving at every call pay this on every call
+ * and grow the report accordingly, unless the story bounds the number of runs
+ * kept per thread (see <code>TrackRetention</code>).
+ * </p>
  */
 final class ExpectationReport {
     /**
@@ -26,7 +41,7 @@ final class ExpectationReport {
      * @param count
      *            the displayed count
      */
-    private static String aStringForCount(int count) {
+    private static String aStringForCount(long count) {
         StringBuilder builder = new StringBuilder(8);
         builder.append(count);
         builder.append(' ');
@@ -40,36 +55,117 @@ final class ExpectationReport {
     private final Expectation expectation;
 
     /**
-     * Number of invocations of the expectation for a given thread.
+     * A sequence of consecutive invocations of the expectation by one thread.
+     *
+     * <p>
+     * A run is only updated by its thread, so that incrementing its counter
+     * is never contended.
+     * </p>
      */
-    private static final class PerThreadRecord {
+    private static final class Run {
+        /** The invoking thread. */
         private final Thread thread;
-        private int count = 0;
+        /** Order of the run among the runs of the report. */
+        private final long sequence;
+        /** The number of invocations in this run. */
+        private volatile long count = 1;
+        /** The next run of the same thread, null if none yet. */
+        private volatile Run next;
 
         /**
-         * Creates a new record, setting the invocation counter to 1.
+         * Creates a new run, setting the invocation counter to 1.
          *
          * @param thread
          *            the invoking thread
+         * @param sequence
+         *            the order of the run
          */
-        PerThreadRecord(Thread thread) {
+        Run(Thread thread, long sequence) {
             this.thread = thread;
-            this.count = 1;
+            this.sequence = sequence;
         }
+    }
+
+    /**
+     * The invocations of the expectation by a given thread.
+     *
+     * <p>
+     * When the number of runs is limited, the oldest runs are dropped and
+     * their invocations are only counted.
+     * </p>
+     */
+    private static final class ThreadCell {
+        private final Thread thread;
+        /** The maximum number of runs kept, 0 if unbounded. */
+        private final int maxRuns;
+        /** The oldest run kept, null if none yet. */
+        private volatile Run firstRun;
+        /** The latest run of the thread, null if none yet. */
+        private volatile Run lastRun;
+        /** The number of runs kept. */
+        private int runCount = 0;
+        /** The number of invocations in the dropped runs. */
+        private volatile long droppedCount = 0;
 
-        /** Increments the invocation counter. */
-        void oneMoreInvocation() {
-            this.count++;
+        /**
+         * Creates a new cell with no run.
+         *
+         * @param thread
+         *            the invoking thread
+         * @param maxRuns
+         *            the maximum number of runs kept, 0 if unbounded
+         */
+        ThreadCell(Thread thread, int maxRuns) {
+            this.thread = thread;
+            this.maxRuns = maxRuns;
         }
 
-        /** @return The recorded thread performing the related invocations. */
-        Thread getThread() {
-            return thread;
+        /**
+         * Opens a new run, following a run of another thread.
+         *
+         * @param sequence
+         *            the order of the new run
+         * @return The new run.
+         */
+        Run newRun(long sequence) {
+            Run run = new Run(thread, sequence);
+            if (lastRun == null) {
+                firstRun = run;
+            } else {
+                lastRun.next = run;
+            }
+            lastRun = run;
+
+            if (maxRuns > 0 && runCount == maxRuns) {
+                Run dropped = firstRun;
+                firstRun = dropped.next;
+                droppedCount += dropped.count;
+            } else {
+                runCount++;
+            }
+            return run;
         }
+    }
 
-        /** @return The number of invocations by the recorded thread. */
-        int getCount() {
-            return count;
+    /**
+     * Number of invocations of the expectation for a given thread, once the
+     * runs are merged.
+     */
+    private static final class PerThreadRecord {
+        private final Thread thread;
+        private long count;
+
+        /**
+         * Creates a new record.
+         *
+         * @param thread
+         *            the invoking thread
+         * @param count
+         *            the initial invocation count
+         */
+        PerThreadRecord(Thread thread, long count) {
+            this.thread = thread;
+            this.count = count;
         }
 
         @Override
@@ -81,91 +177,109 @@ final class ExpectationReport {
             return builder.toString();
         }
     }
-    /** List of threads that performed an invocation. */
-    private List<PerThreadRecord> records = new ArrayList<PerThreadRecord>();
 
     /**
-     * @return <code>true</code> if the list of records is not empty.
+     * A run associated to its thread, while merging the runs.
      */
-    private boolean hasRecords() {
-        return !records.isEmpty();
-    }
-
-    /**
-     * Assuming that the list of records is not empty, provides the top of the
-     * stack.
-     *
-     * @return The very last record in the records list.
-     */
-    private PerThreadRecord getLastRecord() {
-        return records.get(records.size() - 1);
-    }
+    private static final class ThreadRun {
+        private final Thread thread;
+        private final Run run;
 
-    /**
-     * @return The total number of recorded invocations, regardless of the
-     * invoking thread.
-     */
-    private int getTotalNumberOfInvocations() {
-        int result = 0;
-        for (PerThreadRecord record : records) {
-            result += record.getCount();
+        /**
+         * @param thread
+         *            the thread of the run
+         * @param run
+         *            the run
+         */
+        ThreadRun(Thread thread, Run run) {
+            this.thread = thread;
+            this.run = run;
         }
-
-        return result;
     }
+    /** Orders the runs by sequence. */
+    private static final Comparator<ThreadRun> bySequence = new Comparator<ThreadRun>() {
+        public int compare(ThreadRun run1, ThreadRun run2) {
+            return (run1.run.sequence < run2.run.sequence) ? -1
+              : ((run1.run.sequence == run2.run.sequence) ? 0 : 1);
+        }
+    };
+    /** The cells of the threads that performed an invocation. */
+    private final Map<Thread, ThreadCell> cells = new ConcurrentHashMap<Thread, ThreadCell>();
+    /** The latest run opened in this report, null if none yet. */
+    private volatile Run lastRun;
+    /** The maximum number of runs kept per thread, 0 if unbounded. */
+    private final int maxRunsPerThread;
 
     /**
-     * Adds a record specifying that a given thread is performing a tracked
-     * invocation.
-     *
-     * <p>
-     * Creates and registers a new per thread record
-     * </p>
+     * Gets the cell of a thread, creating it if needed.
      *
      * @param thread
-     *            the recorded thread
+     *            the thread
+     * @return The cell.
      */
-    private void recordNewThreadInvocation(Thread thread) {
-        records.add(new PerThreadRecord(thread));
+    private ThreadCell getCell(Thread thread) {
+        ThreadCell cell = cells.get(thread);
+        if (cell == null) {
+            cell = new ThreadCell(thread, maxRunsPerThread);
+            cells.put(thread, cell);
+        }
+        return cell;
     }
 
     /**
-     * Checks if a recorded thread is already currently recorded and performs
-     * the appropriate tracking.
+     * Records an invocation from the current thread in the records.
      *
      * <p>
-     * The method assumes that the records list is not empty. If the specified
-     * thread is currently recorded, increment the record counter. Create a
-     * new record otherwise.
+     * If the previously recorded thread is the same, increment the invocation
+     * counter of its latest run, open a new run otherwise. The sequence of the
+     * new run follows the latest run, so that no shared counter is needed.
+     * Threads opening a run at the same time may get the same sequence: their
+     * invocations were concurrent anyway.
      * </p>
-     *
-     * @param thread
-     *            the recorded thread
      */
-    private void recordOrIncrementThreadInvocation(Thread thread) {
-        PerThreadRecord top = getLastRecord();
-        if (top.getThread().equals(thread)) {
-            top.oneMoreInvocation();
+    private void recordCurrentThreadInvocation() {
+        Thread recorded = Thread.currentThread();
+        Run run = lastRun;
+        if (run != null && run.thread == recorded) {
+            // Only the run's thread writes its counter.
+            run.count++;
         } else {
-            recordNewThreadInvocation(thread);
+            // Cells are only created by their own thread.
+            long sequence = (run == null) ? 0 : run.sequence + 1;
+            lastRun = getCell(recorded).newRun(sequence);
         }
     }
 
     /**
-     * Records an invocation from the current thread in the records.
+     * Merges the runs of every thread into the list of records.
      *
      * <p>
-     * If the previously recorded thread is the same, increment the invocation
-     * counter, create a new record otherwise.
+     * The runs are ordered by sequence and consecutive runs of the same
+     * thread are merged into a single record.
      * </p>
+     *
+     * @return The records, in the order of the invocations.
      */
-    private void recordCurrentThreadInvocation() {
-        Thread recorded = Thread.currentThread();
-        if (hasRecords()) {
-            recordOrIncrementThreadInvocation(recorded);
-        } else {
-            recordNewThreadInvocation(recorded);
+    private List<PerThreadRecord> getRecords() {
+        List<ThreadRun> runs = new ArrayList<ThreadRun>();
+        for (ThreadCell cell : cells.values()) {
+            for (Run run = cell.firstRun; run != null; run = run.next) {
+                runs.add(new ThreadRun(cell.thread, run));
+            }
+        }
+        Collections.sort(runs, bySequence);
+
+        List<PerThreadRecord> records = new ArrayList<PerThreadRecord>(runs.size());
+        PerThreadRecord top = null;
+        for (ThreadRun run : runs) {
+            if (top != null && top.thread == run.thread) {
+                top.count += run.run.count;
+            } else {
+                top = new PerThreadRecord(run.thread, run.run.count);
+                records.add(top);
+            }
         }
+        return records;
     }
 
     /**
@@ -173,9 +287,13 @@ final class ExpectationReport {
      *
      * @param expectation
      *            the reported expectation
+     * @param maxRunsPerThread
+     *            the maximum number of runs of consecutive invocations kept
+     *            per thread, 0 if unbounded
      */
-    protected ExpectationReport(Expectation expectation) {
+    protected ExpectationReport(Expectation expectation, int maxRunsPerThread) {
         this.expectation = expectation;
+        this.maxRunsPerThread = maxRunsPerThread;
     }
 
     /**
@@ -187,13 +305,29 @@ final class ExpectationReport {
 
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder(128);
+        List<PerThreadRecord> records = getRecords();
+        long total = 0;
+        for (PerThreadRecord record : records) {
+            total += record.count;
+        }
+        for (ThreadCell cell : cells.values()) {
+            total += cell.droppedCount;
+        }
 
+        StringBuilder builder = new StringBuilder(128);
         builder.append("satisfied ");
-        builder.append(aStringForCount(getTotalNumberOfInvocations()));
+        builder.append(aStringForCount(total));
         builder.append(": ");
         builder.append(expectation);
 
+        for (ThreadCell cell : cells.values()) {
+            if (cell.droppedCount != 0) {
+                builder.append("\n\t");
+                builder.append(aStringForCount(cell.droppedCount));
+                builder.append(" earlier from ");
+                builder.append(cell.thread);
+            }
+        }
         for (PerThreadRecord record : records) {
             builder.append("\n\t");
             builder.append(record);
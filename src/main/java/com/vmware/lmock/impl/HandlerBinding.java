@@ -0,0 +1,86 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+/**
+ * Associates an invocation handler to mocks.
+ *
+ * <p>
+ * A binding is valid during the cleanup epoch of its story context in which
+ * it was bound (see <code>Cleaner</code>), until it is unbound. A single
+ * binding can be shared by many mocks, so that binding or unbinding it links
+ * or unlinks all of them at once.
+ * </p>
+ */
+final class HandlerBinding {
+    /** Epoch of an unbound binding. */
+    private static final long UNBOUND = -1L;
+    /** The handler. */
+    private final MockInvocationHandler handler;
+    /** The context defining the cleanup epochs. */
+    private final StoryContext context;
+    /** The cleanup epoch in which the binding is valid, UNBOUND if none. */
+    private volatile long epoch = UNBOUND;
+    /** Set when a mock using this binding switched to another one. */
+    private volatile boolean displaced = false;
+
+    /**
+     * Creates a new unbound binding.
+     *
+     * @param handler
+     *            the bound handler
+     * @param context
+     *            the context defining the cleanup epochs
+     */
+    HandlerBinding(MockInvocationHandler handler, StoryContext context) {
+        this.handler = handler;
+        this.context = context;
+    }
+
+    /** Makes the binding valid during the current cleanup epoch. */
+    void bind() {
+        epoch = context.getCleanupEpoch();
+    }
+
+    /** Invalidates the binding. */
+    void unbind() {
+        epoch = UNBOUND;
+    }
+
+    /**
+     * Gets the handler, if the binding is valid.
+     *
+     * @return The handler, null if the binding is not valid.
+     */
+    MockInvocationHandler getHandler() {
+        long boundEpoch = epoch;
+        return (boundEpoch != UNBOUND && boundEpoch == context.getCleanupEpoch()) ? handler : null;
+    }
+
+    /** Notes that a mock sharing this binding switched to another one. */
+    void setDisplaced() {
+        displaced = true;
+    }
+
+    /**
+     * Checks whether a mock switched to another binding and clears the
+     * indication.
+     *
+     * @return <code>true</code> if a mock switched to another binding.
+     */
+    boolean clearDisplaced() {
+        boolean result = displaced;
+        displaced = false;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "binding of " + handler;
+    }
+}
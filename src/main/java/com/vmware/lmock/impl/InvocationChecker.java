@@ -33,10 +33,12 @@ import com.vmware.lmock.exception.MockReferenceException;
 class InvocationChecker implements Checker<Invocation> {
     /** Proxy enclosing the mock object. */
     private final Mock proxy;
-    /** Expected method name. */
+    /** Expected method. */
     private final Method method;
     /** List of expected arguments to the method. */
     private final List<Checker<Object>> expectedArguments = new ArrayList<Checker<Object>>();
+    /** Compiled version of the expected arguments. */
+    private ArgumentMatchingPlan argumentMatchingPlan;
 
     /**
      * Sets the basic configuration of a stub.
@@ -49,6 +51,7 @@ class InvocationChecker implements Checker<Invocation> {
         for (Class<?> type : method.getParameterTypes()) {
             expectedArguments.add(anyArgumentOf(type));
         }
+        argumentMatchingPlan = new ArgumentMatchingPlan(expectedArguments);
     }
 
     /**
@@ -99,6 +102,7 @@ class InvocationChecker implements Checker<Invocation> {
                 expectedArguments.set(index,
                   (Checker<Object>) checkerList[index]);
             }
+            argumentMatchingPlan = new ArgumentMatchingPlan(expectedArguments);
         }
     }
 
@@ -112,6 +116,15 @@ class InvocationChecker implements Checker<Invocation> {
         return method;
     }
 
+    /**
+     * @return The values expected for every argument when they are all
+     *         literals (strings, boxed primitives...), <code>null</code>
+     *         otherwise.
+     */
+    final Object[] getLiteralArguments() {
+        return argumentMatchingPlan.getLiterals();
+    }
+
     /**
      * Validates the invocation regarding the arguments passed to the method.
      */
@@ -121,26 +134,14 @@ class InvocationChecker implements Checker<Invocation> {
             return false;
         }
 
-        if (!invocation.getMethod().getName().equals(method.getName())) {
+        // The method of a proxy invocation is usually the very method used to
+        // define the checker. Otherwise, rely on the method name.
+        Method invokedMethod = invocation.getMethod();
+        if (invokedMethod != method && !invokedMethod.getName().equals(method.getName())) {
             return false;
         }
 
-        // Be careful! args can be null (case of void methods).
-        if (invocation.getArgs() == null) {
-            return expectedArguments.isEmpty();
-        } else if (expectedArguments.size() != invocation.getArgs().length) {
-            return false;
-        } else {
-            Object[] arguments = invocation.getArgs();
-            for (int index = 0; index < arguments.length; index++) {
-                Checker<Object> currentChecker = expectedArguments.get(index);
-                if (!currentChecker.valueIsCompatibleWith(arguments[index])) {
-                    return false;
-                }
-            }
-        }
-
-        return true;
+        return argumentMatchingPlan.matches(invocation.getArgs());
     }
 
     @Override
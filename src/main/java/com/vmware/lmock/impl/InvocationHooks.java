@@ -212,6 +212,19 @@ final class InvocationHooks {
         return null;
     }
 
+    /**
+     * Checks if a method has a default handler.
+     *
+     * @param method
+     *            the checked method
+     * @return <code>true</code> if <code>tryInvocation</code> would apply a
+     *         default handler to an invocation of this method.
+     */
+    boolean hasDefaultHandlerFor(Method method) {
+        Hook hook = searchForHook(method);
+        return hook != null && hook.getDefaultHandler() != null;
+    }
+
     /**
      * Checks if an invocation corresponds to a hook method and applies the
      * default invocation if needed.
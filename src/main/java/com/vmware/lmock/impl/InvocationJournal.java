@@ -0,0 +1,579 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Records the invocations of mocks, to verify them after the fact.
+ *
+ * <p>
+ * A journal is attached to a story with <code>Story.withJournal</code>. It
+ * then records every invocation of a mock during the story, whether stubbed,
+ * expected or not. The test can then query the journal with invocation
+ * patterns:
+ * </p>
+ *
+ * <pre>
+ * <code>
+ *     int count = journal.count(new Invocations() {{
+ *         invoked(repository).save(with(...));
+ *     }});
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * Each thread records its invocations into its own log, so that concurrent
+ * threads never contend: the lock of a log is only shared with the queries.
+ * The invocations of a log are stored in chunks and indexed by mock and method
+ * name, so that a query only checks the invocations of the methods it refers
+ * to. The queries merge the logs of the threads, ordering the invocations of
+ * different threads by their timestamps.
+ * </p>
+ *
+ * <p>
+ * Since a test may run many short-lived threads, the chunks of a log start
+ * small and double up to a maximum size. A log only refers weakly to its
+ * thread, and a thread finds its log through a thread local variable rather
+ * than a map of threads, so that the journal does not keep the terminated
+ * threads alive.
+ * </p>
+ */
+public final class InvocationJournal {
+    /** Number of invocations of the first chunk of a log, a power of 2. */
+    private static final int FIRST_CHUNK_SIZE = 16;
+    /** Number of invocations of the largest chunks, a power of 2. */
+    private static final int MAX_CHUNK_SIZE = 4096;
+    /** Number of chunks smaller than the largest ones. */
+    private static final int NR_GROWING_CHUNKS = Integer.numberOfTrailingZeros(MAX_CHUNK_SIZE / FIRST_CHUNK_SIZE);
+    /** Number of invocations of the chunks smaller than the largest ones. */
+    private static final int GROWING_CAPACITY = FIRST_CHUNK_SIZE * ((1 << NR_GROWING_CHUNKS) - 1);
+
+    /**
+     * A recorded invocation.
+     */
+    public static final class Entry {
+        /** The invoked mock. */
+        private final Mock mock;
+        /** The invoked method. */
+        private final Method method;
+        /** The arguments passed to the method. */
+        private final Object[] arguments;
+        /** The invoking thread, null if it was garbage collected. */
+        private final Thread thread;
+        /** Time of the invocation, as given by System.nanoTime. */
+        private final long timestamp;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param mock
+         *            the invoked mock
+         * @param method
+         *            the invoked method
+         * @param arguments
+         *            the arguments
+         * @param thread
+         *            the invoking thread, null if it was garbage collected
+         * @param timestamp
+         *            the time of the invocation
+         */
+        private Entry(Mock mock, Method method, Object[] arguments, Thread thread, long timestamp) {
+            this.mock = mock;
+            this.method = method;
+            this.arguments = arguments;
+            this.thread = thread;
+            this.timestamp = timestamp;
+        }
+
+        /** @return The invoked mock object. */
+        public Object getObject() {
+            return mock.getProxy();
+        }
+
+        /** @return The invoked method. */
+        public Method getMethod() {
+            return method;
+        }
+
+        /** @return The arguments passed to the method, null if none. */
+        public Object[] getArguments() {
+            return (arguments == null) ? null : arguments.clone();
+        }
+
+        /**
+         * @return The invoking thread, <code>null</code> if it terminated and
+         *         was garbage collected.
+         */
+        public Thread getThread() {
+            return thread;
+        }
+
+        /**
+         * @return The time of the invocation, as given by
+         *         <code>System.nanoTime</code>.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return new Invocation(mock, mock.getProxy(), method, arguments).toString();
+        }
+    }
+
+    /**
+     * A chunk of recorded invocations, stored in columns.
+     */
+    private static final class Chunk {
+        /** Position of the first invocation of the chunk in its log. */
+        private final int start;
+        private final Mock[] mocks;
+        private final Method[] methods;
+        private final Object[][] arguments;
+        private final long[] timestamps;
+
+        /**
+         * Creates an empty chunk.
+         *
+         * @param start
+         *            position of the first invocation of the chunk
+         * @param capacity
+         *            number of invocations of the chunk
+         */
+        Chunk(int start, int capacity) {
+            this.start = start;
+            mocks = new Mock[capacity];
+            methods = new Method[capacity];
+            arguments = new Object[capacity][];
+            timestamps = new long[capacity];
+        }
+
+        /** @return The position following the last invocation of the chunk. */
+        int getEnd() {
+            return start + mocks.length;
+        }
+    }
+
+    /**
+     * Gets the index of the chunk storing an invocation.
+     *
+     * @param position
+     *            position of the invocation in its log
+     * @return The index of the chunk.
+     */
+    private static int getChunkIndex(int position) {
+        if (position < GROWING_CAPACITY) {
+            return 31 - Integer.numberOfLeadingZeros(position / FIRST_CHUNK_SIZE + 1);
+        } else {
+            return NR_GROWING_CHUNKS + (position - GROWING_CAPACITY) / MAX_CHUNK_SIZE;
+        }
+    }
+
+    /**
+     * The invocations recorded by one thread.
+     *
+     * <p>
+     * A log is only written by its thread. Its lock is thus uncontended,
+     * unless the journal is queried at the same time.
+     * </p>
+     */
+    private static final class ThreadLog {
+        /** The logs of the journal owning this log. */
+        private final Queue<ThreadLog> owner;
+        /** The recording thread. */
+        private final WeakReference<Thread> thread;
+        /** Protects the log against the concurrent queries. */
+        private final ReentrantLock lock = new ReentrantLock();
+        /** The chunks of recorded invocations. */
+        private final List<Chunk> chunks = new ArrayList<Chunk>();
+        /** The number of recorded invocations. */
+        private int size = 0;
+        /** Per-mock map of per-method name positions of the invocations. */
+        private final Map<Mock, Map<String, PositionList>> index =
+          new HashMap<Mock, Map<String, PositionList>>();
+
+        /**
+         * Creates an empty log for the current thread.
+         *
+         * @param owner
+         *            the logs of the journal owning this log
+         */
+        ThreadLog(Queue<ThreadLog> owner) {
+            this.owner = owner;
+            thread = new WeakReference<Thread>(Thread.currentThread());
+        }
+
+        /**
+         * @param position
+         *            position of an invocation
+         * @return The chunk storing the invocation.
+         */
+        private Chunk getChunk(int position) {
+            return chunks.get(getChunkIndex(position));
+        }
+
+        /**
+         * Gets the positions of the invocations of a method of a mock.
+         *
+         * @param mock
+         *            the mock
+         * @param methodName
+         *            the method name
+         * @param create
+         *            <code>true</code> to create the list if it does not
+         *            exist
+         * @return The positions, <code>null</code> if none and not created.
+         */
+        private PositionList getPositions(Mock mock, String methodName, boolean create) {
+            Map<String, PositionList> methodMap = index.get(mock);
+            if (methodMap == null) {
+                if (!create) {
+                    return null;
+                }
+                methodMap = new HashMap<String, PositionList>();
+                index.put(mock, methodMap);
+            }
+
+            PositionList positions = methodMap.get(methodName);
+            if (positions == null && create) {
+                positions = new PositionList();
+                methodMap.put(methodName, positions);
+            }
+            return positions;
+        }
+
+        /**
+         * Records an invocation.
+         *
+         * @param invocation
+         *            the invocation
+         */
+        void record(Invocation invocation) {
+            lock.lock();
+            try {
+                int position = size;
+                Chunk chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+                if (chunk == null || position == chunk.getEnd()) {
+                    int capacity = (chunks.size() < NR_GROWING_CHUNKS) ? FIRST_CHUNK_SIZE << chunks.size()
+                      : MAX_CHUNK_SIZE;
+                    chunk = new Chunk(position, capacity);
+                    chunks.add(chunk);
+                }
+
+                int offset = position - chunk.start;
+                chunk.mocks[offset] = invocation.getMock();
+                chunk.methods[offset] = invocation.getMethod();
+                chunk.arguments[offset] = invocation.getArgs();
+                chunk.timestamps[offset] = System.nanoTime();
+                getPositions(invocation.getMock(), invocation.getMethod().getName(), true).add(position);
+                size++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @param position
+         *            position of the requested invocation
+         * @return The invocation recorded at this position.
+         */
+        private Invocation getInvocation(int position) {
+            Chunk chunk = getChunk(position);
+            int offset = position - chunk.start;
+            return new Invocation(chunk.mocks[offset], null, chunk.methods[offset], chunk.arguments[offset]);
+        }
+
+        /**
+         * @param position
+         *            position of the requested invocation
+         * @return The entry recorded at this position.
+         */
+        private Entry getEntry(int position) {
+            Chunk chunk = getChunk(position);
+            int offset = position - chunk.start;
+            return new Entry(chunk.mocks[offset], chunk.methods[offset], chunk.arguments[offset],
+              thread.get(), chunk.timestamps[offset]);
+        }
+
+        /**
+         * Groups a set of patterns by the invocations they may match.
+         *
+         * <p>
+         * The patterns referring to the same mock and method are put
+         * together, so that each list of positions is parsed only once. The
+         * lists of positions are disjoint.
+         * </p>
+         *
+         * @param patterns
+         *            the patterns
+         * @return The patterns, by list of positions of the matching
+         *         candidates.
+         */
+        private Map<PositionList, List<InvocationPattern>> groupPatterns(Invocations patterns) {
+            Map<PositionList, List<InvocationPattern>> groups = new HashMap<PositionList, List<InvocationPattern>>();
+            for (InvocationPattern pattern : patterns) {
+                PositionList positions = getPositions(pattern.getProxy(), pattern.getMethod().getName(), false);
+                if (positions != null) {
+                    List<InvocationPattern> group = groups.get(positions);
+                    if (group == null) {
+                        group = new ArrayList<InvocationPattern>();
+                        groups.put(positions, group);
+                    }
+                    group.add(pattern);
+                }
+            }
+            return groups;
+        }
+
+        /**
+         * Checks whether a recorded invocation matches a group of patterns.
+         *
+         * @param position
+         *            position of the invocation
+         * @param group
+         *            the patterns
+         * @return <code>true</code> if the invocation matches any of the
+         *         patterns.
+         */
+        private boolean matches(int position, List<InvocationPattern> group) {
+            Invocation invocation = getInvocation(position);
+            for (InvocationPattern pattern : group) {
+                if (pattern.valueIsCompatibleWith(invocation)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Searches for the invocations matching a set of patterns.
+         *
+         * @param patterns
+         *            the patterns
+         * @param result
+         *            receives the matching entries, in the order of their
+         *            recording, <code>null</code> to only count them
+         * @param limit
+         *            the number of matching invocations after which the
+         *            search stops
+         * @return The number of matching invocations, up to the limit.
+         */
+        int search(Invocations patterns, List<Entry> result, int limit) {
+            lock.lock();
+            try {
+                List<Integer> matchingPositions = new ArrayList<Integer>();
+                int count = 0;
+                Map<PositionList, List<InvocationPattern>> groups = groupPatterns(patterns);
+                for (Map.Entry<PositionList, List<InvocationPattern>> group : groups.entrySet()) {
+                    PositionList positions = group.getKey();
+                    for (int index = 0; index < positions.size() && count < limit; index++) {
+                        if (matches(positions.get(index), group.getValue())) {
+                            count++;
+                            if (result != null) {
+                                matchingPositions.add(positions.get(index));
+                            }
+                        }
+                    }
+                }
+
+                if (result != null) {
+                    if (groups.size() > 1) {
+                        Collections.sort(matchingPositions);
+                    }
+                    for (int position : matchingPositions) {
+                        result.add(getEntry(position));
+                    }
+                }
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Gets all the recorded invocations.
+         *
+         * @param result
+         *            receives the entries, in the order of their recording
+         */
+        void getEntries(List<Entry> result) {
+            lock.lock();
+            try {
+                for (int position = 0; position < size; position++) {
+                    result.add(getEntry(position));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** @return The number of recorded invocations. */
+        int size() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** Orders the entries of several threads by timestamp. */
+    private static final Comparator<Entry> byTimestamp = new Comparator<Entry>() {
+        public int compare(Entry entry1, Entry entry2) {
+            return Long.compare(entry1.timestamp, entry2.timestamp);
+        }
+    };
+    /**
+     * The latest log of each thread, weakly referenced so that the log is
+     * only kept by its journal.
+     */
+    private static final ThreadLocal<WeakReference<ThreadLog>> currentThreadLogs =
+      new ThreadLocal<WeakReference<ThreadLog>>();
+    /** The logs of the recording threads. */
+    private volatile Queue<ThreadLog> logs = new ConcurrentLinkedQueue<ThreadLog>();
+
+    /**
+     * Records an invocation.
+     *
+     * <p>
+     * The latest log of the current thread is reused if it belongs to the
+     * current logs of this journal, a new log is created otherwise.
+     * </p>
+     *
+     * @param invocation
+     *            the invocation
+     */
+    void record(Invocation invocation) {
+        Queue<ThreadLog> currentLogs = logs;
+        WeakReference<ThreadLog> reference = currentThreadLogs.get();
+        ThreadLog log = (reference == null) ? null : reference.get();
+        if (log == null || log.owner != currentLogs) {
+            log = new ThreadLog(currentLogs);
+            currentLogs.add(log);
+            currentThreadLogs.set(new WeakReference<ThreadLog>(log));
+        }
+        log.record(invocation);
+    }
+
+    /**
+     * Searches the logs of every thread for the invocations matching a set of
+     * patterns.
+     *
+     * @param patterns
+     *            the patterns
+     * @param result
+     *            receives the matching entries, <code>null</code> to only
+     *            count them
+     * @param limit
+     *            the number of matching invocations after which the search
+     *            stops
+     * @return The number of matching invocations, up to the limit.
+     */
+    private int search(Invocations patterns, List<Entry> result, int limit) {
+        int count = 0;
+        int nrMatchingLogs = 0;
+        for (ThreadLog log : logs) {
+            int logCount = log.search(patterns, result, limit - count);
+            if (logCount != 0) {
+                count += logCount;
+                nrMatchingLogs++;
+            }
+            if (count >= limit) {
+                break;
+            }
+        }
+
+        if (result != null && nrMatchingLogs > 1) {
+            // The sort is stable: the entries of one thread remain in their
+            // recording order.
+            Collections.sort(result, byTimestamp);
+        }
+        return count;
+    }
+
+    /**
+     * Counts the recorded invocations matching a set of patterns.
+     *
+     * @param patterns
+     *            the patterns
+     * @return The number of invocations matching any of the patterns.
+     */
+    public int count(Invocations patterns) {
+        return search(patterns, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Checks whether an invocation matching a set of patterns was recorded.
+     *
+     * @param patterns
+     *            the patterns
+     * @return <code>true</code> if at least one invocation matches any of
+     *         the patterns.
+     */
+    public boolean contains(Invocations patterns) {
+        return search(patterns, null, 1) != 0;
+    }
+
+    /**
+     * Gets the recorded invocations matching a set of patterns.
+     *
+     * @param patterns
+     *            the patterns
+     * @return The invocations matching any of the patterns, in the order of
+     *         their recording.
+     */
+    public List<Entry> find(Invocations patterns) {
+        List<Entry> result = new ArrayList<Entry>();
+        search(patterns, result, Integer.MAX_VALUE);
+        return result;
+    }
+
+    /**
+     * @return All the recorded invocations, in the order of their
+     *         recording.
+     */
+    public List<Entry> getEntries() {
+        List<Entry> result = new ArrayList<Entry>();
+        int nrLogs = 0;
+        for (ThreadLog log : logs) {
+            log.getEntries(result);
+            nrLogs++;
+        }
+        if (nrLogs > 1) {
+            Collections.sort(result, byTimestamp);
+        }
+        return result;
+    }
+
+    /** @return The number of recorded invocations. */
+    public int size() {
+        int size = 0;
+        for (ThreadLog log : logs) {
+            size += log.size();
+        }
+        return size;
+    }
+
+    /** Forgets all the recorded invocations. */
+    public void clear() {
+        logs = new ConcurrentLinkedQueue<ThreadLog>();
+    }
+}
@@ -0,0 +1,304 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.vmware.lmock.exception.MockReferenceException;
+
+/**
+ * Measures the invocations of mocks, per mock and per method.
+ *
+ * <p>
+ * Metrics are attached to a story with <code>Story.withMetrics</code>. They
+ * then count the invocations of every method of the mocks of the story, the
+ * threads invoking them and the time they take (see
+ * <code>MethodMetrics</code>). The test can query the metrics at any time,
+ * including after the end of the story:
+ * </p>
+ *
+ * <pre>
+ * <code>
+ *     InvocationMetrics metrics = new InvocationMetrics();
+ *     Story story = Story.create(scenario).withMetrics(metrics);
+ *     ...
+ *     story.end();
+ *     for (MethodMetrics method : metrics.getMethodMetrics()) ...
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * The metrics can also be exported as a JMX MBean, with
+ * <code>registerMBean</code>. Stories without metrics do not measure
+ * anything.
+ * </p>
+ */
+public final class InvocationMetrics implements InvocationMetricsMXBean {
+    /** The domain of the names of the exported metrics. */
+    private static final String DOMAIN = "com.vmware.lmock";
+    /** The metrics of each method, indexed by mock. */
+    private final ConcurrentMap<Mock, ConcurrentMap<Method, MethodMetrics>> metrics =
+      new ConcurrentHashMap<Mock, ConcurrentMap<Method, MethodMetrics>>();
+    /** The name of the exported MBean, <code>null</code> if not exported. */
+    private ObjectName objectName;
+
+    /**
+     * Gets the metrics of a method, creating them if needed.
+     *
+     * @param mock
+     *            the invoked mock
+     * @param method
+     *            the invoked method
+     * @return The metrics of the method.
+     */
+    MethodMetrics getOrCreate(Mock mock, Method method) {
+        ConcurrentMap<Method, MethodMetrics> mockMetrics = metrics.get(mock);
+        if (mockMetrics == null) {
+            mockMetrics = new ConcurrentHashMap<Method, MethodMetrics>();
+            ConcurrentMap<Method, MethodMetrics> existing = metrics.putIfAbsent(mock, mockMetrics);
+            if (existing != null) {
+                mockMetrics = existing;
+            }
+        }
+
+        MethodMetrics methodMetrics = mockMetrics.get(method);
+        if (methodMetrics == null) {
+            methodMetrics = new MethodMetrics(mock, method);
+            MethodMetrics existing = mockMetrics.putIfAbsent(method, methodMetrics);
+            if (existing != null) {
+                methodMetrics = existing;
+            }
+        }
+        return methodMetrics;
+    }
+
+    /** @return The metrics of all the invoked methods. */
+    public List<MethodMetrics> getMethodMetrics() {
+        List<MethodMetrics> result = new ArrayList<MethodMetrics>();
+        for (ConcurrentMap<Method, MethodMetrics> mockMetrics : metrics.values()) {
+            result.addAll(mockMetrics.values());
+        }
+        return result;
+    }
+
+    /**
+     * Gets the metrics of the methods of a mock with a given name.
+     *
+     * @param object
+     *            the mock object
+     * @param methodName
+     *            the name of the method
+     * @return The metrics of the methods with that name (several in case of
+     *         overloading), empty if none was invoked.
+     * @throws MockReferenceException
+     *             The specified object is not a mock.
+     */
+    public List<MethodMetrics> getMethodMetrics(Object object, String methodName) {
+        List<MethodMetrics> result = new ArrayList<MethodMetrics>();
+        ConcurrentMap<Method, MethodMetrics> mockMetrics = metrics.get(Mock.getProxyOrThrow(object));
+        if (mockMetrics != null) {
+            for (MethodMetrics methodMetrics : mockMetrics.values()) {
+                if (methodMetrics.getMethod().getName().equals(methodName)) {
+                    result.add(methodMetrics);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the number of invocations of the methods of a mock with a given
+     * name.
+     *
+     * @param object
+     *            the mock object
+     * @param methodName
+     *            the name of the method
+     * @return The number of invocations.
+     * @throws MockReferenceException
+     *             The specified object is not a mock.
+     */
+    public long getInvocationCount(Object object, String methodName) {
+        long count = 0;
+        for (MethodMetrics methodMetrics : getMethodMetrics(object, methodName)) {
+            count += methodMetrics.getInvocationCount();
+        }
+        return count;
+    }
+
+    public long getTotalInvocationCount() {
+        long count = 0;
+        for (MethodMetrics methodMetrics : getMethodMetrics()) {
+            count += methodMetrics.getInvocationCount();
+        }
+        return count;
+    }
+
+    public Map<String, Long> getInvocationCounts() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (MethodMetrics methodMetrics : getMethodMetrics()) {
+            addTo(result, methodMetrics.getName(), methodMetrics.getInvocationCount());
+        }
+        return result;
+    }
+
+    public Map<String, Integer> getThreadCounts() {
+        Map<String, Set<Long>> threadIds = new TreeMap<String, Set<Long>>();
+        for (MethodMetrics methodMetrics : getMethodMetrics()) {
+            Set<Long> ids = threadIds.get(methodMetrics.getName());
+            if (ids == null) {
+                ids = new HashSet<Long>();
+                threadIds.put(methodMetrics.getName(), ids);
+            }
+            methodMetrics.addThreadIdsTo(ids);
+        }
+        Map<String, Integer> result = new TreeMap<String, Integer>();
+        for (Map.Entry<String, Set<Long>> entry : threadIds.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().size());
+        }
+        return result;
+    }
+
+    public Map<String, Long> getMeanDispatchTimes() {
+        Map<String, Long> totals = new TreeMap<String, Long>();
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (MethodMetrics methodMetrics : getMethodMetrics()) {
+            addTo(totals, methodMetrics.getName(), methodMetrics.getDispatchTime().getTotal());
+            addTo(counts, methodMetrics.getName(), methodMetrics.getDispatchTime().getCount());
+        }
+        return getMeans(totals, counts);
+    }
+
+    public Map<String, Long> getMaxDispatchTimes() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (MethodMetrics methodMetrics : getMethodMetrics()) {
+            Long max = result.get(methodMetrics.getName());
+            result.put(methodMetrics.getName(), Math.max(methodMetrics.getDispatchTime().getMax(),
+              (max == null) ? 0 : max));
+        }
+        return result;
+    }
+
+    public Map<String, Long> getTotalLockWaitTimes() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (MethodMetrics methodMetrics : getMethodMetrics()) {
+            addTo(result, methodMetrics.getName(), methodMetrics.getLockWaitTime().getTotal());
+        }
+        return result;
+    }
+
+    public Map<String, Long> getMeanCallTimes() {
+        Map<String, Long> totals = new TreeMap<String, Long>();
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (MethodMetrics methodMetrics : getMethodMetrics()) {
+            addTo(totals, methodMetrics.getName(), methodMetrics.getCallTime().getTotal());
+            addTo(counts, methodMetrics.getName(), methodMetrics.getCallTime().getCount());
+        }
+        return getMeans(totals, counts);
+    }
+
+    /**
+     * Adds a value to an entry of a map, merging overloaded methods.
+     *
+     * @param map
+     *            the map
+     * @param name
+     *            the name of the entry
+     * @param value
+     *            the added value
+     */
+    private static void addTo(Map<String, Long> map, String name, long value) {
+        Long current = map.get(name);
+        map.put(name, (current == null) ? value : current + value);
+    }
+
+    /**
+     * Computes the mean durations of the entries of a map, once the overloaded
+     * methods are merged.
+     *
+     * @param totals
+     *            the total duration of each entry
+     * @param counts
+     *            the number of durations of each entry
+     * @return The mean duration of each entry, 0 if none was recorded.
+     */
+    private static Map<String, Long> getMeans(Map<String, Long> totals, Map<String, Long> counts) {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, Long> total : totals.entrySet()) {
+            long count = counts.get(total.getKey());
+            result.put(total.getKey(), (count == 0) ? 0 : total.getValue() / count);
+        }
+        return result;
+    }
+
+    public void reset() {
+        for (MethodMetrics methodMetrics : getMethodMetrics()) {
+            methodMetrics.reset();
+        }
+    }
+
+    /**
+     * Exports these metrics as an MBean of the platform MBean server.
+     *
+     * <p>
+     * The MBean is named <code>com.vmware.lmock:type=InvocationMetrics,name=NAME</code>.
+     * </p>
+     *
+     * @param name
+     *            the name of the metrics
+     * @return The name of the MBean.
+     * @throws IllegalStateException
+     *             The MBean could not be registered.
+     */
+    public synchronized ObjectName registerMBean(String name) {
+        if (objectName != null) {
+            throw new IllegalStateException("metrics already exported as " + objectName);
+        }
+        try {
+            ObjectName newName = new ObjectName(DOMAIN + ":type=InvocationMetrics,name="
+              + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, newName);
+            objectName = newName;
+            return newName;
+        } catch (JMException e) {
+            throw new IllegalStateException("could not export metrics " + name, e);
+        }
+    }
+
+    /**
+     * Stops exporting these metrics as an MBean.
+     *
+     * <p>
+     * Does nothing if the metrics are not exported.
+     * </p>
+     */
+    public synchronized void unregisterMBean() {
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException e) {
+                // Already unregistered.
+            }
+            objectName = null;
+        }
+    }
+}
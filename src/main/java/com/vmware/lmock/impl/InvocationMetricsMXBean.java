@@ -0,0 +1,46 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.util.Map;
+
+/**
+ * The management interface of invocation metrics.
+ *
+ * <p>
+ * The maps are indexed by the names of the invoked methods, prefixed by the
+ * names of the mocks. The durations are in nanoseconds.
+ * </p>
+ */
+public interface InvocationMetricsMXBean {
+    /** @return The total number of invocations. */
+    public long getTotalInvocationCount();
+
+    /** @return The number of invocations of each method. */
+    public Map<String, Long> getInvocationCounts();
+
+    /** @return The number of threads that invoked each method. */
+    public Map<String, Integer> getThreadCounts();
+
+    /** @return The mean dispatch time of each method. */
+    public Map<String, Long> getMeanDispatchTimes();
+
+    /** @return The longest dispatch time of each method. */
+    public Map<String, Long> getMaxDispatchTimes();
+
+    /** @return The total lock wait of each method. */
+    public Map<String, Long> getTotalLockWaitTimes();
+
+    /** @return The mean call time of each method. */
+    public Map<String, Long> getMeanCallTimes();
+
+    /**
+     * Forgets the recorded metrics.
+     */
+    public void reset();
+}
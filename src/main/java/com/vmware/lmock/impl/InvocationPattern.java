@@ -0,0 +1,37 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.lang.reflect.Method;
+
+import com.vmware.lmock.exception.MockReferenceException;
+
+/**
+ * Representation of invocations searched in a journal.
+ *
+ * <p>
+ * A pattern describes the invocation of a given method of a mock, with
+ * specific arguments. Unlike stubs and expectations, it does not provide any
+ * result.
+ * </p>
+ */
+public final class InvocationPattern extends InvocationChecker {
+    /**
+     * Creates a new pattern.
+     *
+     * @param mock
+     *            the invoked mock
+     * @param method
+     *            the method
+     * @throws MockReferenceException
+     *             The specified object is not a mock.
+     */
+    InvocationPattern(Object mock, Method method) {
+        super(mock, method);
+    }
+}
@@ -0,0 +1,59 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import com.vmware.lmock.clauses.HasArgumentSpecificationClauses;
+import com.vmware.lmock.exception.MockReferenceException;
+
+/**
+ * Definition of invocation patterns, searched in an invocation journal.
+ *
+ * <p>
+ * As stubs and scenarios, the patterns are described upon the construction of
+ * the object:
+ * </p>
+ *
+ * <pre>
+ * <code>
+ *     new Invocations() {{
+ *         invoked(MOCK).INVOCATION;
+ *         ...
+ *     }};
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * Where MOCK is the invoked mock and INVOCATION is a call to the searched
+ * method, along with either the exact arguments, or arguments specified by
+ * 'with' clauses.
+ * </p>
+ */
+public class Invocations extends InvocationCheckerListBuilder<InvocationPattern, InvocationPatternBuilder>
+  implements HasArgumentSpecificationClauses {
+    @Override
+    protected InvocationPatternBuilder createBuilder(Object object,
+      InvocationCheckerClosureHandler closureHandler) {
+        return new InvocationPatternBuilder(object);
+    }
+
+    /**
+     * Creates a new pattern for a given mock.
+     *
+     * @param <T>
+     *            type of the invoked object
+     * @param object
+     *            the invoked mock
+     * @return The mock.
+     * @throws MockReferenceException
+     *             The specified object is not a mock.
+     */
+    public <T> T invoked(T object) {
+        registerCheckerBuilder(object, null);
+        return object;
+    }
+}
@@ -0,0 +1,69 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+
+/**
+ * The default proxy factory, based on <code>java.lang.reflect.Proxy</code>.
+ *
+ * <p>
+ * The constructor of the proxy class implementing each interface is cached, so
+ * that creating several mocks of the same interface only costs the
+ * instantiation of the proxies.
+ * </p>
+ */
+final class JdkProxyFactory implements ProxyFactory {
+    /** The proxy class constructor for each mocked interface. */
+    private static final ClassValue<Constructor<?>> constructors = new ClassValue<Constructor<?>>() {
+        @Override
+        @SuppressWarnings("deprecation")
+        protected Constructor<?> computeValue(Class<?> clazz) {
+            try {
+                Class<?> proxyClass = Proxy.getProxyClass(clazz.getClassLoader(), clazz);
+                Constructor<?> constructor = proxyClass.getConstructor(InvocationHandler.class);
+                // The proxy class of a non-public interface is not public
+                // either (Proxy.newProxyInstance does the same).
+                if (!Modifier.isPublic(proxyClass.getModifiers())) {
+                    constructor.setAccessible(true);
+                }
+                return constructor;
+            } catch (NoSuchMethodException e) {
+                // Proxy classes always have such a constructor.
+                throw new IllegalArgumentException("cannot create a proxy for " + clazz, e);
+            }
+        }
+    };
+
+    @Override
+    public Object newProxy(Class<?> clazz, InvocationHandler handler) {
+        try {
+            return constructors.get(clazz).newInstance(handler);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("cannot create a proxy for " + clazz, e);
+        }
+    }
+
+    @Override
+    public boolean isProxyClass(Class<?> clazz) {
+        return Proxy.isProxyClass(clazz);
+    }
+
+    @Override
+    public InvocationHandler getInvocationHandler(Object object) {
+        return Proxy.getInvocationHandler(object);
+    }
+
+    @Override
+    public String toString() {
+        return "JdkProxyFactory";
+    }
+}
@@ -0,0 +1,239 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time taken by the invocation of a stub or an expectation.
+ *
+ * <p>
+ * A latency draws the delay of each invocation. Standard latencies are
+ * defined by factory methods:
+ * </p>
+ * <ul>
+ * <li><code>fixed</code>: every invocation takes the same time</li>
+ * <li><code>uniform</code>: delays are evenly distributed in a range</li>
+ * <li><code>exponential</code>: delays are exponentially distributed around a
+ * mean</li>
+ * <li><code>percentiles</code>: delays follow a profile of percentiles, such
+ * as the one measured on an actual service</li>
+ * </ul>
+ *
+ * <pre>
+ * <code>
+ *     stub(service).fetch("key");
+ *     willReturn("value");
+ *     willTakeTime(Latency.percentiles(TimeUnit.MILLISECONDS).at(50, 5).at(99, 40));
+ * </code>
+ * </pre>
+ */
+public abstract class Latency {
+    /**
+     * Draws the delay of a new invocation.
+     *
+     * @return The delay, in nanoseconds.
+     */
+    public abstract long nextDelay();
+
+    /**
+     * Creates a latency that always takes the same time.
+     *
+     * @param amount
+     *            the delay
+     * @param unit
+     *            the unit of the delay
+     * @return The created latency.
+     */
+    public static Latency fixed(long amount, TimeUnit unit) {
+        final long delay = unit.toNanos(amount);
+        if (delay < 0) {
+            throw new IllegalArgumentException("negative delay: " + amount);
+        }
+        return new Latency() {
+            @Override
+            public long nextDelay() {
+                return delay;
+            }
+
+            @Override
+            public String toString() {
+                return "fixed(" + delay + "ns)";
+            }
+        };
+    }
+
+    /**
+     * Creates a latency evenly distributed in a range.
+     *
+     * @param min
+     *            the shortest delay
+     * @param max
+     *            the longest delay
+     * @param unit
+     *            the unit of the delays
+     * @return The created latency.
+     */
+    public static Latency uniform(long min, long max, TimeUnit unit) {
+        final long minDelay = unit.toNanos(min);
+        final long maxDelay = unit.toNanos(max);
+        if (minDelay < 0 || maxDelay < minDelay) {
+            throw new IllegalArgumentException("illegal range: [" + min + ".." + max + "]");
+        }
+        return new Latency() {
+            @Override
+            public long nextDelay() {
+                return minDelay + (long) (ThreadLocalRandom.current().nextDouble() * (maxDelay - minDelay));
+            }
+
+            @Override
+            public String toString() {
+                return "uniform(" + minDelay + "ns.." + maxDelay + "ns)";
+            }
+        };
+    }
+
+    /**
+     * Creates a latency exponentially distributed around a mean.
+     *
+     * @param mean
+     *            the mean delay
+     * @param unit
+     *            the unit of the delay
+     * @return The created latency.
+     */
+    public static Latency exponential(long mean, TimeUnit unit) {
+        final long meanDelay = unit.toNanos(mean);
+        if (meanDelay < 0) {
+            throw new IllegalArgumentException("negative delay: " + mean);
+        }
+        return new Latency() {
+            @Override
+            public long nextDelay() {
+                return (long) (-meanDelay * Math.log(1.0 - ThreadLocalRandom.current().nextDouble()));
+            }
+
+            @Override
+            public String toString() {
+                return "exponential(" + meanDelay + "ns)";
+            }
+        };
+    }
+
+    /**
+     * Creates a latency following a profile of percentiles.
+     *
+     * <p>
+     * The percentiles are declared with <code>Profile.at</code>, by increasing
+     * order.
+     * </p>
+     *
+     * @param unit
+     *            the unit of the delays of the profile
+     * @return The created latency, with no percentile yet.
+     */
+    public static Profile percentiles(TimeUnit unit) {
+        return new Profile(unit);
+    }
+
+    /**
+     * A latency following a profile of percentiles.
+     *
+     * <p>
+     * Between two declared percentiles, the delays are linearly interpolated.
+     * The invocations below the first percentile take the delay of the first
+     * percentile, the ones above the last percentile take the delay of the
+     * last percentile.
+     * </p>
+     */
+    public static final class Profile extends Latency {
+        /** The unit of the declared delays. */
+        private final TimeUnit unit;
+        /** The declared percentiles, by increasing order. */
+        private final List<Double> percentiles = new ArrayList<Double>();
+        /** The delays of the percentiles, in nanoseconds. */
+        private final List<Long> delays = new ArrayList<Long>();
+
+        /**
+         * Creates an empty profile.
+         *
+         * @param unit
+         *            the unit of the declared delays
+         */
+        private Profile(TimeUnit unit) {
+            this.unit = unit;
+        }
+
+        /**
+         * Declares a percentile of the profile.
+         *
+         * @param percentile
+         *            the percentile, greater than the previous one and up to
+         *            100
+         * @param delay
+         *            the delay of the percentile, at least the delay of the
+         *            previous one
+         * @return this.
+         */
+        public Profile at(double percentile, long delay) {
+            long nanos = unit.toNanos(delay);
+            int last = percentiles.size() - 1;
+            if (percentile <= 0 || percentile > 100
+              || (last >= 0 && percentile <= percentiles.get(last))) {
+                throw new IllegalArgumentException("illegal percentile: " + percentile);
+            }
+            if (nanos < 0 || (last >= 0 && nanos < delays.get(last))) {
+                throw new IllegalArgumentException("illegal delay for percentile " + percentile + ": " + delay);
+            }
+            percentiles.add(percentile);
+            delays.add(nanos);
+            return this;
+        }
+
+        @Override
+        public long nextDelay() {
+            if (percentiles.isEmpty()) {
+                return 0;
+            }
+
+            double rank = ThreadLocalRandom.current().nextDouble() * 100;
+            if (rank <= percentiles.get(0)) {
+                return delays.get(0);
+            }
+            for (int index = 1; index < percentiles.size(); index++) {
+                double upper = percentiles.get(index);
+                if (rank <= upper) {
+                    double lower = percentiles.get(index - 1);
+                    long lowerDelay = delays.get(index - 1);
+                    return lowerDelay + (long) ((rank - lower) / (upper - lower)
+                      * (delays.get(index) - lowerDelay));
+                }
+            }
+            return delays.get(delays.size() - 1);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("percentiles(");
+            for (int index = 0; index < percentiles.size(); index++) {
+                if (index > 0) {
+                    builder.append(',');
+                }
+                builder.append(percentiles.get(index));
+                builder.append('=');
+                builder.append(delays.get(index));
+                builder.append("ns");
+            }
+            builder.append(')');
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+/**
+ * The clock measuring the latency of invocations.
+ *
+ * <p>
+ * The invocations of synchronous methods park the invoking thread until the
+ * clock reaches their deadline. The invocations of methods returning a
+ * <code>CompletableFuture</code> return immediately, the clock completing the
+ * future at the deadline.
+ * </p>
+ * <p>
+ * By default, stories use the system clock (see <code>system()</code>).
+ * Tests may rather use a <code>VirtualClock</code>, so that they control the
+ * flow of time (see <code>Story.withLatencyClock</code>).
+ * </p>
+ */
+public abstract class LatencyClock {
+    /**
+     * @return The current time of this clock, in nanoseconds.
+     */
+    public abstract long nanoTime();
+
+    /**
+     * Blocks the current thread until this clock reaches a deadline.
+     *
+     * <p>
+     * If the thread is interrupted, the method returns as soon as possible,
+     * keeping the interrupted status of the thread.
+     * </p>
+     *
+     * @param deadline
+     *            the deadline, in nanoseconds
+     */
+    public abstract void parkUntil(long deadline);
+
+    /**
+     * Runs a task when this clock reaches a deadline.
+     *
+     * <p>
+     * The task must be short, since it may hold the thread of the clock.
+     * </p>
+     *
+     * @param deadline
+     *            the deadline, in nanoseconds
+     * @param task
+     *            the task
+     */
+    public abstract void schedule(long deadline, Runnable task);
+
+    /**
+     * Provides the system clock.
+     *
+     * <p>
+     * The system clock parks the threads with nanosecond precision and runs
+     * the scheduled tasks from a single timer thread, shared by all the
+     * stories.
+     * </p>
+     *
+     * @return The system clock.
+     */
+    public static LatencyClock system() {
+        return SystemLatencyClock.instance;
+    }
+}
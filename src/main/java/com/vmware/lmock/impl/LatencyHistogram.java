@@ -0,0 +1,127 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of durations, in nanoseconds.
+ *
+ * <p>
+ * The durations are counted in buckets of powers of 2: the bucket
+ * <code>n</code> counts the durations from <code>2^(n-1)</code> to
+ * <code>2^n - 1</code> nanoseconds. Recording a duration thus costs a few
+ * striped additions, whatever the number of recording threads. Percentiles
+ * are approximated by the upper bound of their bucket.
+ * </p>
+ */
+public final class LatencyHistogram {
+    /** Number of buckets, enough for any positive long. */
+    private static final int NR_BUCKETS = 64;
+    /** Counts the durations of each bucket. */
+    private final LongAdder[] buckets = new LongAdder[NR_BUCKETS];
+    /** Counts the durations. */
+    private final LongAdder count = new LongAdder();
+    /** Sums the durations. */
+    private final LongAdder sum = new LongAdder();
+    /** The longest duration. */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Creates an empty histogram.
+     */
+    LatencyHistogram() {
+        for (int index = 0; index < NR_BUCKETS; index++) {
+            buckets[index] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param duration
+     *            the duration, in nanoseconds
+     */
+    void record(long duration) {
+        if (duration < 0) {
+            duration = 0;
+        }
+        buckets[NR_BUCKETS - Long.numberOfLeadingZeros(duration)].increment();
+        count.increment();
+        sum.add(duration);
+        long currentMax;
+        while ((currentMax = max.get()) < duration && !max.compareAndSet(currentMax, duration)) {
+            // Retry.
+        }
+    }
+
+    /** @return The number of recorded durations. */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /** @return The sum of the recorded durations, in nanoseconds. */
+    public long getTotal() {
+        return sum.sum();
+    }
+
+    /** @return The mean of the recorded durations, in nanoseconds. */
+    public long getMean() {
+        long currentCount = count.sum();
+        return (currentCount == 0) ? 0 : sum.sum() / currentCount;
+    }
+
+    /** @return The longest recorded duration, in nanoseconds. */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Approximates a percentile of the recorded durations.
+     *
+     * @param percentile
+     *            the percentile, from 0 to 100
+     * @return The upper bound of the bucket including the percentile, in
+     *         nanoseconds, limited to the longest recorded duration.
+     */
+    public long getPercentile(double percentile) {
+        long currentCount = count.sum();
+        if (currentCount == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(percentile / 100 * currentCount);
+        long seen = 0;
+        for (int index = 0; index < NR_BUCKETS; index++) {
+            seen += buckets[index].sum();
+            if (seen >= rank) {
+                return Math.min((1L << index) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Forgets the recorded durations.
+     */
+    void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "{count=" + getCount() + " mean=" + getMean() + "ns p99=" + getPercentile(99)
+          + "ns max=" + getMax() + "ns}";
+    }
+}
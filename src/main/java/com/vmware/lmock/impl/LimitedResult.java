@@ -0,0 +1,80 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+/**
+ * An invocation result applied within a call limit.
+ *
+ * <p>
+ * The limit is enforced when the result is applied, that is outside of the
+ * story processing, so that the calls waiting for the limit do not hold the
+ * other invocations of the story.
+ * </p>
+ */
+final class LimitedResult implements TimedResult {
+    /** The limited result. */
+    private final InvocationResultProvider result;
+    /** The call limit. */
+    private final CallLimit limit;
+    /** The type returned by the invoked method. */
+    private final Class<?> returnType;
+    /** The clock measuring the time. */
+    private final LatencyClock clock;
+    /** The last copy of this result using another clock, null if none. */
+    private volatile LimitedResult rebound;
+
+    /**
+     * Creates a new limited result.
+     *
+     * @param result
+     *            the limited result
+     * @param limit
+     *            the call limit
+     * @param returnType
+     *            the type returned by the invoked method
+     * @param clock
+     *            the clock measuring the time
+     */
+    LimitedResult(InvocationResultProvider result, CallLimit limit,
+      Class<?> returnType, LatencyClock clock) {
+        this.result = result;
+        this.limit = limit;
+        this.returnType = returnType;
+        this.clock = clock;
+    }
+
+    @Override
+    public LimitedResult on(LatencyClock otherClock) {
+        if (otherClock == clock) {
+            return this;
+        }
+
+        // A story keeps the same clock: reuse the copy made for it.
+        LimitedResult currentRebound = rebound;
+        if (currentRebound == null || currentRebound.clock != otherClock) {
+            if (result instanceof TimedResult) {
+                currentRebound = new LimitedResult(((TimedResult) result).on(otherClock), limit,
+                  returnType, otherClock);
+            } else {
+                currentRebound = new LimitedResult(result, limit, returnType, otherClock);
+            }
+            rebound = currentRebound;
+        }
+        return currentRebound;
+    }
+
+    @Override
+    public Object apply() throws Throwable {
+        return limit.apply(result, returnType, clock);
+    }
+
+    @Override
+    public String toString() {
+        return result + " within " + limit;
+    }
+}
@@ -21,9 +21,76 @@ final class Logger {
 
     /** Class of the object using this logger. */
     private final Class<?> clazz;
+    /** Data of a trace with no argument. */
+    private static final Object[] NO_DATA = new Object[0];
+
+    /*
+     * The trace methods are specialized by number of arguments so that, when
+     * no activity logger is defined, the invoker does not even allocate an
+     * array of arguments.
+     */
+
+    void trace(String methodName) {
+        ActivityLogger activityLogger = Trace.getActivityLogger();
+        if (activityLogger != null) {
+            writeIfNeeded(activityLogger, clazz, methodName, NO_DATA);
+        }
+    }
+
+    void trace(String methodName, Object d1) {
+        ActivityLogger activityLogger = Trace.getActivityLogger();
+        if (activityLogger != null) {
+            writeIfNeeded(activityLogger, clazz, methodName, new Object[]{d1});
+        }
+    }
+
+    void trace(String methodName, Object d1, Object d2) {
+        ActivityLogger activityLogger = Trace.getActivityLogger();
+        if (activityLogger != null) {
+            writeIfNeeded(activityLogger, clazz, methodName, new Object[]{d1, d2});
+        }
+    }
+
+    void trace(String methodName, Object d1, Object d2, Object d3) {
+        ActivityLogger activityLogger = Trace.getActivityLogger();
+        if (activityLogger != null) {
+            writeIfNeeded(activityLogger, clazz, methodName, new Object[]{d1, d2, d3});
+        }
+    }
+
+    void trace(String methodName, Object d1, Object d2, Object d3, Object d4) {
+        ActivityLogger activityLogger = Trace.getActivityLogger();
+        if (activityLogger != null) {
+            writeIfNeeded(activityLogger, clazz, methodName, new Object[]{d1, d2, d3, d4});
+        }
+    }
+
+    void trace(String methodName, Object d1, Object d2, Object d3, Object d4, Object d5) {
+        ActivityLogger activityLogger = Trace.getActivityLogger();
+        if (activityLogger != null) {
+            writeIfNeeded(activityLogger, clazz, methodName, new Object[]{d1, d2, d3, d4, d5});
+        }
+    }
+
+    void trace(String methodName, Object d1, Object d2, Object d3, Object d4, Object d5, Object d6) {
+        ActivityLogger activityLogger = Trace.getActivityLogger();
+        if (activityLogger != null) {
+            writeIfNeeded(activityLogger, clazz, methodName, new Object[]{d1, d2, d3, d4, d5, d6});
+        }
+    }
+
+    void trace(String methodName, Object d1, Object d2, Object d3, Object d4, Object d5, Object d6, Object d7) {
+        ActivityLogger activityLogger = Trace.getActivityLogger();
+        if (activityLogger != null) {
+            writeIfNeeded(activityLogger, clazz, methodName, new Object[]{d1, d2, d3, d4, d5, d6, d7});
+        }
+    }
 
     void trace(String methodName, Object... data) {
-        writeIfNeeded(Trace.getActivityLogger(), clazz, methodName, data);
+        ActivityLogger activityLogger = Trace.getActivityLogger();
+        if (activityLogger != null) {
+            writeIfNeeded(activityLogger, clazz, methodName, data);
+        }
     }
 
     /**
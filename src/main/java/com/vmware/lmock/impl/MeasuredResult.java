@@ -0,0 +1,79 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+/**
+ * An invocation result recording the duration of the call when applied.
+ *
+ * <p>
+ * Each thread reuses a single measured result, so that measuring does not
+ * allocate anything. This relies on the mocks applying the result of an
+ * invocation right after the dispatch, from the invoking thread: a result
+ * invoking other mocks while applied reuses the measured result of its
+ * thread, once it no longer needs it.
+ * </p>
+ */
+final class MeasuredResult implements InvocationResultProvider {
+    /** The measured result of each thread. */
+    private static final ThreadLocal<MeasuredResult> measuredResults = new ThreadLocal<MeasuredResult>() {
+        @Override
+        protected MeasuredResult initialValue() {
+            return new MeasuredResult();
+        }
+    };
+    /** The measured result, null once applied. */
+    private InvocationResultProvider result;
+    /** The metrics of the invoked method, null once applied. */
+    private MethodMetrics metrics;
+    /** Time of the invocation, as given by <code>System.nanoTime</code>. */
+    private long start;
+
+    /** Use <code>measure</code>. */
+    private MeasuredResult() {
+    }
+
+    /**
+     * Provides the measured result of the current thread.
+     *
+     * @param result
+     *            the measured result
+     * @param metrics
+     *            the metrics of the invoked method
+     * @param start
+     *            the time of the invocation
+     * @return The measured result of the current thread, to be applied by the
+     *         current thread before it dispatches another invocation.
+     */
+    static MeasuredResult measure(InvocationResultProvider result, MethodMetrics metrics, long start) {
+        MeasuredResult measured = measuredResults.get();
+        measured.result = result;
+        measured.metrics = metrics;
+        measured.start = start;
+        return measured;
+    }
+
+    @Override
+    public Object apply() throws Throwable {
+        InvocationResultProvider appliedResult = result;
+        MethodMetrics appliedMetrics = metrics;
+        long appliedStart = start;
+        // Do not retain the result once applied.
+        result = null;
+        metrics = null;
+        try {
+            return appliedResult.apply();
+        } finally {
+            appliedMetrics.recordCall(System.nanoTime() - appliedStart);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(result);
+    }
+}
@@ -0,0 +1,171 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of the invocations of one method of one mock.
+ *
+ * <p>
+ * The following durations are measured:
+ * </p>
+ * <ul>
+ * <li>the dispatch time: from the invocation of the mock up to the selection
+ * of its result by the story, including the lock wait</li>
+ * <li>the lock wait: the time spent waiting for the story, in the serialized
+ * dispatch mode (see <code>DispatchMode</code>)</li>
+ * <li>the call time: the dispatch time plus the application of the result,
+ * such as its latency (see <code>Latency</code>)</li>
+ * </ul>
+ *
+ * <p>
+ * Each thread flags itself the first time it invokes the method, so that only
+ * its first invocation registers it among the invoking threads.
+ * </p>
+ */
+public final class MethodMetrics {
+    /** The invoked mock. */
+    private final Mock mock;
+    /** The invoked method. */
+    private final Method method;
+    /** Counts the invocations. */
+    private final LongAdder invocationCount = new LongAdder();
+    /** Identifiers of the invoking threads. */
+    private final Set<Long> threadIds = ConcurrentHashMap.newKeySet();
+    /** Set for the threads already registered in the invoking threads. */
+    private volatile ThreadLocal<Boolean> registeredThreads = new ThreadLocal<Boolean>();
+    /** Distribution of the dispatch times. */
+    private final LatencyHistogram dispatchTime = new LatencyHistogram();
+    /** Distribution of the lock waits. */
+    private final LatencyHistogram lockWaitTime = new LatencyHistogram();
+    /** Distribution of the call times. */
+    private final LatencyHistogram callTime = new LatencyHistogram();
+
+    /**
+     * Creates the metrics of a method.
+     *
+     * @param mock
+     *            the invoked mock
+     * @param method
+     *            the invoked method
+     */
+    MethodMetrics(Mock mock, Method method) {
+        this.mock = mock;
+        this.method = method;
+    }
+
+    /**
+     * Records the dispatch of an invocation.
+     *
+     * @param thread
+     *            the invoking thread
+     * @param duration
+     *            the dispatch time, in nanoseconds
+     */
+    void recordDispatch(Thread thread, long duration) {
+        invocationCount.increment();
+        ThreadLocal<Boolean> registered = registeredThreads;
+        if (registered.get() == null) {
+            registered.set(Boolean.TRUE);
+            threadIds.add(thread.getId());
+        }
+        dispatchTime.record(duration);
+    }
+
+    /**
+     * Records the wait for the lock of the story.
+     *
+     * @param duration
+     *            the lock wait, in nanoseconds
+     */
+    void recordLockWait(long duration) {
+        lockWaitTime.record(duration);
+    }
+
+    /**
+     * Records the complete duration of a call.
+     *
+     * @param duration
+     *            the call time, in nanoseconds
+     */
+    void recordCall(long duration) {
+        callTime.record(duration);
+    }
+
+    /**
+     * Forgets the recorded metrics.
+     */
+    void reset() {
+        invocationCount.reset();
+        registeredThreads = new ThreadLocal<Boolean>();
+        threadIds.clear();
+        dispatchTime.reset();
+        lockWaitTime.reset();
+        callTime.reset();
+    }
+
+    /** @return The invoked mock object. */
+    public Object getObject() {
+        return mock.getProxy();
+    }
+
+    /** @return The invoked method. */
+    public Method getMethod() {
+        return method;
+    }
+
+    /** @return The name of the method, prefixed by the name of the mock. */
+    public String getName() {
+        return mock + "." + method.getName();
+    }
+
+    /** @return The number of invocations. */
+    public long getInvocationCount() {
+        return invocationCount.sum();
+    }
+
+    /** @return The number of distinct threads that invoked the method. */
+    public int getThreadCount() {
+        return threadIds.size();
+    }
+
+    /**
+     * Adds the identifiers of the invoking threads to a set.
+     *
+     * @param ids
+     *            the completed set
+     */
+    void addThreadIdsTo(Set<Long> ids) {
+        ids.addAll(threadIds);
+    }
+
+    /** @return The distribution of the dispatch times. */
+    public LatencyHistogram getDispatchTime() {
+        return dispatchTime;
+    }
+
+    /** @return The distribution of the lock waits. */
+    public LatencyHistogram getLockWaitTime() {
+        return lockWaitTime;
+    }
+
+    /** @return The distribution of the call times. */
+    public LatencyHistogram getCallTime() {
+        return callTime;
+    }
+
+    @Override
+    public String toString() {
+        return getName() + ": invocations=" + getInvocationCount() + " threads=" + getThreadCount()
+          + " dispatch=" + dispatchTime + " lockWait=" + lockWaitTime + " call=" + callTime;
+    }
+}
@@ -10,9 +10,11 @@ package com.vmware.lmock.impl;
 import static com.vmware.lmock.impl.MockInvocationHandlerType.CHECKER;
 import static com.vmware.lmock.impl.MockInvocationHandlerType.CONSTRUCTOR;
 
+import java.lang.reflect.Array;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.vmware.lmock.exception.LMRuntimeException;
 import com.vmware.lmock.exception.MockCreationException;
@@ -25,27 +27,136 @@ import com.vmware.lmock.exception.UnexpectedInvocationError;
  * <p>
  * Such a mock is generated by the static method <code>getObject</code>.
  * </p>
+ *
+ * <p>
+ * The proxy objects are created by a <code>ProxyFactory</code>, based on
+ * <code>java.lang.reflect.Proxy</code> unless specified otherwise by
+ * <code>setProxyFactory</code>.
+ * </p>
  */
 public class Mock implements InvocationHandler {
 
     /** Logs the mock activity. */
     private static final Logger logger = Logger.get(Mock.class);
+    /** The default proxy factory. */
+    private static final ProxyFactory defaultProxyFactory = new JdkProxyFactory();
+    /** The factory creating the new proxy objects. */
+    private static volatile ProxyFactory proxyFactory = defaultProxyFactory;
+    /** Every factory used so far, which may have created mocks. */
+    private static volatile ProxyFactory[] knownProxyFactories = { defaultProxyFactory };
+
+    /**
+     * The factory that created the proxy class of an object, if any.
+     */
+    private static final class ProxyClassOwner {
+        /** The factory, <code>null</code> if the class is not a proxy class. */
+        private final ProxyFactory factory;
+        /** The known factories when the owner was computed. */
+        private final ProxyFactory[] knownFactories;
+
+        /**
+         * Searches for the owner of a class among the known factories.
+         *
+         * @param clazz
+         *            the class
+         */
+        private ProxyClassOwner(Class<?> clazz) {
+            ProxyFactory owner = null;
+            knownFactories = knownProxyFactories;
+            for (ProxyFactory candidate : knownFactories) {
+                if (candidate.isProxyClass(clazz)) {
+                    owner = candidate;
+                    break;
+                }
+            }
+            factory = owner;
+        }
+    }
+    /** The owner of each class, cached to resolve the mocks quickly. */
+    private static final ClassValue<ProxyClassOwner> proxyClassOwners = new ClassValue<ProxyClassOwner>() {
+        @Override
+        protected ProxyClassOwner computeValue(Class<?> clazz) {
+            return new ProxyClassOwner(clazz);
+        }
+    };
     /** Mock counter, used to assign unique identifiers. */
-    private static long uidCount = 0L;
+    private static final AtomicLong uidCount = new AtomicLong();
     /** Unique identifier of this. */
     private final long uid;
     /** The mocked class. */
     private final Class<?> clazz;
     /** The proxy object. */
     private final Object proxy;
-    /** The current invocation handlers associated to the mock. One per type. */
-    private final MockInvocationHandler[] handlers =
-      new MockInvocationHandler[MockInvocationHandlerType.values().length];
-    /** Invocation hooks providing default methods when the mock has no handler. */
-    private final InvocationHooks defaultHooks = new InvocationHooks();
+    /**
+     * The current invocation handlers associated to the mock. One per type.
+     * The handlers bound during a previous cleanup epoch are considered as
+     * unset.
+     */
+    private final HandlerBinding[] handlers =
+      new HandlerBinding[MockInvocationHandlerType.values().length];
+    /** Set when this mock is registered by the cleaner. */
+    private volatile boolean registeredForCleanup = false;
+    /**
+     * Invocation hooks providing default methods when a mock has no handler,
+     * shared by all the mocks.
+     */
+    private static final InvocationHooks defaultHooks = new InvocationHooks();
     /** Name of this mock. */
     private final String name;
 
+    /**
+     * Defines the backend creating the proxy objects of the new mocks.
+     *
+     * <p>
+     * The mocks created before keep their proxy objects, which remain
+     * recognized as mocks.
+     * </p>
+     *
+     * @param factory
+     *            the new proxy factory, <code>null</code> to restore the
+     *            default one
+     */
+    public static synchronized void setProxyFactory(ProxyFactory factory) {
+        logger.trace("setProxyFactory", null, "factory=", factory);
+        ProxyFactory newFactory = (factory == null) ? defaultProxyFactory : factory;
+        if (!Arrays.asList(knownProxyFactories).contains(newFactory)) {
+            ProxyFactory[] factories = Arrays.copyOf(knownProxyFactories, knownProxyFactories.length + 1);
+            factories[knownProxyFactories.length] = newFactory;
+            knownProxyFactories = factories;
+        }
+        proxyFactory = newFactory;
+    }
+
+    /**
+     * Searches for the mock wrapped by an object.
+     *
+     * <p>
+     * Resolving an object which is not a mock costs a lookup in a per-class
+     * cache.
+     * </p>
+     *
+     * @param object
+     *            the requested object, not null
+     * @return The fetched mock, <code>null</code> if the object is not a
+     *         mock.
+     */
+    private static Mock searchMock(Object object) {
+        Class<?> clazz = object.getClass();
+        ProxyClassOwner owner = proxyClassOwners.get(clazz);
+        if (owner.knownFactories != knownProxyFactories) {
+            // A new factory was installed since.
+            proxyClassOwners.remove(clazz);
+            owner = proxyClassOwners.get(clazz);
+        }
+
+        if (owner.factory == null) {
+            return null;
+        }
+
+        InvocationHandler handler = owner.factory.getInvocationHandler(object);
+        return (handler instanceof Mock) ? (Mock) handler : null;
+    }
+
     /**
      * Generates a new object mocking a user supplied class.
      *
@@ -89,6 +200,39 @@ public class Mock implements InvocationHandler {
         }
     }
 
+    /**
+     * Generates a series of new objects mocking a user supplied class.
+     *
+     * <p>
+     * This is equivalent to invoking <code>getObject(clazz)</code>
+     * <code>count</code> times.
+     * </p>
+     *
+     * @param <T>
+     *            the type of mock objects
+     * @param clazz
+     *            class defining the type of mock objects
+     * @param count
+     *            the number of mock objects
+     * @return The proxy objects.
+     * @throws MockCreationException
+     *             The mock objects cannot be created.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T[] getObjects(Class<T> clazz, int count) throws MockCreationException {
+        logger.trace("getObjects", null, "class =", clazz, "count =", count);
+
+        try {
+            T[] objects = (T[]) Array.newInstance(clazz, count);
+            for (int index = 0; index < count; index++) {
+                objects[index] = (T) new Mock(null, clazz).getProxy();
+            }
+            return objects;
+        } catch (Exception e) {
+            throw new MockCreationException(e);
+        }
+    }
+
     /**
      * Gets the proxy object that THEORETICALLY wraps a mock object.
      *
@@ -103,18 +247,11 @@ public class Mock implements InvocationHandler {
     protected static <T> Mock getProxyOrThrow(T object) throws MockReferenceException {
         logger.trace("getProxyOrThrow", null, "object=", object);
 
-        try {
-            // Check that we have an invocation handler and that it's a proxy.
-            InvocationHandler handler = Proxy.getInvocationHandler(object);
-            if (handler instanceof Mock) {
-                return (Mock) handler;
-            } else {
-                throw new MockReferenceException(
-                  "referencing a non-mock object");
-            }
-        } catch (Exception e) {
-            throw new MockReferenceException("referencing a non-mock object", e);
+        Mock mock = (object == null) ? null : searchMock(object);
+        if (mock == null) {
+            throw new MockReferenceException("referencing a non-mock object");
         }
+        return mock;
     }
 
     /**
@@ -129,17 +266,8 @@ public class Mock implements InvocationHandler {
             return object;
         }
 
-        try {
-            // Check that we have an invocation handler and that it's a proxy.
-            InvocationHandler handler = Proxy.getInvocationHandler(object);
-            if (handler instanceof Mock) {
-                return handler;
-            } else {
-                return object;
-            }
-        } catch (Exception e) {
-            return object;
-        }
+        Mock mock = searchMock(object);
+        return (mock == null) ? object : mock;
     }
 
     /**
@@ -159,11 +287,10 @@ public class Mock implements InvocationHandler {
      *            type of the mock object
      */
     private Mock(String name, Class<?> clazz) {
-        uid = uidCount++;
+        uid = uidCount.getAndIncrement();
         this.clazz = clazz;
         this.name = (name == null) ? defaultMockName() : name;
-        proxy = Proxy.newProxyInstance(clazz.getClassLoader(),
-          new Class<?>[]{clazz}, this);
+        proxy = proxyFactory.newProxy(clazz, this);
 
         logger.trace("Mock", name, "new mock: uid=", uid, "class=", clazz, "proxy=", proxy);
     }
@@ -201,13 +328,49 @@ public class Mock implements InvocationHandler {
         logger.trace("setInvocationHandler", name, "type=", type, " handler=", handler);
 
         int index = type.ordinal();
-        if (type == CONSTRUCTOR && handlers[index] != null) {
+        if (type == CONSTRUCTOR && getInvocationHandler(index) != null) {
             // Pushing a constructor above a constructor is a bug.
             throw new LMRuntimeException("BUG: constructing twice!");
         }
 
-        handlers[index] = handler;
-        Cleaner.register(this);
+        HandlerBinding binding = new HandlerBinding(handler, StoryContext.get());
+        binding.bind();
+        setInvocationHandlerBinding(type, binding);
+    }
+
+    /**
+     * Assigns a binding to an invocation handler, which may be shared with
+     * other mocks.
+     *
+     * @param type
+     *            the invocation handler type
+     * @param binding
+     *            the assigned binding
+     * @return The previous binding, null if none.
+     */
+    HandlerBinding setInvocationHandlerBinding(MockInvocationHandlerType type, HandlerBinding binding) {
+        logger.trace("setInvocationHandlerBinding", name, "type=", type, " binding=", binding);
+
+        int index = type.ordinal();
+        HandlerBinding previous = handlers[index];
+        handlers[index] = binding;
+        if (!registeredForCleanup) {
+            registeredForCleanup = true;
+            Cleaner.register(this);
+        }
+        return previous;
+    }
+
+    /**
+     * Gets the handler of a given type, if validly bound.
+     *
+     * @param index
+     *            the ordinal of the handler type
+     * @return The handler, null if none or bound during a previous epoch.
+     */
+    private MockInvocationHandler getInvocationHandler(int index) {
+        HandlerBinding binding = handlers[index];
+        return (binding != null) ? binding.getHandler() : null;
     }
 
     /**
@@ -241,12 +404,13 @@ public class Mock implements InvocationHandler {
      * @return The fetched handler, null if none.
      */
     private MockInvocationHandler selectInvocationHandler() {
-        if (handlers[CONSTRUCTOR.ordinal()] != null) {
+        MockInvocationHandler constructor = getInvocationHandler(CONSTRUCTOR.ordinal());
+        if (constructor != null) {
             logger.trace("selectInvocationHandler", name, "select CONSTRUCTOR");
-            return handlers[CONSTRUCTOR.ordinal()];
+            return constructor;
         } else {
             logger.trace("selectInvocationHandler", name, "select CHECKER");
-            return handlers[CHECKER.ordinal()];
+            return getInvocationHandler(CHECKER.ordinal());
         }
     }
 
@@ -16,6 +16,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Dispatches the invocation of a mock during the execution of a story to the
@@ -44,8 +45,8 @@ class MockInvocationDispatcher extends MTDispatcher<MockInvocationDispatcher.Ite
      * </p>
      */
     static final class Item {
-        private Actor actor;
-        private InvocationProcessor processor;
+        private final Actor actor;
+        private volatile InvocationProcessor processor;
 
         /**
          * Creates a new item.
@@ -105,8 +106,25 @@ class MockInvocationDispatcher extends MTDispatcher<MockInvocationDispatcher.Ite
     /** The list of created story processors. */
     private final List<StoryProcessor> storyProcessors =
       new ArrayList<StoryProcessor>();
+    /** The context of the thread creating the dispatcher. */
+    private final StoryContext context = StoryContext.forNewStory();
     /** Associates the mocks to this invocation handler. */
-    private final MockLinker linker = new MockLinker(this);
+    private final MockLinker linker = new MockLinker(this, context);
+    /**
+     * Serializes the updates of the story and the serialized invocations,
+     * without pinning the carrier of virtual threads.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** How the invocations are dispatched to the processors. */
+    private volatile DispatchMode dispatchMode = DispatchMode.SERIALIZED;
+    /** Defines how much of the story is kept by the story processors. */
+    private TrackRetention trackRetention = TrackRetention.UNBOUNDED;
+    /** Records the invocations to mocks, if any. */
+    private volatile InvocationJournal journal;
+    /** Measures the latency of the invocations. */
+    private volatile LatencyClock latencyClock = LatencyClock.system();
+    /** Measures the invocations to mocks, if any. */
+    private volatile InvocationMetrics metrics;
 
     /**
      * Computes the signature of a set of stubs, used to access the stub
@@ -180,7 +198,8 @@ class MockInvocationDispatcher extends MTDispatcher<MockInvocationDispatcher.Ite
      */
     private StoryProcessor createStoryProcessor(Scenario scenario) {
         logger.trace("createStoryProcessor", "scenario=", scenario);
-        StoryProcessor result = new StoryProcessor(new ExpectationList(scenario.createExpectations()));
+        StoryProcessor result = new StoryProcessor(new ExpectationList(scenario.createExpectations()), context);
+        result.setTrackRetention(trackRetention);
         storyProcessorMap.put(scenario, result);
         storyProcessors.add(result);
 
@@ -234,10 +253,16 @@ class MockInvocationDispatcher extends MTDispatcher<MockInvocationDispatcher.Ite
 
     @Override
     public void onUpdateOfScenarioOrStubs(Actor actor, Object userArgument) {
-        Item item = (Item) userArgument;
-        logger.trace("onUpdate", "actor=", actor, "userArgument=", item);
-        InvocationProcessor processor = createInvocationProcessor(actor);
-        item.setProcessor(processor);
+        lock.lock();
+        try {
+            Item item = (Item) userArgument;
+            logger.trace("onUpdate", "actor=", actor, "userArgument=", item);
+            InvocationProcessor processor = createInvocationProcessor(actor);
+            item.setProcessor(processor);
+            invalidateCachedData();
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -254,7 +279,11 @@ class MockInvocationDispatcher extends MTDispatcher<MockInvocationDispatcher.Ite
             // The actor will keep track of the invoking thread when found.
             Item item = new Item(actor);
             item.setProcessor(processor);
-            register(actor.getChecker(), item, actor);
+            if (actor.isPooled()) {
+                registerPool(actor.getChecker(), item, actor);
+            } else {
+                register(actor.getChecker(), item, actor);
+            }
             actor.willListenToUpdates(this, item);
         }
     }
@@ -311,7 +340,7 @@ class MockInvocationDispatcher extends MTDispatcher<MockInvocationDispatcher.Ite
      */
     private void handleException(Actor actor, LMRuntimeException excpt) {
         logger.trace("handleException", "actor=", actor);
-        ExceptionGuard.get().record(excpt);
+        context.getExceptionGuard().record(excpt);
         actor.setLastException(excpt);
     }
 
@@ -329,7 +358,7 @@ class MockInvocationDispatcher extends MTDispatcher<MockInvocationDispatcher.Ite
      */
     private void handleError(Actor actor, ExpectationError error) {
         logger.trace("handleError", "actor=", actor);
-        ExceptionGuard.get().record(error);
+        context.getExceptionGuard().record(error);
         actor.setLastException(error);
     }
 
@@ -355,8 +384,175 @@ class MockInvocationDispatcher extends MTDispatcher<MockInvocationDispatcher.Ite
         }
     }
 
-    public synchronized InvocationResultProvider invoke(Invocation invocation) {
-        return invokeProcessor(invocation, getCurrentData());
+    /**
+     * Changes the way invocations are dispatched.
+     *
+     * @param dispatchMode
+     *            the new dispatch mode
+     */
+    void setDispatchMode(DispatchMode dispatchMode) {
+        logger.trace("setDispatchMode", "dispatchMode=", dispatchMode);
+        this.dispatchMode = dispatchMode;
+    }
+
+    /**
+     * Defines how much of the story is kept by the story processors.
+     *
+     * @param trackRetention
+     *            the retention policy
+     */
+    void setTrackRetention(TrackRetention trackRetention) {
+        lock.lock();
+        try {
+            logger.trace("setTrackRetention", "trackRetention=", trackRetention);
+            this.trackRetention = trackRetention;
+            for (StoryProcessor processor : storyProcessors) {
+                processor.setTrackRetention(trackRetention);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes the threads playing in the story adopt its context.
+     *
+     * @param data
+     *            the item of the current thread
+     */
+    @Override
+    protected void onCurrentThreadData(Item data) {
+        StoryContext.adopt(context);
+    }
+
+    /**
+     * Defines the journal recording the invocations to mocks.
+     *
+     * @param journal
+     *            the journal, <code>null</code> to stop recording
+     */
+    void setJournal(InvocationJournal journal) {
+        logger.trace("setJournal", "journal=", journal);
+        this.journal = journal;
+    }
+
+    /**
+     * Defines the clock measuring the latency of the invocations.
+     *
+     * @param latencyClock
+     *            the clock
+     */
+    void setLatencyClock(LatencyClock latencyClock) {
+        logger.trace("setLatencyClock", "latencyClock=", latencyClock);
+        this.latencyClock = latencyClock;
+    }
+
+    /**
+     * Defines the metrics measuring the invocations to mocks.
+     *
+     * @param metrics
+     *            the metrics, <code>null</code> to stop measuring
+     */
+    void setMetrics(InvocationMetrics metrics) {
+        logger.trace("setMetrics", "metrics=", metrics);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Makes a timed invocation result use the clock of this dispatcher.
+     *
+     * @param result
+     *            the invocation result
+     * @return The invocation result.
+     */
+    private InvocationResultProvider withLatencyClock(InvocationResultProvider result) {
+        if (result instanceof TimedResult) {
+            return ((TimedResult) result).on(latencyClock);
+        } else {
+            return result;
+        }
+    }
+
+    /**
+     * Invokes a method of a mock under the dispatcher lock.
+     *
+     * @param invocation
+     *            the invocation
+     * @param methodMetrics
+     *            records the lock wait, <code>null</code> if not measured
+     * @param start
+     *            the time of the invocation, if measured
+     * @return The invocation result.
+     */
+    private InvocationResultProvider invokeSerialized(Invocation invocation,
+      MethodMetrics methodMetrics, long start) {
+        lock.lock();
+        try {
+            if (methodMetrics != null) {
+                methodMetrics.recordLockWait(System.nanoTime() - start);
+            }
+            return invokeProcessor(invocation, getCurrentData());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Dispatches an invocation to the processors.
+     *
+     * @param invocation
+     *            the invocation
+     * @param methodMetrics
+     *            measures the invocation, <code>null</code> if none
+     * @param start
+     *            the time of the invocation, if measured
+     * @return The invocation result.
+     */
+    private InvocationResultProvider dispatch(Invocation invocation,
+      MethodMetrics methodMetrics, long start) {
+        if (dispatchMode == DispatchMode.CONCURRENT) {
+            // The processors are in charge of their own serialization.
+            return withLatencyClock(invokeProcessor(invocation, getCurrentData()));
+        } else {
+            return withLatencyClock(invokeSerialized(invocation, methodMetrics, start));
+        }
+    }
+
+    /**
+     * Dispatches an invocation, measuring it.
+     *
+     * @param invocation
+     *            the invocation
+     * @param currentMetrics
+     *            the metrics
+     * @return The invocation result, recording the duration of the call
+     *         when applied.
+     */
+    private InvocationResultProvider dispatchAndMeasure(Invocation invocation,
+      InvocationMetrics currentMetrics) {
+        long start = System.nanoTime();
+        MethodMetrics methodMetrics = currentMetrics.getOrCreate(invocation.getMock(),
+          invocation.getMethod());
+        try {
+            return MeasuredResult.measure(dispatch(invocation, methodMetrics, start),
+              methodMetrics, start);
+        } finally {
+            methodMetrics.recordDispatch(Thread.currentThread(), System.nanoTime() - start);
+        }
+    }
+
+    public InvocationResultProvider invoke(Invocation invocation) {
+        InvocationJournal currentJournal = journal;
+        if (currentJournal != null) {
+            currentJournal.record(invocation);
+        }
+
+        InvocationMetrics currentMetrics = metrics;
+        if (currentMetrics != null) {
+            return dispatchAndMeasure(invocation, currentMetrics);
+        } else {
+            return dispatch(invocation, null, 0);
+        }
     }
 
     /**
@@ -398,11 +594,16 @@ class MockInvocationDispatcher extends MTDispatcher<MockInvocationDispatcher.Ite
     /**
      * Prepares the dispatcher to run a new story.
      */
-    synchronized void begin() {
-        logger.trace("begin", "preparing for a new story...");
-        ExceptionGuard.get().enable();
-        linkKnownMocksToThis();
-        beginStoryProcessors();
+    void begin() {
+        lock.lock();
+        try {
+            logger.trace("begin", "preparing for a new story...");
+            context.getExceptionGuard().enable();
+            linkKnownMocksToThis();
+            beginStoryProcessors();
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -413,14 +614,17 @@ class MockInvocationDispatcher extends MTDispatcher<MockInvocationDispatcher.Ite
      * exception, forwards this exception.
      * </p>
      */
-    synchronized void end() {
+    void end() {
+        lock.lock();
         try {
             logger.trace("end", "ending story processors");
             unlinkKnownMocksFromThis();
+            invalidateCachedData();
             endStoryProcessors();
-            ExceptionGuard.get().throwIfPresent();
+            context.getExceptionGuard().throwIfPresent();
         } finally {
-            ExceptionGuard.get().disable();
+            context.getExceptionGuard().disable();
+            lock.unlock();
         }
     }
 
@@ -461,13 +665,18 @@ class MockInvocationDispatcher extends MTDispatcher<MockInvocationDispatcher.Ite
      *            the appended scenario
      */
     void append(Actor actor, Scenario scenario) {
-        logger.trace("append", "actor=", actor, "scenario=", scenario);
-        StoryProcessor storyProcessor = getAssignedStoryProcessor(actor);
-        // Should not be null. If this is the case, let the runtime exception
-        // go...
-        for (Expectation expectation : scenario) {
-            storyProcessor.addExpectation(expectation);
-            linker.registerAndLinkNewMocks(expectation);
+        lock.lock();
+        try {
+            logger.trace("append", "actor=", actor, "scenario=", scenario);
+            StoryProcessor storyProcessor = getAssignedStoryProcessor(actor);
+            // Should not be null. If this is the case, let the runtime exception
+            // go...
+            for (Expectation expectation : scenario) {
+                storyProcessor.addExpectation(expectation);
+                linker.registerAndLinkNewMocks(expectation);
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -480,13 +689,18 @@ class MockInvocationDispatcher extends MTDispatcher<MockInvocationDispatcher.Ite
      *            the appended stubs
      */
     void append(Actor actor, Stubs stubs) {
-        logger.trace("append", "actor=", actor, "stubs=", stubs);
-        StubProcessor stubProcessor = getAssignedStubProcessor(actor);
-        // Should not be null. If this is the case, let the runtime exception
-        // go...
-        for (Stub stub : stubs) {
-            stubProcessor.addStub(stub);
-            linker.registerAndLinkNewMocks(stub);
+        lock.lock();
+        try {
+            logger.trace("append", "actor=", actor, "stubs=", stubs);
+            StubProcessor stubProcessor = getAssignedStubProcessor(actor);
+            // Should not be null. If this is the case, let the runtime exception
+            // go...
+            for (Stub stub : stubs) {
+                stubProcessor.addStub(stub);
+                linker.registerAndLinkNewMocks(stub);
+            }
+        } finally {
+            lock.unlock();
         }
     }
 }
@@ -10,30 +10,61 @@ package com.vmware.lmock.impl;
 import static com.vmware.lmock.impl.MockInvocationHandlerType.CHECKER;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Maintains a list of mocks and automatically links/unlinks an invocation
  * handler to each of them.
  *
  * <p>
- * The handler is associated as a <code>CHECKER</code> to the mock invocation.
+ * The handler is associated as a <code>CHECKER</code> to the mock invocation,
+ * through a binding shared by all the mocks of the linker. Linking or
+ * unlinking the mocks only binds or unbinds that binding, whatever the number
+ * of mocks. The mocks are associated to the binding one by one only once
+ * after their registration, or if another linker took some of them over in
+ * the meantime.
  * </p>
  */
 class MockLinker {
-    /** The object linked to mocks. */
-    private final MockInvocationHandler linkedHandler;
+    /** The binding to the handler, shared by the registered mocks. */
+    private final HandlerBinding binding;
     /** List of known mocks. */
     private final List<Mock> mockList = new ArrayList<Mock>();
+    /** The known mocks, to check registrations. */
+    private final Set<Mock> mockSet = new HashSet<Mock>();
+    /** Number of mocks of the list associated to the binding up to now. */
+    private int boundMockCount = 0;
 
     /**
      * Creates a new linker for a given handler.
      *
      * @param linkedHandler
      *            the handler
+     * @param context
+     *            the story context of the handler
      */
-    protected MockLinker(MockInvocationHandler linkedHandler) {
-        this.linkedHandler = linkedHandler;
+    protected MockLinker(MockInvocationHandler linkedHandler, StoryContext context) {
+        binding = new HandlerBinding(linkedHandler, context);
+    }
+
+    /**
+     * Associates a mock to the shared binding.
+     *
+     * <p>
+     * If the mock was associated to the binding of another linker, notes that
+     * this other linker needs to associate its mocks again.
+     * </p>
+     *
+     * @param mock
+     *            the associated mock
+     */
+    private void bindMock(Mock mock) {
+        HandlerBinding previous = mock.setInvocationHandlerBinding(CHECKER, binding);
+        if (previous != null && previous != binding) {
+            previous.setDisplaced();
+        }
     }
 
     /**
@@ -43,7 +74,7 @@ class MockLinker {
      *            the registered mock
      */
     private void registerNewMock(Mock mock) {
-        if (!mockList.contains(mock)) {
+        if (mockSet.add(mock)) {
             mockList.add(mock);
         }
     }
@@ -73,23 +104,30 @@ class MockLinker {
     }
 
     /**
-     * Parses the list of known mocks and associates them to the registered
-     * invocation handler.
+     * Associates the registered mocks to the invocation handler.
+     *
+     * <p>
+     * Only the mocks registered since the last time are associated to the
+     * binding, unless another linker took some of the mocks over in the
+     * meantime.
+     * </p>
      */
     void linkHandlerToRegisteredMocks() {
-        for (Mock mock : mockList) {
-            mock.setInvocationHandler(CHECKER, linkedHandler);
+        if (binding.clearDisplaced()) {
+            boundMockCount = 0;
         }
+        for (; boundMockCount < mockList.size(); boundMockCount++) {
+            bindMock(mockList.get(boundMockCount));
+        }
+        binding.bind();
     }
 
     /**
-     * Parses the list of known mocks and removes the association to the
-     * registered invocation handler.
+     * Removes the association of the registered mocks to the invocation
+     * handler.
      */
     void unlinkHandlerFromRegisteredMocks() {
-        for (Mock mock : mockList) {
-            mock.unsetInvocationHandler(CHECKER);
-        }
+        binding.unbind();
     }
 
     /**
@@ -101,6 +139,6 @@ class MockLinker {
     void registerAndLinkNewMocks(InvocationChecker invocationChecker) {
         Mock mock = invocationChecker.getProxy();
         registerNewMock(mock);
-        mock.setInvocationHandler(CHECKER, linkedHandler);
+        bindMock(mock);
     }
 }
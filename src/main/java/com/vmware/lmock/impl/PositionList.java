@@ -0,0 +1,68 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.util.Arrays;
+
+/**
+ * A growing list of positions, in increasing order.
+ *
+ * <p>
+ * Used by the indexes referencing the items of an ordered list (expectations,
+ * recorded invocations...).
+ * </p>
+ */
+final class PositionList {
+    /** The positions, in increasing order. */
+    private int[] positions = new int[4];
+    /** The number of valid positions. */
+    private int size = 0;
+
+    /**
+     * Appends a position, greater than all the registered ones.
+     *
+     * @param position
+     *            the new position
+     */
+    void add(int position) {
+        if (size == positions.length) {
+            positions = Arrays.copyOf(positions, size * 2);
+        }
+        positions[size++] = position;
+    }
+
+    /** @return The number of positions. */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param index
+     *            index of the requested position
+     * @return The position.
+     */
+    int get(int index) {
+        return positions[index];
+    }
+
+    /**
+     * Searches for the first registered position greater or equal to a given
+     * position.
+     *
+     * @param from
+     *            the lowest position accepted
+     * @return The fetched position, -1 if none.
+     */
+    int firstFrom(int from) {
+        int index = Arrays.binarySearch(positions, 0, size, from);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return (index < size) ? positions[index] : -1;
+    }
+}
@@ -0,0 +1,77 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.lang.reflect.InvocationHandler;
+
+/**
+ * Backend creating the proxy objects of mocks.
+ *
+ * <p>
+ * By default, the mocks are implemented with
+ * <code>java.lang.reflect.Proxy</code>. Another backend, generating its own
+ * proxy classes, can be installed with <code>Mock.setProxyFactory</code>.
+ * </p>
+ *
+ * <p>
+ * Lmock only ships the default backend, and does not depend on any bytecode
+ * library. A generated backend could not do much better: the invocations
+ * reach the mocks as an <code>Invocation</code>, with boxed arguments in an
+ * array, since this is what the argument checkers work with. The proxy
+ * classes of <code>java.lang.reflect.Proxy</code> already resolve the
+ * <code>Method</code> of each of their methods once, when the class is
+ * created. Applications that want another backend anyway, for example one
+ * based on a bytecode library they already use, provide their own factory.
+ * </p>
+ *
+ * <p>
+ * Whatever the backend, the created proxies must forward every invocation of
+ * their methods to their handler, as <code>java.lang.reflect.Proxy</code>
+ * does, including the <code>equals</code>, <code>hashCode</code> and
+ * <code>toString</code> methods.
+ * </p>
+ */
+public interface ProxyFactory {
+    /**
+     * Creates a new proxy object implementing an interface.
+     *
+     * @param clazz
+     *            the implemented interface
+     * @param handler
+     *            the handler to which the invocations are forwarded
+     * @return The proxy object.
+     */
+    Object newProxy(Class<?> clazz, InvocationHandler handler);
+
+    /**
+     * Tells whether the instances of a class may be proxies created by this
+     * factory.
+     *
+     * <p>
+     * The answer is cached for each class. It must not change over time.
+     * </p>
+     *
+     * @param clazz
+     *            the class
+     * @return <code>true</code> if the instances of this class may be
+     *         proxies.
+     */
+    boolean isProxyClass(Class<?> clazz);
+
+    /**
+     * Gets the handler associated to an object, if it was created by this
+     * factory.
+     *
+     * @param object
+     *            the object, not null, instance of a proxy class of this
+     *            factory
+     * @return The handler of the proxy, <code>null</code> if the object was
+     *         not created by this factory.
+     */
+    InvocationHandler getInvocationHandler(Object object);
+}
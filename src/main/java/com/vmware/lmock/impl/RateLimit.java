@@ -0,0 +1,127 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of calls accepted by a stub per period.
+ *
+ * <p>
+ * The limit is a token bucket, holding the tokens of one period and refilled
+ * at the rate of the limit. It is implemented as a virtual scheduling (also
+ * known as the generic cell rate algorithm): a single atomic value holds the
+ * time at which the bucket will be full again, so that every call takes its
+ * token with one compare and set.
+ * </p>
+ * <p>
+ * The time is measured by the latency clock of the story.
+ * </p>
+ */
+public final class RateLimit extends CallLimit {
+    /** Time between two tokens, in nanoseconds. */
+    private final long interval;
+    /** Time to refill an empty bucket, in nanoseconds. */
+    private final long period;
+    /** Time at which the bucket will be full again, if no call comes. */
+    private final AtomicLong fullTime = new AtomicLong(Long.MIN_VALUE);
+    /** Set if the calls exceeding the limit are delayed. */
+    private boolean delaying;
+
+    /**
+     * Creates a new limit.
+     *
+     * @param calls
+     *            the number of calls per period
+     * @param period
+     *            the period, in nanoseconds
+     */
+    RateLimit(long calls, long period) {
+        this.interval = Math.max(1, period / calls);
+        this.period = interval * calls;
+    }
+
+    /**
+     * Makes the calls exceeding the limit be delayed until the stub accepts
+     * them, rather than blocking.
+     *
+     * <p>
+     * This only differs from blocking for the methods returning a
+     * <code>CompletableFuture</code>: the call returns immediately and the
+     * future completes once the stub accepts the call.
+     * </p>
+     *
+     * @return this.
+     */
+    public RateLimit orDelay() {
+        delaying = true;
+        return this;
+    }
+
+    /**
+     * Takes a token, waiting for it if needed.
+     *
+     * @param now
+     *            the current time
+     * @return The time at which the token is available.
+     */
+    private long reserve(long now) {
+        while (true) {
+            long current = fullTime.get();
+            long next = Math.max(current, now) + interval;
+            if (fullTime.compareAndSet(current, next)) {
+                return next - period;
+            }
+        }
+    }
+
+    /**
+     * Takes a token if available.
+     *
+     * @param now
+     *            the current time
+     * @return <code>true</code> if a token was taken.
+     */
+    private boolean tryAcquire(long now) {
+        while (true) {
+            long current = fullTime.get();
+            long next = Math.max(current, now) + interval;
+            if (next - period > now) {
+                return false;
+            }
+            if (fullTime.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    Object apply(InvocationResultProvider result, Class<?> returnType,
+      LatencyClock clock) throws Throwable {
+        long now = clock.nanoTime();
+        if (getSaturationException() != null) {
+            return tryAcquire(now) ? result.apply() : reject(DelayedResult.returnsAFuture(returnType));
+        }
+
+        long start = reserve(now);
+        if (start > now) {
+            if (delaying && DelayedResult.returnsAFuture(returnType)) {
+                return new DelayedResult(result, Latency.fixed(start - now, TimeUnit.NANOSECONDS),
+                  returnType, clock).apply();
+            }
+            clock.parkUntil(start);
+        }
+        return result.apply();
+    }
+
+    @Override
+    public String toString() {
+        return "rate(" + (period / interval) + "/" + period + "ns)";
+    }
+}
@@ -12,6 +12,7 @@ import com.vmware.lmock.checker.Occurrences;
 import com.vmware.lmock.clauses.HasArgumentSpecificationClauses;
 import com.vmware.lmock.clauses.HasExpectationSpecificationClauses;
 import com.vmware.lmock.clauses.HasInvocationResultSpecificationClauses;
+import com.vmware.lmock.clauses.HasLatencySpecificationClauses;
 import com.vmware.lmock.clauses.HasOccurrencesSpecificationClauses;
 
 /**
@@ -61,7 +62,8 @@ import com.vmware.lmock.clauses.HasOccurrencesSpecificationClauses;
 public class Scenario extends ExpectationListBuilder implements
   HasExpectationSpecificationClauses, HasArgumentSpecificationClauses,
   HasInvocationResultSpecificationClauses<Expectation>,
-  HasOccurrencesSpecificationClauses<Expectation> {
+  HasOccurrencesSpecificationClauses<Expectation>,
+  HasLatencySpecificationClauses<Expectation> {
 
     /** Logs the activity within this scenario. */
     private static Logger logger = Logger.get(Scenario.class);
@@ -154,4 +156,10 @@ public class Scenario extends ExpectationListBuilder implements
 
         return expect().willDelegateTo(provider);
     }
+
+    @Override
+    public Expectation willTakeTime(Latency latency) {
+        logger.trace("willTakeTime", "latency=", latency);
+        return expect().willTakeTime(latency);
+    }
 }
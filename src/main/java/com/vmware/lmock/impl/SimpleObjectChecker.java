@@ -76,6 +76,11 @@ class SimpleObjectChecker implements Checker<Object> {
         return valuesAreEqual(referenceObject, actualObject);
     }
 
+    /** @return The reference object, or mock. */
+    Object getReferenceObject() {
+        return referenceObject;
+    }
+
     @Override
     public Class<?> getRelatedClass() {
         if (referenceObject == null) {
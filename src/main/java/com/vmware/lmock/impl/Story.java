@@ -182,6 +182,102 @@ public final class Story implements HasAppendClauses {
         }
     }
 
+    /**
+     * Defines how the invocations issued by the different actors are
+     * dispatched.
+     *
+     * <p>
+     * By default, the invocations are serialized
+     * (<code>DispatchMode.SERIALIZED</code>).
+     * </p>
+     *
+     * @param dispatchMode
+     *            the dispatch mode
+     * @return this.
+     */
+    public Story withDispatchMode(DispatchMode dispatchMode) {
+        logger.trace("withDispatchMode", "dispatchMode=", dispatchMode);
+        dispatcher.setDispatchMode(dispatchMode);
+        return this;
+    }
+
+    /**
+     * Records the invocations to mocks issued during this story.
+     *
+     * <p>
+     * The journal keeps track of every invocation of the mocks referenced by
+     * the story, including the ones that do not comply with the scenario, so
+     * that the test can verify them afterwards. By default, no journal is
+     * kept.
+     * </p>
+     *
+     * @param journal
+     *            the journal, <code>null</code> to stop recording
+     * @return this.
+     */
+    public Story withJournal(InvocationJournal journal) {
+        logger.trace("withJournal", "journal=", journal);
+        dispatcher.setJournal(journal);
+        return this;
+    }
+
+    /**
+     * Measures the invocations to mocks issued during this story.
+     *
+     * <p>
+     * The metrics count the invocations of each method of the mocks
+     * referenced by the story, the invoking threads and the time taken by
+     * the invocations. By default, nothing is measured.
+     * </p>
+     *
+     * @param metrics
+     *            the metrics, <code>null</code> to stop measuring
+     * @return this.
+     */
+    public Story withMetrics(InvocationMetrics metrics) {
+        logger.trace("withMetrics", "metrics=", metrics);
+        dispatcher.setMetrics(metrics);
+        return this;
+    }
+
+    /**
+     * Defines the clock measuring the latency of the invocations.
+     *
+     * <p>
+     * By default, the latency is measured by the system clock
+     * (<code>LatencyClock.system()</code>). Tests may control the time with
+     * a <code>VirtualClock</code>.
+     * </p>
+     *
+     * @param clock
+     *            the clock, <code>null</code> for the default
+     * @return this.
+     */
+    public Story withLatencyClock(LatencyClock clock) {
+        logger.trace("withLatencyClock", "clock=", clock);
+        dispatcher.setLatencyClock((clock == null) ? LatencyClock.system() : clock);
+        return this;
+    }
+
+    /**
+     * Defines how much of this story is kept in the story track.
+     *
+     * <p>
+     * By default, the track keeps the whole story
+     * (<code>TrackRetention.UNBOUNDED</code>). Long running stories may bound
+     * the memory used by the track with <code>TrackRetention.keepLast</code>.
+     * </p>
+     *
+     * @param retention
+     *            the retention policy, <code>null</code> for the default
+     * @return this.
+     */
+    public Story withTrackRetention(TrackRetention retention) {
+        logger.trace("withTrackRetention", "retention=", retention);
+        dispatcher.setTrackRetention((retention == null) ? TrackRetention.UNBOUNDED : retention);
+        return this;
+    }
+
     /**
      * Begins the story.
      */
@@ -0,0 +1,117 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The state shared by the stories of a thread.
+ *
+ * <p>
+ * Each thread has its own context, holding the exception guard, the story
+ * track and the cleanup epoch of the stories it runs. Stories running on
+ * independent threads, with disjoint mocks, do not share any mutable state.
+ * </p>
+ *
+ * <p>
+ * A story uses the context of the thread creating it. The threads started by
+ * that thread inherit its context, so that their unexpected invocations are
+ * reported by the story. The other threads playing in the story adopt the
+ * context when they first invoke one of its mocks. A thread creating a story
+ * while using a context owned by another thread (for example the worker of a
+ * pool running tests in parallel) first switches to a context of its own.
+ * </p>
+ */
+final class StoryContext {
+    /** The context of each thread. */
+    private static final ThreadLocal<StoryContext> contexts = new InheritableThreadLocal<StoryContext>() {
+        @Override
+        protected StoryContext initialValue() {
+            return new StoryContext();
+        }
+    };
+    /** The thread owning this context. */
+    private final Thread owner = Thread.currentThread();
+    /** Guards the exceptions and errors issued during a story. */
+    private final ExceptionGuard exceptionGuard = new ExceptionGuard();
+    /** Tracks the stories of the context. */
+    private final StoryTrack storyTrack = new StoryTrack();
+    /** The current cleanup epoch. */
+    private final AtomicLong cleanupEpoch = new AtomicLong();
+
+    /** @return The context of the current thread. */
+    static StoryContext get() {
+        return contexts.get();
+    }
+
+    /**
+     * Gets the context of a story created by the current thread.
+     *
+     * <p>
+     * If the current context is owned by another thread, the current thread
+     * switches to a new context of its own.
+     * </p>
+     *
+     * @return The context of the current thread.
+     */
+    static StoryContext forNewStory() {
+        StoryContext context = contexts.get();
+        if (context.owner != Thread.currentThread()) {
+            context = new StoryContext();
+            contexts.set(context);
+        }
+        return context;
+    }
+
+    /**
+     * Detaches the current thread from its context.
+     *
+     * <p>
+     * The thread gets a new context of its own when it needs one. Used by the
+     * threads of the library which may inherit the context of a test thread.
+     * </p>
+     */
+    static void detach() {
+        contexts.remove();
+    }
+
+    /**
+     * Makes a context the one of the current thread.
+     *
+     * @param context
+     *            the adopted context
+     */
+    static void adopt(StoryContext context) {
+        if (contexts.get() != context) {
+            contexts.set(context);
+        }
+    }
+
+    /** @return The exception guard of this context. */
+    ExceptionGuard getExceptionGuard() {
+        return exceptionGuard;
+    }
+
+    /** @return The story track of this context. */
+    StoryTrack getStoryTrack() {
+        return storyTrack;
+    }
+
+    /** @return The current cleanup epoch of this context. */
+    long getCleanupEpoch() {
+        return cleanupEpoch.get();
+    }
+
+    /**
+     * Moves to the next cleanup epoch, so that the associations of mocks to
+     * handlers made in this context are considered as removed.
+     */
+    void cleanup() {
+        cleanupEpoch.incrementAndGet();
+    }
+}
@@ -7,13 +7,31 @@
  * ************************************************************************** */
 package com.vmware.lmock.impl;
 
+import com.vmware.lmock.checker.ConcurrentOccurrenceChecker;
+import com.vmware.lmock.checker.OccurrenceChecker;
 import com.vmware.lmock.exception.ExpectationError;
 import com.vmware.lmock.exception.UnexpectedInvocationError;
 import com.vmware.lmock.exception.UnsatisfiedOccurrenceError;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Core engine validating the progress of a story regarding a list of
  * expectations.
+ *
+ * <p>
+ * A story processor may be shared by several threads following the same
+ * scenario, so every method advancing the story is serialized on the
+ * processor.
+ * </p>
+ *
+ * <p>
+ * The only exception are the invocations of an expectation with concurrent
+ * occurrences (see <code>ConcurrentOccurrenceChecker</code>), that can be
+ * recorded in parallel as long as the story does not have to move to another
+ * expectation. Such invocations take no lock: they count the occurrence in
+ * the round of occurrences published with the expectation, and the story may
+ * leave the expectation meanwhile.
+ * </p>
  */
 class StoryProcessor {
 
@@ -25,6 +43,40 @@ class StoryProcessor {
     private final InvocationHooks invocationHooks = new InvocationHooks();
     /** Keeps track of the expectations achieved by this processor. */
     private final StoryTracker storyTracker = new StoryTracker();
+    /** The story context of the processor. */
+    private final StoryContext context;
+    /** Serializes the processing of the story. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The current expectation of the story, when it has concurrent
+     * occurrences, along with its round of occurrences and its report.
+     */
+    private static final class ConcurrentExpectation {
+        private final Expectation expectation;
+        private final ConcurrentOccurrenceChecker.Round round;
+        private final ExpectationReport report;
+
+        /**
+         * @param expectation
+         *            the current expectation
+         * @param round
+         *            the round of occurrences of the expectation
+         * @param report
+         *            the report of the expectation
+         */
+        ConcurrentExpectation(Expectation expectation, ConcurrentOccurrenceChecker.Round round,
+          ExpectationReport report) {
+            this.expectation = expectation;
+            this.round = round;
+            this.report = report;
+        }
+    }
+    /**
+     * The current expectation recorded by the parallel invocations, null if
+     * the current expectation does not have concurrent occurrences.
+     */
+    private volatile ConcurrentExpectation concurrentExpectation;
 
     /**
      * Creates a new processor, to validate a scenario.
@@ -35,10 +87,29 @@ class StoryProcessor {
      *
      * @param expectationList
      *            the list of expectations in the scenario
+     * @param context
+     *            the story context
      */
-    protected StoryProcessor(ExpectationList expectationList) {
+    protected StoryProcessor(ExpectationList expectationList, StoryContext context) {
         logger.trace("StoryProcessor", "expectationList=", expectationList);
         this.expectationList = expectationList;
+        this.context = context;
+    }
+
+    /**
+     * Defines how much of the story is kept by the tracker of this processor.
+     *
+     * @param retention
+     *            the retention policy
+     */
+    void setTrackRetention(TrackRetention retention) {
+        lock.lock();
+        try {
+            logger.trace("setTrackRetention", "retention=", retention);
+            storyTracker.setRetention(retention);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /** @return The list of expectations processed by this. */
@@ -65,10 +136,32 @@ class StoryProcessor {
                 logger.trace("moveToFirstExpectationIfNeeded", "resetting");
                 expect.getOccurrences().reset();
                 storyTracker.addExpectationReport(expect);
+                publishConcurrentExpectation(expect);
             }
         }
     }
 
+    /**
+     * Lets the parallel invocations record the occurrences of the current
+     * expectation, if it has concurrent occurrences.
+     *
+     * <p>
+     * The occurrences are reset first, starting the round in which the
+     * parallel invocations count their occurrences.
+     * </p>
+     *
+     * @param expectation
+     *            the current expectation
+     */
+    private void publishConcurrentExpectation(Expectation expectation) {
+        OccurrenceChecker occurrences = expectation.getOccurrences();
+        if (occurrences instanceof ConcurrentOccurrenceChecker) {
+            occurrences.reset();
+            concurrentExpectation = new ConcurrentExpectation(expectation,
+              ((ConcurrentOccurrenceChecker) occurrences).getRound(), storyTracker.getCurrentExpectationReport());
+        }
+    }
+
     /**
      * Adds an expectation at the end of the known expectation list.
      *
@@ -76,9 +169,14 @@ class StoryProcessor {
      *            the new expectation
      */
     protected void addExpectation(Expectation expectation) {
-        logger.trace("addExpectation", "expectationList=", expectationList, "expectation=", expectation);
-        expectationList.addExpectation(expectation);
-        moveToFirstExpectationIfNeeded();
+        lock.lock();
+        try {
+            logger.trace("addExpectation", "expectationList=", expectationList, "expectation=", expectation);
+            expectationList.addExpectation(expectation);
+            moveToFirstExpectationIfNeeded();
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -94,12 +192,14 @@ class StoryProcessor {
      */
     private Expectation nextExpectation() {
         logger.trace("nextExpectation", "expectationList=", expectationList);
+        concurrentExpectation = null;
         Expectation currentExpectation = expectationList.getCurrentExpectation();
         currentExpectation.getOccurrences().reset();
         expectationList.nextExpectation();
         currentExpectation = expectationList.getCurrentExpectation();
         if (currentExpectation != null) {
             storyTracker.addExpectationReport(currentExpectation);
+            publishConcurrentExpectation(currentExpectation);
         }
         return currentExpectation;
     }
@@ -118,13 +218,19 @@ class StoryProcessor {
      * Begins the story.
      */
     public void begin() {
-        logger.trace("begin", "expectationList=", expectationList);
-        storyTracker.clear();
-        StoryTrack.get().registerTrackerIfNeeded(storyTracker);
-        if (expectationList != null) {
-            // Rewind in case of...
-            expectationList.rewind();
-            moveToFirstExpectationIfNeeded();
+        lock.lock();
+        try {
+            logger.trace("begin", "expectationList=", expectationList);
+            concurrentExpectation = null;
+            storyTracker.clear();
+            context.getStoryTrack().registerTrackerIfNeeded(storyTracker);
+            if (expectationList != null) {
+                // Rewind in case of...
+                expectationList.rewind();
+                moveToFirstExpectationIfNeeded();
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -152,8 +258,9 @@ class StoryProcessor {
     /** Cleans up the resources used by the processor. */
     private void cleanup() {
         logger.trace("cleanup", "expectationList=", expectationList);
+        concurrentExpectation = null;
         expectationList.unwind();
-        Cleaner.cleanup();
+        context.cleanup();
     }
 
     /**
@@ -168,11 +275,14 @@ class StoryProcessor {
      *             complete.
      */
     public void end() {
-        logger.trace("end", "expectationList=", expectationList);
+        lock.lock();
         try {
+            logger.trace("end", "expectationList=", expectationList);
+            concurrentExpectation = null;
             checkEveryExpectationIsSatisfied();
         } finally {
             cleanup();
+            lock.unlock();
         }
     }
 
@@ -193,6 +303,75 @@ class StoryProcessor {
         throw error;
     }
 
+    /**
+     * Moves forward to the next expectation that may accept an invocation
+     * that is not handled by the default invocation hooks.
+     *
+     * <p>
+     * This is a shortcut of the step by step progress of <code>invoke</code>
+     * for an invocation that the current expectation does not accept: as long
+     * as the next expectations cannot accept the invocation either, the only
+     * possible outcomes are to move to the next expectation if the current
+     * one can end, or to fail. So the method moves directly to the next
+     * candidate given by the expectation index, verifying that every
+     * expectation in between can end.
+     * </p>
+     *
+     * @param invocation
+     *            the invocation
+     * @throws UnsatisfiedOccurrenceException
+     *             One of the skipped expectations is not satisfied.
+     */
+    private void skipToNextCandidate(Invocation invocation) {
+        int candidate = expectationList.nextCandidatePosition(invocation);
+        logger.trace("skipToNextCandidate", "invocation=", invocation, "candidate=", candidate);
+        while (expectationList.getCurrentPosition() < candidate) {
+            Expectation currentExpectation = expectationList.getCurrentExpectation();
+            if (!currentExpectation.getOccurrences().canEndNow()) {
+                logger.trace("skipToNextCandidate", "expectation", currentExpectation, "is not satisfied by", invocation);
+                end(new UnsatisfiedOccurrenceError(currentExpectation));
+            }
+            nextExpectation();
+        }
+    }
+
+    /**
+     * Tries to record an invocation of the current expectation without
+     * serializing it with the other invocations.
+     *
+     * <p>
+     * This only succeeds if the current expectation has concurrent
+     * occurrences, accepts the invocation and has not reached its limit.
+     * Otherwise, the invocation must be processed by <code>invoke</code>.
+     * </p>
+     *
+     * <p>
+     * Once counted, the occurrence is final, even if the story moves on
+     * meanwhile: the invocation happened before the story left the
+     * expectation, which may have been decided on this very occurrence. Since
+     * the occurrence is counted in the round published with the expectation,
+     * it cannot change the occurrences of a later round, if the story reaches
+     * the expectation again.
+     * </p>
+     *
+     * @param invocation
+     *            the invocation
+     * @return The invocation result, null if the invocation was not recorded.
+     */
+    private InvocationResultProvider tryConcurrentOccurrence(Invocation invocation) {
+        ConcurrentExpectation current = concurrentExpectation;
+        if (current == null || !current.expectation.valueIsCompatibleWith(invocation)) {
+            return null;
+        }
+
+        if (!current.round.tryIncrement()) {
+            return null;
+        }
+        logger.trace("tryConcurrentOccurrence", "invocation is compatible with", current.expectation);
+        current.report.record();
+        return current.expectation.getResultOfCountedOccurrence();
+    }
+
     /**
      * Validates the invocation of a mock regarding the scenario.
      *
@@ -208,8 +387,36 @@ class StoryProcessor {
      *             complete.
      */
     public InvocationResultProvider invoke(Invocation invocation) {
+        InvocationResultProvider concurrentResult = tryConcurrentOccurrence(invocation);
+        if (concurrentResult != null) {
+            return concurrentResult;
+        }
+
+        lock.lock();
+        try {
+            return invokeSerialized(invocation);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Validates the invocation of a mock regarding the scenario, once it is
+     * serialized with the other invocations of the story.
+     *
+     * @param invocation
+     *            the invocation
+     * @return The invocation result.
+     */
+    private InvocationResultProvider invokeSerialized(Invocation invocation) {
         logger.trace("invoke", "invocation=", invocation, "expectationList=", expectationList);
         Expectation currentExpectation;
+        // Invocations that are not handled by the hooks can skip the
+        // expectations that cannot accept them.
+        boolean hasDefaultHandler = invocationHooks.hasDefaultHandlerFor(invocation.getMethod());
+        // Set when the compatibility of the current expectation with the
+        // invocation was already checked as the "next" expectation.
+        boolean currentIsKnownToBeCompatible = false;
 
         // In fact the current expectation is not necessarily what we actually
         // want to check. For example, if the occurrence is "any", and the
@@ -237,20 +444,25 @@ class StoryProcessor {
             }
 
             logger.trace("invoke", "checking that expectation", currentExpectation, "is compatible with", invocation);
-            if (currentExpectation.valueIsCompatibleWith(invocation)) {
+            boolean isCompatible = currentIsKnownToBeCompatible || currentExpectation.valueIsCompatibleWith(invocation);
+            currentIsKnownToBeCompatible = false;
+            if (isCompatible) {
                 logger.trace("invoke", "value is compatible with invocation, checking occurrence limit");
                 // We can call the method, but we may not be allowed to... This
                 // case is not necessarily an error, because a subsequent
                 // expectation may be OK.
-                if (currentExpectation.getOccurrences().hasReachedLimit()) {
+                result = currentExpectation.tryGetResult();
+                if (result == null) {
                     logger.trace("invoke", "reached the limit of expectation", currentExpectation,
                       "trying next expectation");
                     nextExpectation();
                 } else {
                     logger.trace("invoke", "invocation is compatible with", currentExpectation, " => SUCCESSs");
-                    result = currentExpectation.getResult();
                     storyTracker.getCurrentExpectationReport().record();
                 }
+            } else if (!hasDefaultHandler) {
+                logger.trace("invoke", "current expectation is not compatible with invocation... skipping");
+                skipToNextCandidate(invocation);
             } else {
                 logger.trace("invoke", "current expectation is not compatible with invocation... can we end it now?");
                 // We can search for another expectation if and only if the
@@ -275,6 +487,7 @@ class StoryProcessor {
                         if (next != null && next.valueIsCompatibleWith(invocation)) {
                             logger.trace("invoke", "next expectation continues current expectation, going forward");
                             nextExpectation();
+                            currentIsKnownToBeCompatible = true;
                         } else {
                             logger.trace("invoke", "could not go further... trying default hook");
                             result = invocationHooks.tryInvocation(invocation);
@@ -27,16 +27,14 @@ import java.util.List;
  * </p>
  */
 public final class StoryTrack {
-    /** THE story track, accessible via <code>get</code>. */
-    private static final StoryTrack track = new StoryTrack();
     /** List of registered story trackers. */
     private final List<StoryTracker> trackers = new ArrayList<StoryTracker>();
 
     /**
-     * @return The story track.
+     * @return The story track of the current thread.
      */
     public static StoryTrack get() {
-        return track;
+        return StoryContext.get().getStoryTrack();
     }
 
     /**
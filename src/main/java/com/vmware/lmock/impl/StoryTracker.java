@@ -7,9 +7,9 @@
  * ************************************************************************** */
 package com.vmware.lmock.impl;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
-import java.util.List;
 
 /**
  * Tracks the ongoing expectations of a story, reported by a story processor.
@@ -22,9 +22,15 @@ import java.util.List;
  * </p>
  */
 class StoryTracker implements Iterable<ExpectationReport> {
-    /** The list of expectation reports. */
-    private final List<ExpectationReport> reports =
-      new ArrayList<ExpectationReport>();
+    /** The list of expectation reports, used as a ring when bounded. */
+    private final Deque<ExpectationReport> reports =
+      new ArrayDeque<ExpectationReport>();
+    /** The number of reports dropped from the list. */
+    private int droppedReports = 0;
+    /** Defines how many reports and runs of invocations are kept. */
+    private TrackRetention retention = TrackRetention.UNBOUNDED;
+    /** The last report added to the list, updated by invocations. */
+    private volatile ExpectationReport currentReport;
 
     /**
      * Records an expectation by creating a new report and adding it.
@@ -33,7 +39,26 @@ class StoryTracker implements Iterable<ExpectationReport> {
      *            the new expectation
      */
     void addExpectationReport(Expectation expectation) {
-        reports.add(new ExpectationReport(expectation));
+        if (retention.getMaxReports() > 0 && reports.size() == retention.getMaxReports()) {
+            reports.removeFirst();
+            droppedReports++;
+        }
+        currentReport = new ExpectationReport(expectation, retention.getMaxRunsPerThread());
+        reports.addLast(currentReport);
+    }
+
+    /**
+     * Defines how much of the story is kept by this tracker.
+     *
+     * <p>
+     * Applies to the reports added from now on.
+     * </p>
+     *
+     * @param retention
+     *            the retention policy
+     */
+    void setRetention(TrackRetention retention) {
+        this.retention = retention;
     }
 
     /**
@@ -47,12 +72,18 @@ class StoryTracker implements Iterable<ExpectationReport> {
      * @return The last expectation report added to this.
      */
     ExpectationReport getCurrentExpectationReport() {
-        return reports.get(reports.size() - 1);
+        if (currentReport == null) {
+            throw new IndexOutOfBoundsException("no expectation report");
+        }
+        return currentReport;
     }
 
-    /** @return The number of expectations reported up to now. */
+    /**
+     * @return The number of expectations reported up to now, including the
+     *         dropped reports.
+     */
     int size() {
-        return reports.size();
+        return reports.size() + droppedReports;
     }
 
     public Iterator<ExpectationReport> iterator() {
@@ -62,6 +93,8 @@ class StoryTracker implements Iterable<ExpectationReport> {
     /** Clears the list. */
     void clear() {
         reports.clear();
+        droppedReports = 0;
+        currentReport = null;
     }
 
     @Override
@@ -72,6 +105,10 @@ class StoryTracker implements Iterable<ExpectationReport> {
 
         StringBuilder builder = new StringBuilder(256);
         builder.append("what happened up to now:\n");
+        if (droppedReports != 0) {
+            builder.append(droppedReports);
+            builder.append(" earlier expectation(s) not shown\n");
+        }
         for (ExpectationReport report : reports) {
             builder.append(report);
             builder.append("\n");
@@ -9,7 +9,9 @@ package com.vmware.lmock.impl;
 
 import java.lang.reflect.Method;
 
+import com.vmware.lmock.clauses.HasCallLimitSpecificationClauses;
 import com.vmware.lmock.clauses.HasInvocationResultSpecificationClauses;
+import com.vmware.lmock.clauses.HasLatencySpecificationClauses;
 import com.vmware.lmock.exception.MockReferenceException;
 
 /**
@@ -26,12 +28,23 @@ import com.vmware.lmock.exception.MockReferenceException;
  * </p>
  */
 public final class Stub extends InvocationChecker implements
-  HasInvocationResultSpecificationClauses<Stub> {
+  HasInvocationResultSpecificationClauses<Stub>,
+  HasLatencySpecificationClauses<Stub>,
+  HasCallLimitSpecificationClauses<Stub> {
 
     /** Logs the activity. */
     private static final Logger logger = Logger.get(Stub.class);
     /** Result applied by the expectation when the method is invoked. */
     private InvocationResultProvider invocationResult;
+    /** Latency of an invocation to this stub, <code>null</code> if none. */
+    private Latency latency;
+    /** Limits the calls accepted by this stub, <code>null</code> if none. */
+    private CallLimit limit;
+    /**
+     * The result of an invocation, including its latency and call limit,
+     * built on the first invocation.
+     */
+    private volatile InvocationResultProvider appliedResult;
 
     /**
      * Creates a new stub.
@@ -56,24 +69,35 @@ public final class Stub extends InvocationChecker implements
         // Display the result of an invocation
         builder.append(':');
         builder.append(invocationResult);
+        if (latency != null) {
+            builder.append(" after ");
+            builder.append(latency);
+        }
+        if (limit != null) {
+            builder.append(" within ");
+            builder.append(limit);
+        }
 
         return builder.toString();
     }
 
     @Override
     public <T> Stub willReturn(T result) {
+        appliedResult = null;
         invocationResult = new InvocationResultChecker(getMethod()).willReturn(result);
         return this;
     }
 
     @Override
     public <T extends Throwable> Stub willThrow(T excpt) {
+        appliedResult = null;
         invocationResult = new InvocationResultChecker(getMethod()).willThrow(excpt);
         return this;
     }
 
     @Override
     public Stub will(InvocationResultProvider result) {
+        appliedResult = null;
         if (result instanceof InvocationResult) {
             invocationResult = new InvocationResultChecker(getMethod()).will((InvocationResult) result);
             return this;
@@ -84,12 +108,62 @@ public final class Stub extends InvocationChecker implements
 
     @Override
     public Stub willDelegateTo(InvocationResultProvider provider) {
+        appliedResult = null;
         invocationResult = provider;
         return this;
     }
 
-    /** @return The result of an invocation to this stub. */
+    @Override
+    public Stub willTakeTime(Latency latency) {
+        if (latency == null) {
+            throw new IllegalArgumentException("null latency specified");
+        }
+
+        this.latency = latency;
+        appliedResult = null;
+        return this;
+    }
+
+    @Override
+    public Stub willAccept(CallLimit limit) {
+        if (limit == null) {
+            throw new IllegalArgumentException("null limit specified");
+        }
+        if (limit.getSaturationException() != null
+          && !DelayedResult.returnsAFuture(getMethod().getReturnType())) {
+            // Fails if the exception cannot be thrown by the method.
+            new InvocationResultChecker(getMethod()).willThrow(limit.getSaturationException());
+        }
+
+        this.limit = limit;
+        appliedResult = null;
+        return this;
+    }
+
+    /**
+     * Provides the result of an invocation to this stub.
+     *
+     * <p>
+     * The result is built once, then shared by all the invocations: the
+     * delayed and limited results do not keep any state of their own.
+     * </p>
+     *
+     * @return The result of an invocation to this stub.
+     */
     InvocationResultProvider getInvocationResult() {
-        return invocationResult;
+        InvocationResultProvider result = appliedResult;
+        if (result == null) {
+            result = invocationResult;
+            if (latency != null) {
+                result = new DelayedResult(result, latency,
+                  getMethod().getReturnType(), LatencyClock.system());
+            }
+            if (limit != null) {
+                result = new LimitedResult(result, limit,
+                  getMethod().getReturnType(), LatencyClock.system());
+            }
+            appliedResult = result;
+        }
+        return result;
     }
 }
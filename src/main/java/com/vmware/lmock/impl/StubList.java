@@ -0,0 +1,160 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The stubs registered for one method of one mock.
+ *
+ * <p>
+ * The stubs are kept from the older to the younger, the younger stub matching
+ * an invocation prevailing. The stubs which only expect literal arguments
+ * (strings, boxed primitives...) are also indexed by the values of their
+ * arguments, so that they are found without checking them one by one. The
+ * other stubs are checked in turn.
+ * </p>
+ *
+ * <p>
+ * The list can be searched concurrently, without any lock, while new stubs are
+ * added.
+ * </p>
+ */
+final class StubList {
+    /** Logs the activity. */
+    private static final Logger logger = Logger.get(StubList.class);
+    /** Key representing a null argument in the index of literal stubs. */
+    private static final Object NULL_KEY = new Object();
+    /** The stubs, from the older to the younger. */
+    private volatile Stub[] stubs = new Stub[0];
+    /** Positions of the stubs which are not indexed, in increasing order. */
+    private volatile int[] scannedPositions = new int[0];
+    /** Position of the younger stub expecting a given list of literals. */
+    private final Map<Object, Integer> literalPositions = new ConcurrentHashMap<Object, Integer>();
+
+    /**
+     * Creates the key of a list of arguments in the index of literal stubs.
+     *
+     * @param arguments
+     *            the arguments, not empty
+     * @return The key.
+     */
+    private static Object keyOf(Object[] arguments) {
+        if (arguments.length == 1) {
+            return (arguments[0] == null) ? NULL_KEY : arguments[0];
+        } else {
+            return Arrays.asList(arguments);
+        }
+    }
+
+    /**
+     * Tells whether a list of arguments can be searched in the index of
+     * literal stubs.
+     *
+     * <p>
+     * Searching the index invokes <code>hashCode</code> and
+     * <code>equals</code> on the arguments, so it is restricted to literal
+     * arguments: any other argument, such as a mock, may react to these
+     * invocations.
+     * </p>
+     *
+     * @param arguments
+     *            the arguments
+     * @return <code>true</code> if every argument is null or a literal.
+     */
+    private static boolean areLiterals(Object[] arguments) {
+        for (Object argument : arguments) {
+            if (argument != null && !ArgumentMatchingPlan.isLiteralClass(argument.getClass())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a new stub, younger than all the known stubs.
+     *
+     * @param stub
+     *            the new stub
+     */
+    synchronized void add(Stub stub) {
+        int position = stubs.length;
+        Stub[] newStubs = Arrays.copyOf(stubs, position + 1);
+        newStubs[position] = stub;
+        // The index is updated last: a concurrent search that finds a
+        // position in the index also finds the corresponding stub.
+        stubs = newStubs;
+
+        Object[] literals = stub.getLiteralArguments();
+        if (literals == null) {
+            int[] newScannedPositions = Arrays.copyOf(scannedPositions, scannedPositions.length + 1);
+            newScannedPositions[scannedPositions.length] = position;
+            scannedPositions = newScannedPositions;
+        } else {
+            literalPositions.put(keyOf(literals), position);
+        }
+    }
+
+    /**
+     * Searches for the younger stub matching an invocation.
+     *
+     * @param invocation
+     *            the invocation, referring to the mock and method of this
+     *            list
+     * @return The fetched stub, <code>null</code> if not found.
+     */
+    Stub search(Invocation invocation) {
+        logger.trace("search", "invocation=", invocation);
+        Object[] arguments = invocation.getArgs();
+        Integer indexedPosition = null;
+        if (arguments != null && arguments.length != 0 && !literalPositions.isEmpty()
+          && areLiterals(arguments)) {
+            indexedPosition = literalPositions.get(keyOf(arguments));
+        }
+
+        Stub[] currentStubs = stubs;
+        int[] currentScannedPositions = scannedPositions;
+        // Only a literal stub comparing equal to the arguments may match. The
+        // check filters out arguments which would claim to be equal to the
+        // literals.
+        int youngestIndexed = -1;
+        if (indexedPosition != null && currentStubs[indexedPosition].valueIsCompatibleWith(invocation)) {
+            youngestIndexed = indexedPosition;
+        }
+
+        // Give the priority to the younger stubs, but no need to check the
+        // stubs older than the indexed one.
+        for (int index = currentScannedPositions.length - 1; index >= 0; index--) {
+            int position = currentScannedPositions[index];
+            if (position < youngestIndexed) {
+                break;
+            }
+
+            Stub stub = currentStubs[position];
+            logger.trace("search", "checking stub", stub, "against invocation", invocation);
+            if (stub.valueIsCompatibleWith(invocation)) {
+                logger.trace("search", "stub matches");
+                return stub;
+            }
+        }
+
+        if (youngestIndexed >= 0) {
+            logger.trace("search", "indexed stub matches");
+            return currentStubs[youngestIndexed];
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(stubs);
+    }
+}
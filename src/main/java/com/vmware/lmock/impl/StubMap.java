@@ -8,10 +8,8 @@
 package com.vmware.lmock.impl;
 
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A map of stubs.
@@ -19,45 +17,169 @@ import java.util.Set;
  * <p>
  * Stubs are registered by the <code>register</code> method. It is then able to
  * check whether an invocation may match one or several stubs, using the mock
- * and the method name (<code>search</code>).
+ * and the method (<code>search</code>).
+ * </p>
+ *
+ * <p>
+ * The map is a flat open addressing table, indexed by the uid of the mock and
+ * the method. Each slot of the table holds the list of stubs registered for
+ * one mock and one method.
+ * </p>
+ *
+ * <p>
+ * The map can be searched concurrently, without any lock, while new stubs are
+ * registered: the registration never modifies a published table, but replaces
+ * it with an updated copy.
  * </p>
  */
 class StubMap {
-    /** Per-mock map of per-method name map of stubs. */
-    private final HashMap<Mock, HashMap<Method, List<Stub>>> map = new HashMap<Mock, HashMap<Method, List<Stub>>>();
+    /** Initial size of the table, must be a power of 2. */
+    private static final int INITIAL_TABLE_SIZE = 16;
+
+    /** The stubs registered for one mock and one method. */
+    private static final class Entry {
+        /** The mock. */
+        private final Mock mock;
+        /** The method. */
+        private final Method method;
+        /** Hash code of the entry. */
+        private final int hash;
+        /** The registered stubs. */
+        private final StubList stubs = new StubList();
+
+        /**
+         * Creates a new entry, with one stub.
+         *
+         * @param hash
+         *            the hash code of the entry
+         * @param stub
+         *            the first stub of this entry
+         */
+        private Entry(int hash, Stub stub) {
+            this.mock = stub.getProxy();
+            this.method = stub.getMethod();
+            this.hash = hash;
+            this.stubs.add(stub);
+        }
+
+        /**
+         * Checks whether this entry refers to a given mock and method.
+         *
+         * @param mock
+         *            the mock
+         * @param method
+         *            the method
+         * @return <code>true</code> if this entry refers to the mock and
+         *         method.
+         */
+        private boolean refersTo(Mock mock, Method method) {
+            return this.mock == mock && (this.method == method || this.method.equals(method));
+        }
+    }
+    /** The table of entries, replaced when growing. */
+    private volatile Entry[] table = new Entry[INITIAL_TABLE_SIZE];
+    /** Number of entries in the table. */
+    private int entryCount = 0;
+    /** The mocks to which a stub was mapped. */
+    private final Set<Mock> mockList = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Computes the hash code of an entry.
+     *
+     * @param mock
+     *            the mock
+     * @param method
+     *            the method
+     * @return The hash code.
+     */
+    private static int hash(Mock mock, Method method) {
+        long uid = mock.getUid();
+        int hash = (int) (uid ^ (uid >>> 32)) * 31 + method.hashCode();
+        // Spread the bits, since the index of an entry is given by the lower
+        // ones.
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Searches for the entry of a mock and method in a table.
+     *
+     * @param entries
+     *            the searched table
+     * @param hash
+     *            the hash code of the entry
+     * @param mock
+     *            the mock
+     * @param method
+     *            the method
+     * @return The fetched entry, <code>null</code> if not found.
+     */
+    private static Entry find(Entry[] entries, int hash, Mock mock, Method method) {
+        int mask = entries.length - 1;
+        for (int index = hash & mask;; index = (index + 1) & mask) {
+            Entry entry = entries[index];
+            if (entry == null) {
+                return null;
+            } else if (entry.hash == hash && entry.refersTo(mock, method)) {
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * Puts an entry into the first free slot of a table.
+     *
+     * @param entries
+     *            the table, not full
+     * @param entry
+     *            the new entry
+     */
+    private static void insert(Entry[] entries, Entry entry) {
+        int mask = entries.length - 1;
+        int index = entry.hash & mask;
+        while (entries[index] != null) {
+            index = (index + 1) & mask;
+        }
+        entries[index] = entry;
+    }
 
     /**
      * Searches for stubs that may be verified by an invocation.
      *
      * <p>
      * The returned list provides all the stubs matching the given mock and
-     * method, from the older to the younger in terms of registration.
+     * method.
      * </p>
      *
      * @param invocation
      *            the checked invocation
      * @return The list of fetched stubs, <code>null</code> if not found.
      */
-    protected List<Stub> search(Invocation invocation) {
-        HashMap<Method, List<Stub>> methodMap = map.get(invocation.getMock());
-        if (methodMap != null) {
-            return methodMap.get(invocation.getMethod());
-        } else {
-            return null;
-        }
+    protected StubList search(Invocation invocation) {
+        Mock mock = invocation.getMock();
+        Method method = invocation.getMethod();
+        Entry entry = find(table, hash(mock, method), mock, method);
+        return (entry == null) ? null : entry.stubs;
     }
 
     /**
-     * Creates and registers a new map for a given mock.
+     * Publishes a new entry, growing the table if needed.
      *
-     * @param mock
-     *            the mock
-     * @return The created map.
+     * @param entry
+     *            the new entry
      */
-    private HashMap<Method, List<Stub>> createMapForMock(Mock mock) {
-        HashMap<Method, List<Stub>> newMap = new HashMap<Method, List<Stub>>();
-        map.put(mock, newMap);
-        return newMap;
+    private void addEntry(Entry entry) {
+        Entry[] entries = table;
+        // Keep the load factor under 1/2 to guarantee short probes.
+        int newLength = (entryCount + 1) * 2 > entries.length ? entries.length * 2 : entries.length;
+        Entry[] newEntries = new Entry[newLength];
+        for (Entry existing : entries) {
+            if (existing != null) {
+                insert(newEntries, existing);
+            }
+        }
+        insert(newEntries, entry);
+        entryCount++;
+        table = newEntries;
     }
 
     /**
@@ -71,25 +193,24 @@ class StubMap {
      * @param stub
      *            the registered stub
      */
-    protected void register(Stub stub) {
-        HashMap<Method, List<Stub>> methodMap = map.get(stub.getProxy());
-        if (methodMap == null) {
-            methodMap = createMapForMock(stub.getProxy());
-        }
-
-        List<Stub> stubList = methodMap.get(stub.getMethod());
-        if (stubList == null) {
-            stubList = new ArrayList<Stub>();
-            methodMap.put(stub.getMethod(), stubList);
+    protected synchronized void register(Stub stub) {
+        Mock mock = stub.getProxy();
+        Method method = stub.getMethod();
+        int hash = hash(mock, method);
+        Entry entry = find(table, hash, mock, method);
+        if (entry == null) {
+            addEntry(new Entry(hash, stub));
+        } else {
+            entry.stubs.add(stub);
         }
 
-        stubList.add(stub);
+        mockList.add(mock);
     }
 
     /**
      * @return The list of mocks to which a stub was mapped.
      */
     protected Set<Mock> getMockList() {
-        return map.keySet();
+        return mockList;
     }
 }
@@ -7,8 +7,6 @@
  * ************************************************************************** */
 package com.vmware.lmock.impl;
 
-import java.util.List;
-
 /**
  * Internal invocation handler trying to stub an invocation.
  *
@@ -22,6 +20,11 @@ import java.util.List;
  * Notice that if several known stubs match a given invocation, the most
  * recently declared one prevails.
  * </p>
+ *
+ * <p>
+ * The result of a stub with a call limit is enforced by the limit when
+ * applied, outside of the processing of the story.
+ * </p>
  */
 class StubProcessor {
     /** Logs the stub processor activity. */
@@ -51,30 +54,6 @@ class StubProcessor {
         stubMap.register(stub);
     }
 
-    /**
-     * Parses a list of stubs to fetch a given invocation.
-     *
-     * @param stubs
-     *            the list of stubs to parse
-     * @param invocation
-     *            the checked invocation
-     * @return The fetched stub, if found, null otherwise.
-     */
-    private Stub searchStubForInvocation(List<Stub> stubs, Invocation invocation) {
-        logger.trace("searchStubForInvocation", "stubs=", stubs, "invocation=", invocation);
-        // Give the priority to the younger stubs.
-        for (int index = stubs.size() - 1; index >= 0; index--) {
-            Stub stub = stubs.get(index);
-            logger.trace("searchStubForInvocation", "checking stub", stub, "against invocation", invocation);
-            if (stub.valueIsCompatibleWith(invocation)) {
-                logger.trace("searchStubForInvocation", "stub matches");
-                return stub;
-            }
-        }
-
-        return null;
-    }
-
     /**
      * Tries to stub the invocation of a mock.
      *
@@ -95,10 +74,10 @@ class StubProcessor {
         // a scenario, in which case we will not enter this piece of code, or
         // it is related to a stub, in which case the stub is already
         // registered.
-        List<Stub> stubs = stubMap.search(invocation);
+        StubList stubs = stubMap.search(invocation);
         if (stubs != null) {
             logger.trace("invoke", "found stubs", stubs);
-            Stub stub = searchStubForInvocation(stubs, invocation);
+            Stub stub = stubs.search(invocation);
             if (stub != null) {
                 return stub.getInvocationResult();
             } else {
@@ -8,7 +8,9 @@
 package com.vmware.lmock.impl;
 
 import com.vmware.lmock.clauses.HasArgumentSpecificationClauses;
+import com.vmware.lmock.clauses.HasCallLimitSpecificationClauses;
 import com.vmware.lmock.clauses.HasInvocationResultSpecificationClauses;
+import com.vmware.lmock.clauses.HasLatencySpecificationClauses;
 import com.vmware.lmock.clauses.HasStubSpecificationClauses;
 
 /**
@@ -55,7 +57,9 @@ import com.vmware.lmock.clauses.HasStubSpecificationClauses;
  */
 public class Stubs extends StubListBuilder implements
   HasStubSpecificationClauses, HasArgumentSpecificationClauses,
-  HasInvocationResultSpecificationClauses<Stub> {
+  HasInvocationResultSpecificationClauses<Stub>,
+  HasLatencySpecificationClauses<Stub>,
+  HasCallLimitSpecificationClauses<Stub> {
     /**
      * Basic setup when creating a new scenario.
      */
@@ -103,4 +107,14 @@ public class Stubs extends StubListBuilder implements
 
         return stub().willDelegateTo(provider);
     }
+
+    @Override
+    public Stub willTakeTime(Latency latency) {
+        return stub().willTakeTime(latency);
+    }
+
+    @Override
+    public Stub willAccept(CallLimit limit) {
+        return stub().willAccept(limit);
+    }
 }
@@ -0,0 +1,63 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The latency clock following the system time.
+ *
+ * <p>
+ * The scheduled tasks are run by a timer wheel, created on first use.
+ * </p>
+ */
+final class SystemLatencyClock extends LatencyClock {
+    /** The single instance of the system clock. */
+    static final SystemLatencyClock instance = new SystemLatencyClock();
+    /**
+     * Below this delay (in nanoseconds), threads yield rather than park, since
+     * parking is not that precise.
+     */
+    private static final long YIELD_THRESHOLD = 50000;
+
+    /** Holds the timer wheel, so that it is created on first use. */
+    private static final class TimerWheelHolder {
+        /** The timer wheel of the system clock. */
+        static final TimerWheel timerWheel = new TimerWheel();
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void parkUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            if (remaining > YIELD_THRESHOLD) {
+                LockSupport.parkNanos(this, remaining - YIELD_THRESHOLD);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    @Override
+    public void schedule(long deadline, Runnable task) {
+        TimerWheelHolder.timerWheel.schedule(deadline, task);
+    }
+
+    @Override
+    public String toString() {
+        return "system";
+    }
+}
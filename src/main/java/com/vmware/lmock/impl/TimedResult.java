@@ -0,0 +1,27 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+/**
+ * An invocation result whose application depends on a latency clock.
+ *
+ * <p>
+ * The dispatcher of a story makes such results use the clock of the story
+ * (see <code>Story.withLatencyClock</code>).
+ * </p>
+ */
+interface TimedResult extends InvocationResultProvider {
+    /**
+     * Measures the time with another clock.
+     *
+     * @param clock
+     *            the clock
+     * @return A result using the specified clock.
+     */
+    TimedResult on(LatencyClock clock);
+}
@@ -0,0 +1,240 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed wheel timer, running scheduled tasks from a single thread.
+ *
+ * <p>
+ * The wheel is divided in buckets, each one covering one tick of time. A task
+ * lands in the bucket of its deadline, with the number of rounds of the wheel
+ * to wait before running. Scheduling a task is a lock free insertion in a
+ * queue of pending tasks, which the timer thread moves to the buckets at each
+ * tick. Any number of tasks can thus wait without holding a thread each.
+ * </p>
+ * <p>
+ * The tasks run up to one tick after their deadline. The timer thread sleeps
+ * while no task is scheduled.
+ * </p>
+ * <p>
+ * The timer thread is started by the first thread scheduling a task, usually
+ * a test thread. It does not inherit the thread locals of that thread (such as
+ * its story context or its masquerade), so that it does not retain them and
+ * that the tasks it runs do not report errors to the story of that thread.
+ * Before Java 9, the threads always inherit: the timer thread then only forgets
+ * the story context.
+ * </p>
+ */
+final class TimerWheel {
+    /** Logs the timer activity. */
+    private static final Logger logger = Logger.get(TimerWheel.class);
+    /** Duration of a tick, in nanoseconds. */
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(1);
+    /** Number of buckets of the wheel, a power of 2. */
+    private static final int WHEEL_SIZE = 512;
+    /**
+     * Creates a thread not inheriting the thread locals of the current thread,
+     * null if not supported.
+     */
+    private static final MethodHandle newDetachedThreadMethod = getNewDetachedThreadMethod();
+
+    /**
+     * @return The constructor of threads not inheriting the thread locals,
+     *         available since Java 9, null if not found.
+     */
+    private static MethodHandle getNewDetachedThreadMethod() {
+        try {
+            return MethodHandles.publicLookup().findConstructor(Thread.class,
+              MethodType.methodType(void.class, ThreadGroup.class, Runnable.class, String.class,
+              long.class, boolean.class));
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a thread not inheriting the thread locals of the current thread,
+     * if supported.
+     *
+     * @param runnable
+     *            the code of the thread
+     * @param name
+     *            the name of the thread
+     * @return The new thread.
+     */
+    private static Thread newDetachedThread(Runnable runnable, String name) {
+        if (newDetachedThreadMethod != null) {
+            try {
+                return (Thread) newDetachedThreadMethod.invokeExact((ThreadGroup) null, runnable, name,
+                  0L, false);
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                // Fall back on a regular thread.
+            }
+        }
+        return new Thread(runnable, name);
+    }
+
+    /**
+     * A task waiting in the wheel.
+     */
+    private static final class Timeout {
+        /** The deadline of the task, in nanoseconds. */
+        private final long deadline;
+        /** The scheduled task. */
+        private final Runnable task;
+        /** Number of rounds of the wheel before the task runs. */
+        private long remainingRounds;
+
+        /**
+         * Creates a new timeout.
+         *
+         * @param deadline
+         *            the deadline of the task
+         * @param task
+         *            the scheduled task
+         */
+        Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+    }
+    /** The buckets of the wheel, only accessed by the timer thread. */
+    private final List<List<Timeout>> wheel = new ArrayList<List<Timeout>>(WHEEL_SIZE);
+    /** The tasks scheduled since the last tick. */
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    /** Number of scheduled tasks that did not run yet. */
+    private final AtomicInteger timeoutCount = new AtomicInteger();
+    /** Origin of the ticks. */
+    private final long startTime = System.nanoTime();
+    /** The timer thread. */
+    private final Thread worker;
+
+    /**
+     * Creates a new timer and starts its thread.
+     */
+    TimerWheel() {
+        for (int index = 0; index < WHEEL_SIZE; index++) {
+            wheel.add(new LinkedList<Timeout>());
+        }
+        worker = newDetachedThread(new Runnable() {
+            public void run() {
+                runTicks();
+            }
+        }, "lmock-timer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Runs a task at a given deadline.
+     *
+     * @param deadline
+     *            the deadline, as given by <code>System.nanoTime</code>
+     * @param task
+     *            the scheduled task
+     */
+    void schedule(long deadline, Runnable task) {
+        pendingTimeouts.add(new Timeout(deadline, task));
+        if (timeoutCount.incrementAndGet() == 1) {
+            // The timer may be sleeping.
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**
+     * @param time
+     *            a time, as given by <code>System.nanoTime</code>
+     * @return The tick including the specified time.
+     */
+    private long tickOf(long time) {
+        return (time - startTime) / TICK;
+    }
+
+    /**
+     * Moves the pending tasks to the buckets of their deadline.
+     *
+     * @param tick
+     *            the current tick
+     */
+    private void transferPendingTimeouts(long tick) {
+        Timeout timeout;
+        while ((timeout = pendingTimeouts.poll()) != null) {
+            long deadlineTick = Math.max(tickOf(timeout.deadline), tick);
+            timeout.remainingRounds = (deadlineTick - tick) / WHEEL_SIZE;
+            wheel.get((int) (deadlineTick & (WHEEL_SIZE - 1))).add(timeout);
+        }
+    }
+
+    /**
+     * Runs the tasks of a bucket that reached their last round.
+     *
+     * @param tick
+     *            the current tick
+     */
+    private void expireTimeouts(long tick) {
+        Iterator<Timeout> iterator = wheel.get((int) (tick & (WHEEL_SIZE - 1))).iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else {
+                iterator.remove();
+                timeoutCount.decrementAndGet();
+                try {
+                    timeout.task.run();
+                } catch (Throwable e) {
+                    logger.trace("expireTimeouts", "task", timeout.task, "failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The loop of the timer thread.
+     */
+    private void runTicks() {
+        // In case of the thread inherited the context anyway.
+        StoryContext.detach();
+        long tick = tickOf(System.nanoTime());
+        while (true) {
+            if (timeoutCount.get() == 0) {
+                LockSupport.park(this);
+                // Do not try to catch up with the ticks elapsed while
+                // sleeping: no task was waiting for them.
+                tick = Math.max(tick, tickOf(System.nanoTime()));
+                continue;
+            }
+
+            long tickEnd = startTime + (tick + 1) * TICK;
+            long remaining;
+            while ((remaining = tickEnd - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            transferPendingTimeouts(tick);
+            expireTimeouts(tick);
+            tick++;
+        }
+    }
+}
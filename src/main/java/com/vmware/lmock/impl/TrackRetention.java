@@ -0,0 +1,92 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+/**
+ * Defines how much of a story is kept in the story track.
+ *
+ * <p>
+ * By default, the track keeps a report for every expectation reached by a
+ * story, and every switch between the threads invoking an expectation
+ * (<code>UNBOUNDED</code>). Long running stories may rather keep the latest
+ * reports and the latest thread switches, while the older ones are only
+ * counted:
+ * </p>
+ *
+ * <pre>
+ * <code>
+ *     Story.create(...).withTrackRetention(TrackRetention.keepLast(100, 16));
+ * </code>
+ * </pre>
+ */
+public final class TrackRetention {
+    /** Keeps the whole story. */
+    public static final TrackRetention UNBOUNDED = new TrackRetention(0, 0);
+    /** Maximum number of expectation reports, 0 if unbounded. */
+    private final int maxReports;
+    /**
+     * Maximum number of runs of consecutive invocations per thread in a
+     * report, 0 if unbounded.
+     */
+    private final int maxRunsPerThread;
+
+    /**
+     * Creates a new retention policy.
+     *
+     * @param maxReports
+     *            the maximum number of expectation reports
+     * @param maxRunsPerThread
+     *            the maximum number of runs per thread
+     */
+    private TrackRetention(int maxReports, int maxRunsPerThread) {
+        this.maxReports = maxReports;
+        this.maxRunsPerThread = maxRunsPerThread;
+    }
+
+    /**
+     * Creates a policy keeping the latest events of a story.
+     *
+     * @param maxReports
+     *            the number of most recent expectation reports kept
+     * @param maxRunsPerThread
+     *            the number of most recent runs of consecutive invocations
+     *            kept per thread in each report
+     * @return The new policy.
+     * @throws IllegalArgumentException
+     *             One of the limits is not strictly positive.
+     */
+    public static TrackRetention keepLast(int maxReports, int maxRunsPerThread) {
+        if (maxReports <= 0 || maxRunsPerThread <= 0) {
+            throw new IllegalArgumentException("invalid retention: " + maxReports + " reports, "
+              + maxRunsPerThread + " runs per thread");
+        }
+        return new TrackRetention(maxReports, maxRunsPerThread);
+    }
+
+    /** @return The maximum number of expectation reports, 0 if unbounded. */
+    int getMaxReports() {
+        return maxReports;
+    }
+
+    /**
+     * @return The maximum number of runs per thread in a report, 0 if
+     *         unbounded.
+     */
+    int getMaxRunsPerThread() {
+        return maxRunsPerThread;
+    }
+
+    @Override
+    public String toString() {
+        if (maxReports == 0) {
+            return "unbounded";
+        } else {
+            return "last " + maxReports + " reports, " + maxRunsPerThread + " runs per thread";
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A latency clock driven by the test.
+ *
+ * <p>
+ * The time of a virtual clock only moves when the test calls
+ * <code>advance</code>. The delayed invocations end as soon as the time
+ * reaches their deadline, whatever the actual time it took:
+ * </p>
+ *
+ * <pre>
+ * <code>
+ *     VirtualClock clock = new VirtualClock();
+ *     Story story = Story.create(scenario).withLatencyClock(clock);
+ *     story.begin();
+ *     CompletableFuture&lt;String&gt; result = service.fetch("key");
+ *     clock.advance(1, TimeUnit.SECONDS);
+ *     ...
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * The scheduled tasks are run by the thread advancing the clock, in the order
+ * of their deadlines.
+ * </p>
+ */
+public final class VirtualClock extends LatencyClock {
+    /**
+     * A task waiting for the clock.
+     */
+    private static final class ScheduledTask implements Comparable<ScheduledTask> {
+        /** The deadline of the task. */
+        private final long deadline;
+        /** Orders the tasks of the same deadline. */
+        private final long sequence;
+        /** The scheduled task. */
+        private final Runnable task;
+
+        /**
+         * Creates a new scheduled task.
+         *
+         * @param deadline
+         *            the deadline of the task
+         * @param sequence
+         *            the order of scheduling of the task
+         * @param task
+         *            the scheduled task
+         */
+        ScheduledTask(long deadline, long sequence, Runnable task) {
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        public int compareTo(ScheduledTask other) {
+            if (deadline != other.deadline) {
+                return (deadline < other.deadline) ? -1 : 1;
+            } else if (sequence != other.sequence) {
+                return (sequence < other.sequence) ? -1 : 1;
+            } else {
+                return 0;
+            }
+        }
+    }
+    /** Protects the state of the clock. */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Signaled whenever the clock advances. */
+    private final Condition advanced = lock.newCondition();
+    /** The tasks waiting for the clock. */
+    private final PriorityQueue<ScheduledTask> tasks = new PriorityQueue<ScheduledTask>();
+    /** The current time. */
+    private long now;
+    /** Counts the scheduled tasks, ordering the ones of the same deadline. */
+    private long sequence;
+    /** Number of threads waiting for the clock. */
+    private int parkedThreadCount;
+
+    @Override
+    public long nanoTime() {
+        lock.lock();
+        try {
+            return now;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void parkUntil(long deadline) {
+        lock.lock();
+        try {
+            parkedThreadCount++;
+            while (now < deadline) {
+                advanced.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            parkedThreadCount--;
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void schedule(long deadline, Runnable task) {
+        lock.lock();
+        try {
+            if (deadline > now) {
+                tasks.add(new ScheduledTask(deadline, sequence++, task));
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        task.run();
+    }
+
+    /**
+     * Moves the time forward.
+     *
+     * <p>
+     * Wakes up the threads whose deadline is reached and runs the tasks
+     * scheduled up to the new time.
+     * </p>
+     *
+     * @param amount
+     *            the elapsed time
+     * @param unit
+     *            the unit of the elapsed time
+     */
+    public void advance(long amount, TimeUnit unit) {
+        List<Runnable> dueTasks = new ArrayList<Runnable>();
+        lock.lock();
+        try {
+            now += unit.toNanos(amount);
+            while (!tasks.isEmpty() && tasks.peek().deadline <= now) {
+                dueTasks.add(tasks.poll().task);
+            }
+            advanced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        for (Runnable task : dueTasks) {
+            task.run();
+        }
+    }
+
+    /**
+     * Counts the invocations waiting for this clock.
+     *
+     * <p>
+     * This allows tests to advance the clock once the invocations under test
+     * are pending.
+     * </p>
+     *
+     * @return The number of parked threads and scheduled tasks.
+     */
+    public int getWaitingCount() {
+        lock.lock();
+        try {
+            return parkedThreadCount + tasks.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "virtual(" + nanoTime() + "ns)";
+    }
+}
@@ -0,0 +1,369 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock.masquerade;
+
+import com.vmware.lmock.checker.Checker;
+import com.vmware.lmock.checker.OccurrenceChecker;
+import com.vmware.lmock.clauses.InnerSchemerFactoryClauses.HasExpectationClauses;
+import com.vmware.lmock.clauses.InnerSchemerFactoryClauses.HasWhenClause;
+import com.vmware.lmock.exception.SchemerException;
+import com.vmware.lmock.impl.InvocationResultProvider;
+import com.vmware.lmock.impl.Scenario;
+import com.vmware.lmock.impl.Stubs;
+import com.vmware.lmock.mt.Actor;
+import static com.vmware.lmock.mt.Actor.anActorForCurrentThread;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The context of execution of a masquerade.
+ *
+ * <p>
+ * A masquerade holds the roles and the story of a test written with the
+ * schemer directives. The static methods of the <code>Schemer</code> operate
+ * on the masquerade bound to the calling thread. Tests may also drive their
+ * own masquerade explicitly:
+ * </p>
+ *
+ * <pre>
+ * <code>
+ *     Masquerade masquerade = new Masquerade();
+ *     masquerade.begin();
+ *     masquerade.willInvoke(1).of(joe).bother();
+ *     ...
+ *     masquerade.end();
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * Masquerades do not share any state, so that independent tests can run
+ * their masquerades in parallel threads.
+ * </p>
+ */
+public final class Masquerade {
+    /** Registers and controls a story on the fly. */
+    private final StoryManager storyManager = new StoryManager();
+    /** The thread that created this masquerade. */
+    private final Thread owner = Thread.currentThread();
+    /** Role associated to the default actor defined by the story manager. */
+    private Role defaultRole;
+    /** List of roles contributing to the masquerade. */
+    private final List<Role> roles = new ArrayList<Role>();
+
+    /** @return The thread that created this masquerade. */
+    Thread getOwner() {
+        return owner;
+    }
+
+    /**
+     * Provides the default role created when beginning the story.
+     *
+     * <p>
+     * If no  such role exists, throws an exception.
+     * </p>
+     *
+     * @return The default role defined for the testing thread.
+     */
+    private Role getDefaultRoleOrThrow() {
+        if (defaultRole != null) {
+            return defaultRole;
+        } else {
+            throw new SchemerException("no story is ongoing now");
+        }
+    }
+
+    /**
+     * Creates a new role for the default actor managed with the story.
+     *
+     * <p>
+     * The resulting role becomes the default role of this masquerade.
+     * </p>
+     */
+    private void createDefaultRoleIfNotYetFound() {
+        if (defaultRole == null) {
+            // Note: we do not explicitly need a story to get the default actor,
+            // since the story was designed to automatically merge this default
+            // actor with any specification like
+            // <code>anActorForCurrentThread</code>.
+            Role role = new Role(anActorForCurrentThread());
+            addAndAllowRole(role);
+            defaultRole = role;
+        }
+    }
+
+    /**
+     * Scans a list of roles, in search of an actor for the testing thread.
+     *
+     * <p>
+     * If such actor is found, the role becomes a default role.
+     * </p>
+     * <p>
+     * Notice that the function does nothing if there's already a default role.
+     * </p>
+     *
+     * @param role
+     *            the inspected role
+     */
+    private void assignDefaultRoleIfMatchingActorFound(Role role) {
+        if (defaultRole == null) {
+            for (Actor actor : role) {
+                if (actor.getChecker().valueIsCompatibleWith(Thread.currentThread())) {
+                    defaultRole = role;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a role to the list of roles and allow it to create directives.
+     *
+     * @param role
+     *            the role
+     */
+    private void addAndAllowRole(Role role) {
+        roles.add(role);
+        role.registerStoryManager(storyManager);
+    }
+
+    /**
+     * Registers a set of roles contributing to the masquerade.
+     *
+     * @param additionalRoles
+     *            the roles
+     */
+    private void registerRoles(Role... additionalRoles) {
+        defaultRole = null;
+        for (Role role : additionalRoles) {
+            addAndAllowRole(role);
+            assignDefaultRoleIfMatchingActorFound(role);
+        }
+        createDefaultRoleIfNotYetFound();
+    }
+
+    /**
+     * Unregisters all the roles contributing to the current masquerade.
+     */
+    private void unregisterRoles() {
+        for (Role role : roles) {
+            role.unregisterStoryManager();
+        }
+        roles.clear();
+        defaultRole = null;
+    }
+
+    /** @return The list of actors implied by the registered roles. */
+    private Actor[] getCurrentActors() {
+        ArrayList<Actor> actorList = new ArrayList<Actor>();
+        for (Role role : roles) {
+            for (Actor actor : role) {
+                actorList.add(actor);
+            }
+        }
+        return actorList.toArray(new Actor[actorList.size()]);
+    }
+
+    /**
+     * Resets the masquerade to begin a new story.
+     *
+     * <p>
+     * By default, the method creates a default role for the current thread
+     * (i.e. the thread executing the test). The user may specify additional
+     * roles to this.
+     * </p>
+     * <p>
+     * Notice that if the list of additional roles includes an actor that
+     * represents the default role, the system considers those two roles as a
+     * single one.
+     * </p>
+     *
+     * @param additionalRoles
+     *            a list of roles participating to the masquerade
+     */
+    public void begin(Role... additionalRoles) {
+        // Be sure that we do not have remaining crumbs
+        unregisterRoles();
+        registerRoles(additionalRoles);
+        storyManager.createAndBeginNewStory(getCurrentActors());
+    }
+
+    /**
+     * Verifies that the ongoing story is complete.
+     */
+    public void end() {
+        unregisterRoles();
+        storyManager.endStory();
+    }
+
+    /**
+     * Includes a scenario into the masquerade.
+     *
+     * @param scenario
+     *            the included scenario
+     */
+    public void append(Scenario scenario) {
+        getDefaultRoleOrThrow().append(scenario);
+    }
+
+    /**
+     * Includes a set of stubs into the masquerade.
+     *
+     * @param stubs
+     *            the included stubs
+     */
+    public void append(Stubs stubs) {
+        getDefaultRoleOrThrow().append(stubs);
+    }
+
+    /**
+     * Declares an expectation.
+     *
+     * @param occurrences
+     *            the expected occurrences of this expectation
+     * @return The object used to specify the different clauses of the
+     *         expectation.
+     */
+    public HasExpectationClauses willInvoke(OccurrenceChecker occurrences) {
+        return getDefaultRoleOrThrow().willInvoke(occurrences);
+    }
+
+    /**
+     * Declares an exact expectation.
+     *
+     * @param n
+     *            the expected number of occurrences
+     * @return The object used to specify the different clauses of the
+     *         expectation.
+     */
+    public HasExpectationClauses willInvoke(int n) {
+        return getDefaultRoleOrThrow().willInvoke(n);
+    }
+
+    /**
+     * Creates a new stub or expectation, specifying the invocation result.
+     *
+     * @param <T>
+     *            type of the returned value
+     * @param result
+     *            the value returned by the mock when invoked
+     * @return The object used to specify the different clauses of the
+     *         expectation or stub.
+     */
+    public <T> HasWhenClause willReturn(T result) {
+        return getDefaultRoleOrThrow().willReturn(result);
+    }
+
+    /**
+     * Creates a new stub or expectation, specifying the invocation result.
+     *
+     * @param <T>
+     *            type of the thrown exception
+     * @param excpt
+     *            the exception thrown by the mock when invoked
+     * @return The object used to specify the different clauses of the
+     *         expectation or stub.
+     */
+    public <T extends Throwable> HasWhenClause willThrow(T excpt) {
+        return getDefaultRoleOrThrow().willThrow(excpt);
+    }
+
+    /**
+     * Creates a new stub or expectation, specifying the invocation result.
+     *
+     * @param provider
+     *            a result provider
+     * @return The object used to specify the different clauses of the
+     *         expectation or stub.
+     */
+    public HasWhenClause willDelegateTo(InvocationResultProvider provider) {
+        return getDefaultRoleOrThrow().willDelegateTo(provider);
+    }
+
+    /**
+     * Creates a new stub or expectation, specifying the invocation result.
+     *
+     * @param result
+     *            the invocation result
+     * @return The object used to specify the different clauses of the
+     *         expectation or stub.
+     */
+    public HasWhenClause will(InvocationResultProvider result) {
+        return getDefaultRoleOrThrow().will(result);
+    }
+
+    /**
+     * Registers any non-null argument of a given class for the expectation
+     * under construction.
+     *
+     * @param <T>
+     *            type of the expected argument
+     * @param clazz
+     *            the expected class of arguments
+     * @return An object of the requested class.
+     */
+    public <T> T aNonNullOf(Class<T> clazz) {
+        return getDefaultRoleOrThrow().aNonNullOf(clazz);
+    }
+
+    /**
+     * Registers any argument of a given class for the expectation under
+     * construction.
+     *
+     * @param <T>
+     *            type of the expected argument
+     * @param clazz
+     *            the expected class of arguments
+     * @return An object of the requested class.
+     */
+    public <T> T anyOf(Class<T> clazz) {
+        return getDefaultRoleOrThrow().anyOf(clazz);
+    }
+
+    /**
+     * Registers an argument for the current expectation under construction.
+     *
+     * @param <T>
+     *            type of the expected argument
+     * @param object
+     *            the registered object
+     * @return An object of the requested class.
+     */
+    public <T> T with(T object) {
+        return getDefaultRoleOrThrow().with(object);
+    }
+
+    /**
+     * Registers an explicit checker to an argument for the current expectation
+     * under construction.
+     *
+     * @param <T>
+     *            type handled by the specified checker
+     * @param checker
+     *            the registered checker
+     * @return An object of the related class of the checker
+     */
+    public <T> T with(Checker<T> checker) {
+        return getDefaultRoleOrThrow().with(checker);
+    }
+
+    /**
+     * Provides the default role of this masquerade, handling the testing
+     * thread.
+     *
+     * <p>
+     * No such role is available until the masquerade begins.
+     * </p>
+     *
+     * @return The default role.
+     * @throws SchemerException
+     *             The masquerade is not ongoing.
+     */
+    public Role defaultRole() {
+        return getDefaultRoleOrThrow();
+    }
+}
@@ -12,25 +12,28 @@ import com.vmware.lmock.checker.OccurrenceChecker;
 import com.vmware.lmock.checker.ThreadChecker;
 import com.vmware.lmock.clauses.InnerSchemerFactoryClauses.HasExpectationClauses;
 import com.vmware.lmock.clauses.InnerSchemerFactoryClauses.HasWhenClause;
-import com.vmware.lmock.exception.SchemerException;
 import com.vmware.lmock.impl.InvocationResultProvider;
 import com.vmware.lmock.impl.Scenario;
 import com.vmware.lmock.impl.Stubs;
-import com.vmware.lmock.mt.Actor;
-import static com.vmware.lmock.mt.Actor.anActorForCurrentThread;
 import static com.vmware.lmock.mt.Actor.anActorForThread;
 import static com.vmware.lmock.mt.Actor.anActorForThreadLike;
 import static com.vmware.lmock.mt.Actor.anActorForAnyThread;
-import java.util.ArrayList;
-import java.util.List;
+import static com.vmware.lmock.mt.Actor.aPooledActorForThreadsLike;
 
 /**
  * Defines the whole test as a masquerade.
  *
  * <p>
- * The schemer is a unique object controlling the construction and execution of
- * masquerades. It allows to create expectations and stubs on the fly while
- * actually following the story.
+ * The schemer controls the construction and execution of masquerades. It
+ * allows to create expectations and stubs on the fly while actually following
+ * the story.
+ * </p>
+ *
+ * <p>
+ * The schemer operates on the masquerade of the calling thread (see
+ * <code>currentMasquerade</code>), so that tests running in parallel threads
+ * do not interfere. A thread beginning a masquerade while sharing the one of
+ * the thread that started it gets its own masquerade.
  * </p>
  *
  * <p>
@@ -64,180 +67,31 @@ import java.util.List;
  * </p>
  */
 public final class Schemer {
-    /** Registers and controls a story on the fly. */
-    private final StoryManager storyManager;
-    /** Role associated to the default actor defined by the story manager. */
-    private Role defaultRole;
-    /** The schemer singleton. */
-    private static final Schemer schemer = new Schemer();
-    /** List of roles contributing to the masquerade. */
-    private List<Role> roles = new ArrayList<Role>();
-
-    /** @return The story manager associated to this schemer. */
-    private StoryManager getStoryManager() {
-        return storyManager;
-    }
-
-    /** @return The list of roles associated to this schemer. */
-    private List<Role> getRoles() {
-        return roles;
-    }
-
-    /**
-     * Assigns an explicit value for the default role managed by this.
-     *
-     * @param role
-     *            the new role value (<code>null</code> to disable that role)
-     */
-    private void setDefaultRoleTo(Role role) {
-        defaultRole = role;
-    }
-
-    /** Sets the default role to <i>unassigned</i>. */
-    private void invalidateDefaultRole() {
-        setDefaultRoleTo(null);
-    }
-
-    /** @return <code>true</code> if the schemer is assigned a default role. */
-    private boolean hasDefaultRole() {
-        return defaultRole != null;
-    }
-
-    /** @return The role object used by this to manage the testing thread. */
-    private Role getDefaultRole() {
-        return defaultRole;
-    }
-
-    /** Creates the schemer. */
-    private Schemer() {
-        storyManager = new StoryManager();
-    }
-
-    /** @return The story manager. */
-    private static StoryManager storyManager() {
-        return schemer.getStoryManager();
-    }
-
-    /** @return The list of roles defined when constructing this. */
-    private static List<Role> roles() {
-        return schemer.getRoles();
-    }
-
-    /**
-     * Provides the default role created when beginning the story.
-     *
-     * <p>
-     * If no  such role exists, throws an exception.
-     * </p>
-     *
-     * @return The default role defined for the testing thread.
-     */
-    private static Role getDefaultRoleOrThrow() {
-        if (schemer.hasDefaultRole()) {
-            return schemer.getDefaultRole();
-        } else {
-            throw new SchemerException("no story is ongoing now");
+    /** The masquerade of each thread. */
+    private static final ThreadLocal<Masquerade> masquerades = new InheritableThreadLocal<Masquerade>() {
+        @Override
+        protected Masquerade initialValue() {
+            return new Masquerade();
         }
-    }
+    };
 
-    /** Cleans the default role object managed by the schemer. */
-    private static void cleanupDefaultRole() {
-        schemer.invalidateDefaultRole();
-    }
-
-    /**
-     * Creates a new role for the default actor managed with the story.
-     *
-     * <p>
-     * The resulting role becomes the <code>getDefaultRoleOrThrow</code> managed by the
-     * schemer.
-     * </p>
-     */
-    private static void createDefaultRoleIfNotYetFound() {
-        if (!schemer.hasDefaultRole()) {
-            // Note: we do not explicitly need a story to get the default actor,
-            // since the story was designed to automatically merge this default
-            // actor with any specification like
-            // <code>anActorForCurrentThread</code>.
-            Role defaultRole = new Role(anActorForCurrentThread());
-            addAndAllowRole(defaultRole);
-            schemer.setDefaultRoleTo(defaultRole);
-        }
+    /** The schemer only has static methods. */
+    private Schemer() {
     }
 
     /**
-     * Scans a list of roles, in search of an actor for the testing thread.
+     * Provides the masquerade bound to the current thread.
      *
      * <p>
-     * If such actor is found, the role becomes a default role.
-     * </p>
-     * <p>
-     * Notice that the function does nothing if there's already a default role.
+     * Each thread controlling a test has its own masquerade. The threads
+     * started by that thread share it, so that they can contribute to the
+     * directives of the test.
      * </p>
      *
-     * @param role
-     *            the inspected role
-     */
-    private static void assignDefaultRoleIfMatchingActorFound(Role role) {
-        if (!schemer.hasDefaultRole()) {
-            for (Actor actor : role) {
-                if (actor.getChecker().valueIsCompatibleWith(Thread.currentThread())) {
-                    schemer.setDefaultRoleTo(role);
-                    return;
-                }
-            }
-        }
-    }
-
-    /**
-     * Adds a role to the list of roles and allow it to create directives.
-     *
-     * @param role
-     *            the role
-     */
-    private static void addAndAllowRole(Role role) {
-        roles().add(role);
-        role.registerStoryManager(storyManager());
-    }
-
-    /**
-     * Registers a set of roles contributing to the masquerade.
-     *
-     * @param additionalRoles
-     *            the roles
+     * @return The masquerade of the current thread.
      */
-    private static void registerRoles(Role... additionalRoles) {
-        cleanupDefaultRole();
-        for (Role role : additionalRoles) {
-            addAndAllowRole(role);
-            assignDefaultRoleIfMatchingActorFound(role);
-        }
-        createDefaultRoleIfNotYetFound();
-    }
-
-    /**
-     * Unregisters all the roles contributing to the current masquerade.
-     */
-    private static void unregisterRoles() {
-        for (Role role : roles()) {
-            role.unregisterStoryManager();
-        }
-        roles().clear();
-        cleanupDefaultRole();
-    }
-
-    /** @return The list of actors implied by the registered roles. */
-    private static Actor[] getCurrentActors() {
-        int numberOfActors = 0;
-        ArrayList<Actor> actorList = new ArrayList<Actor>();
-        for (Role role : roles()) {
-            for (Actor actor : role) {
-                actorList.add(actor);
-                numberOfActors++;
-            }
-        }
-        Actor[] result = new Actor[numberOfActors];
-        return actorList.toArray(result);
+    public static Masquerade currentMasquerade() {
+        return masquerades.get();
     }
 
     /**
@@ -258,21 +112,21 @@ public final class Schemer {
      *            a list of roles participating to the masquerade
      */
     public static void begin(Role... additionalRoles) {
-        // Be sure that we do not have remaining crumbs
-        unregisterRoles();
-        registerRoles(additionalRoles);
-        storyManager().createAndBeginNewStory(getCurrentActors());
-        // Implicitly, we now have a default actor for the thread controlling the
-        // test... We don't need to create a role for it, since the user does
-        // not see it explicitly.
+        Masquerade masquerade = masquerades.get();
+        if (masquerade.getOwner() != Thread.currentThread()) {
+            // The masquerade was inherited from another thread: this one
+            // controls its own test.
+            masquerade = new Masquerade();
+            masquerades.set(masquerade);
+        }
+        masquerade.begin(additionalRoles);
     }
 
     /**
      * Verifies that the ongoing story is complete.
      */
     public static void end() {
-        unregisterRoles();
-        storyManager().endStory();
+        currentMasquerade().end();
     }
 
     /**
@@ -282,7 +136,7 @@ public final class Schemer {
      *            the included scenario
      */
     public static void append(Scenario scenario) {
-        getDefaultRoleOrThrow().append(scenario);
+        currentMasquerade().append(scenario);
     }
 
     /**
@@ -292,7 +146,7 @@ public final class Schemer {
      *            the included stubs
      */
     public static void append(Stubs stubs) {
-        getDefaultRoleOrThrow().append(stubs);
+        currentMasquerade().append(stubs);
     }
 
     /**
@@ -309,7 +163,7 @@ public final class Schemer {
      *         expectation.
      */
     public static HasExpectationClauses willInvoke(OccurrenceChecker occurrences) {
-        return getDefaultRoleOrThrow().willInvoke(occurrences);
+        return currentMasquerade().willInvoke(occurrences);
     }
 
     /**
@@ -326,7 +180,7 @@ public final class Schemer {
      *         expectation.
      */
     public static HasExpectationClauses willInvoke(int n) {
-        return getDefaultRoleOrThrow().willInvoke(n);
+        return currentMasquerade().willInvoke(n);
     }
 
     /**
@@ -340,7 +194,7 @@ public final class Schemer {
      *         expectation or stub.
      */
     public static <T> HasWhenClause willReturn(T result) {
-        return getDefaultRoleOrThrow().willReturn(result);
+        return currentMasquerade().willReturn(result);
     }
 
     /**
@@ -354,7 +208,7 @@ public final class Schemer {
      *         expectation or stub.
      */
     public static <T extends Throwable> HasWhenClause willThrow(T excpt) {
-        return getDefaultRoleOrThrow().willThrow(excpt);
+        return currentMasquerade().willThrow(excpt);
     }
 
     /**
@@ -366,7 +220,7 @@ public final class Schemer {
      *         expectation or stub.
      */
     public static HasWhenClause willDelegateTo(InvocationResultProvider provider) {
-        return getDefaultRoleOrThrow().willDelegateTo(provider);
+        return currentMasquerade().willDelegateTo(provider);
     }
 
     /**
@@ -378,7 +232,7 @@ public final class Schemer {
      *         expectation or stub.
      */
     public static HasWhenClause will(InvocationResultProvider result) {
-        return getDefaultRoleOrThrow().will(result);
+        return currentMasquerade().will(result);
     }
 
     /**
@@ -392,7 +246,7 @@ public final class Schemer {
      * @return An object of the requested class.
      */
     public static <T> T aNonNullOf(Class<T> clazz) {
-        return getDefaultRoleOrThrow().aNonNullOf(clazz);
+        return currentMasquerade().aNonNullOf(clazz);
     }
 
     /**
@@ -406,7 +260,7 @@ public final class Schemer {
      * @return An object of the requested class.
      */
     public static <T> T anyOf(Class<T> clazz) {
-        return getDefaultRoleOrThrow().anyOf(clazz);
+        return currentMasquerade().anyOf(clazz);
     }
 
     /**
@@ -423,7 +277,7 @@ public final class Schemer {
      * @return An object of the requested class.
      */
     public static <T> T with(T object) {
-        return getDefaultRoleOrThrow().with(object);
+        return currentMasquerade().with(object);
     }
 
     /**
@@ -437,7 +291,7 @@ public final class Schemer {
      * @return An object of the related class of the checker
      */
     public static <T> T with(Checker<T> checker) {
-        return getDefaultRoleOrThrow().with(checker);
+        return currentMasquerade().with(checker);
     }
 
     /**
@@ -470,6 +324,21 @@ public final class Schemer {
         return new Role(anActorForThreadLike(checker));
     }
 
+    /**
+     * Common construction pattern for roles.
+     *
+     * <p>
+     * Creates a role played by all the threads identified by a given matcher, such as the workers of a pool.
+     * </p>
+     *
+     * @param checker
+     *            the checker identifying the threads
+     * @return The new role.
+     */
+    public static Role aRoleForAPoolOfThreadsLike(ThreadChecker checker) {
+        return new Role(aPooledActorForThreadsLike(checker));
+    }
+
     /**
      * Common construction pattern for roles.
      *
@@ -494,6 +363,6 @@ public final class Schemer {
      * @return The default role.
      */
     public static Role defaultRole() {
-        return getDefaultRoleOrThrow();
+        return currentMasquerade().defaultRole();
     }
 }
@@ -16,13 +16,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Inspect and control the activity of a thread.
  *
  * <p>
  * An actor is representing one execution flow under test by the mock system.
- * It is executed (associated to) one (and only one) thread.
+ * It is executed (associated to) one (and only one) thread, unless it is a
+ * pooled actor, executed by any number of threads.
  * </p>
  * <p>
  * An actor is specified the thread that will run it, using one of the following factory methods:
@@ -34,6 +37,9 @@ import java.util.List;
  * current thread</li>
  * <li><code>anActorForThreadLike</code>: the actor is assigned to an unknown
  * thread, matching a specified thread checker</li>
+ * <li><code>aPooledActorForThreadsLike</code>: the actor is assigned to every
+ * thread matching a specified thread checker, such as the workers of an
+ * executor</li>
  * </ul>
  *
  * <p>
@@ -53,34 +59,42 @@ import java.util.List;
  */
 public final class Actor implements HasActorClauses, ThreadMatcherNotificationHandler {
     /** Automatically incremented for each new actor, to assign a unique id. */
-    private static long uidCount = 0L;
+    private static final AtomicLong uidCount = new AtomicLong();
     /** A unique actor id, to have a comprehensive name. */
     private final long uid;
     private Scenario scenario = new Scenario();
     private List<Stubs> stubsList = new ArrayList<Stubs>();
     private final ThreadChecker checker;
+    /** Set if the actor is executed by any number of threads. */
+    private final boolean pooled;
+    /** Number of threads associated to this actor. */
+    private final AtomicInteger threadCount = new AtomicInteger();
     /** List of notification requests when updating the actor. */
     private final List<ActorUpdateNotification> notifications = new ArrayList<ActorUpdateNotification>();
     /**
      * The thread associated to this actor (<code>null</code> if no association
-     * occurred).
+     * occurred), the latest one for a pooled actor.
      */
-    private Thread thread;
+    private volatile Thread thread;
     /**
      * Mock exception reported by the associated thread (<code>null</code> if
      * none.
      */
-    private Throwable lastException;
+    private volatile Throwable lastException;
 
     /**
      * Creates a new actor.
      *
      * @param checker
      *            the checker used to identify the thread
+     * @param pooled
+     *            <code>true</code> if the actor is executed by any number of
+     *            threads
      */
-    private Actor(ThreadChecker checker) {
-        uid = uidCount++;
+    private Actor(ThreadChecker checker, boolean pooled) {
+        uid = uidCount.getAndIncrement();
         this.checker = checker;
+        this.pooled = pooled;
     }
 
     /**
@@ -103,7 +117,7 @@ public final class Actor implements HasActorClauses, ThreadMatcherNotificationHa
      * @return The new actor.
      */
     public static Actor anActorForThread(Thread thread) {
-        return new Actor(equalTo(thread));
+        return new Actor(equalTo(thread), false);
     }
 
     /**
@@ -134,7 +148,24 @@ public final class Actor implements HasActorClauses, ThreadMatcherNotificationHa
      * @return The new actor.
      */
     public static Actor anActorForThreadLike(ThreadChecker checker) {
-        return new Actor(checker);
+        return new Actor(checker, false);
+    }
+
+    /**
+     * Creates an actor run by all the threads matching a given checker.
+     *
+     * <p>
+     * This method fits the threads of a pool, which play the same part of the
+     * story: every thread matching the checker is assigned to this actor, so
+     * that all of them follow the same scenario and use the same stubs.
+     * </p>
+     *
+     * @param checker
+     *            the thread checker providing the requested thread properties
+     * @return The new actor.
+     */
+    public static Actor aPooledActorForThreadsLike(ThreadChecker checker) {
+        return new Actor(checker, true);
     }
 
     /**
@@ -192,9 +223,20 @@ public final class Actor implements HasActorClauses, ThreadMatcherNotificationHa
         };
     }
 
+    /** @return <code>true</code> if the actor is run by any number of threads. */
+    public boolean isPooled() {
+        return pooled;
+    }
+
     @Override
     public void onMatchingThread(Thread thread) {
         this.thread = thread;
+        threadCount.incrementAndGet();
+    }
+
+    /** @return The number of threads associated to this actor. */
+    public int getThreadCount() {
+        return threadCount.get();
     }
 
     /**
@@ -217,7 +259,10 @@ public final class Actor implements HasActorClauses, ThreadMatcherNotificationHa
         return thread != null;
     }
 
-    /** @return <code>true</code> if the thread is present and active. */
+    /**
+     * @return <code>true</code> if the thread is present and active (the
+     *         latest thread for a pooled actor).
+     */
     public boolean assertIsAlive() {
         return assertIsPresent() && thread.isAlive();
     }
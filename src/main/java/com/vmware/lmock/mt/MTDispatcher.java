@@ -9,6 +9,8 @@ package com.vmware.lmock.mt;
 
 import com.vmware.lmock.checker.ThreadChecker;
 import com.vmware.lmock.exception.ThreadNotFoundException;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Dispatches data to threads.
@@ -21,7 +23,8 @@ import com.vmware.lmock.exception.ThreadNotFoundException;
  * During the population phase, the user provides thread specific information,
  * along with a checker that allows to identify the corresponding thread at
  * runtime. An association checker/data is maintained for one and only one
- * thread.
+ * thread, unless the checker is registered for a pool of threads (see
+ * <code>registerPool</code>).
  * </p>
  * <p>
  * During the dispatching phase, the dispatcher is requested to fetch the
@@ -30,15 +33,70 @@ import com.vmware.lmock.exception.ThreadNotFoundException;
  * to match the thread with one of the checker defined during the population
  * phase.
  * </p>
+ * <p>
+ * The dispatcher relies on explicit locks rather than monitors, so that the
+ * threads waiting for a lock do not pin their carrier when they are virtual
+ * threads. The threads that terminated are eventually forgotten, so that a
+ * dispatcher serving many short-lived threads keeps a bounded footprint.
+ * </p>
  *
  * @param <T>
  *            the type of data associated to threads
  */
 public class MTDispatcher<T> {
+    /**
+     * Association of a thread with its data, cached by the thread itself.
+     *
+     * <p>
+     * The dispatcher and the data are weakly referenced, so that a thread
+     * never retains a dispatcher it no longer uses, nor the data it was
+     * associated with.
+     * </p>
+     */
+    private static final class CachedData extends WeakReference<MTDispatcher<?>> {
+        /** Generation of the dispatcher when the association was made. */
+        private final int generation;
+        /** The data associated to the thread. */
+        private final WeakReference<Object> data;
+
+        /**
+         * Creates a new cached association.
+         *
+         * @param owner
+         *            the dispatcher that made the association
+         * @param generation
+         *            the current generation of the dispatcher
+         * @param data
+         *            the data associated to the thread
+         */
+        CachedData(MTDispatcher<?> owner, int generation, Object data) {
+            super(owner);
+            this.generation = generation;
+            this.data = new WeakReference<Object>(data);
+        }
+    }
+
+    /**
+     * Per-thread cache of the data associated to the threads.
+     *
+     * <p>
+     * Allows a thread already known by a dispatcher to fetch its data without
+     * any lock nor lookup in the list of known threads. Each thread has a
+     * single association, replaced by the successive dispatchers.
+     * </p>
+     */
+    private static final ThreadLocal<CachedData> cachedData = new ThreadLocal<CachedData>();
+    /** Protects the registration and the matching of threads. */
+    private final ReentrantLock lock = new ReentrantLock();
     /** The list of registered (known) thread. */
     private final ThreadList<T> knownThreads = new ThreadList<T>();
     /** The list of checkers. */
     private final ThreadMatcher<T> matcher = new ThreadMatcher<T>();
+    /**
+     * Incremented each time the cached associations must be dropped, so that
+     * a cached association is valid if and only if it has the same generation.
+     */
+    private volatile int generation = 0;
 
     /**
      * Registers a checker for a given thread, along with data.
@@ -51,9 +109,40 @@ public class MTDispatcher<T> {
      *            if not <code>null</code>, called when a matching thread is
      *            found.
      */
-    public synchronized void register(ThreadChecker checker, T data,
+    public void register(ThreadChecker checker, T data,
       ThreadMatcherNotificationHandler callback) {
-        matcher.registerNewChecker(checker, data, callback);
+        lock.lock();
+        try {
+            matcher.registerNewChecker(checker, data, callback);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers a checker for a pool of threads, along with data.
+     *
+     * <p>
+     * Unlike <code>register</code>, the checker associates every thread it
+     * recognizes with the data, whatever the number of such threads.
+     * </p>
+     *
+     * @param checker
+     *            the registered thread checker
+     * @param data
+     *            the data shared by the threads of the pool
+     * @param callback
+     *            if not <code>null</code>, called each time a matching thread
+     *            is found.
+     */
+    public void registerPool(ThreadChecker checker, T data,
+      ThreadMatcherNotificationHandler callback) {
+        lock.lock();
+        try {
+            matcher.registerNewPoolChecker(checker, data, callback);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -94,15 +183,52 @@ public class MTDispatcher<T> {
      * @param data
      *            the sequence of associated data
      */
-    public synchronized void registerSequence(T... data) {
-        for (T currentData : data) {
-            register(ThreadChecker.anyThread, currentData, null);
+    public void registerSequence(T... data) {
+        lock.lock();
+        try {
+            for (T currentData : data) {
+                register(ThreadChecker.anyThread, currentData, null);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Associates a thread that is not known yet with data.
+     *
+     * <p>
+     * The list of known threads is checked again under the lock, in case of
+     * another invocation from the same thread was faster.
+     * </p>
+     *
+     * @param thread
+     *            the requested thread
+     * @return The thread data, always valid.
+     * @throws ThreadNotFoundException
+     *            The current thread is unknown by the system.
+     */
+    private T matchThreadData(Thread thread) {
+        lock.lock();
+        try {
+            T data = knownThreads.getData(thread);
+            if (data == null) {
+                data = matcher.searchDataForThread(thread);
+                knownThreads.addOrUpdate(thread, data);
+            }
+            return data;
+        } finally {
+            lock.unlock();
         }
     }
 
     /**
      * Tries to associate one thread with data.
      *
+     * <p>
+     * Threads already known by the dispatcher are resolved without any lock.
+     * </p>
+     *
      * @param thread
      *            the requested thread
      * @return The thread data, always valid.
@@ -112,8 +238,7 @@ public class MTDispatcher<T> {
     private T getThreadData(Thread thread) {
         T data = knownThreads.getData(thread);
         if (data == null) {
-            data = matcher.searchDataForThread(thread);
-            knownThreads.addOrUpdate(thread, data);
+            data = matchThreadData(thread);
         }
         return data;
     }
@@ -125,7 +250,60 @@ public class MTDispatcher<T> {
      * @throws ThreadNotFoundException
      *            The current thread is unknown by the system.
      */
-    public synchronized T getCurrentData() {
-        return getThreadData(Thread.currentThread());
+    @SuppressWarnings("unchecked")
+    public T getCurrentData() {
+        CachedData cached = cachedData.get();
+        int currentGeneration = generation;
+        if (cached != null && cached.get() == this && cached.generation == currentGeneration) {
+            Object data = cached.data.get();
+            if (data != null) {
+                return (T) data;
+            }
+        }
+
+        T data = getThreadData(Thread.currentThread());
+        onCurrentThreadData(data);
+        cachedData.set(new CachedData(this, currentGeneration, data));
+        return data;
+    }
+
+    /**
+     * @return The number of threads currently associated with data, including
+     *         the threads that terminated but are not evicted yet.
+     */
+    public int getKnownThreadCount() {
+        return knownThreads.size();
+    }
+
+    /**
+     * Called when the current thread is associated with data, before caching
+     * this association.
+     *
+     * <p>
+     * Does nothing by default.
+     * </p>
+     *
+     * @param data
+     *            the data of the current thread
+     */
+    protected void onCurrentThreadData(T data) {
+    }
+
+    /**
+     * Drops the data cached by every thread.
+     *
+     * <p>
+     * Subsequent requests for the thread data will consult the list of known
+     * threads again. The caches of the threads are not visited: their content
+     * is simply outdated, and does not retain the data anyway.
+     * </p>
+     */
+    protected void invalidateCachedData() {
+        lock.lock();
+        try {
+            generation++;
+        } finally {
+            lock.unlock();
+        }
     }
 }
@@ -7,18 +7,80 @@
  * ************************************************************************** */
 package com.vmware.lmock.mt;
 
-import java.util.HashMap;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Maintains a list of threads, along with data.
  *
+ * <p>
+ * The list can be read concurrently, without any lock. The additions must be
+ * serialized by the caller.
+ * </p>
+ *
+ * <p>
+ * The list does not keep the threads alive. The threads that terminated are
+ * evicted when the list has doubled since the last eviction, so that the
+ * cost of the evictions is amortized over the additions.
+ * </p>
+ *
  * @param <T>
  *            The type of data associated to the threads
  */
 class ThreadList<T> {
+    /**
+     * A thread of the list, with its data.
+     *
+     * @param <T>
+     *            The type of data associated to the thread
+     */
+    private static final class Entry<T> {
+        /** The thread. */
+        private final WeakReference<Thread> thread;
+        /** The data associated to the thread. */
+        private final T data;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param thread
+         *            the thread
+         * @param data
+         *            the data associated to the thread
+         */
+        Entry(Thread thread, T data) {
+            this.thread = new WeakReference<Thread>(thread);
+            this.data = data;
+        }
+
+        /**
+         * @return <code>true</code> if the thread was collected or
+         *         terminated.
+         */
+        boolean isTerminated() {
+            Thread referent = thread.get();
+            return referent == null || referent.getState() == Thread.State.TERMINATED;
+        }
+    }
+    /** Minimum size of the list before evicting the terminated threads. */
+    private static final int MIN_EVICTION_SIZE = 64;
     /** The thread list. Use the id for performance and safety reasons. */
-    private final Map<Long, T> map = new HashMap<Long, T>();
+    private final Map<Long, Entry<T>> map = new ConcurrentHashMap<Long, Entry<T>>();
+    /** Size of the list from which the terminated threads are evicted. */
+    private int evictionSize = MIN_EVICTION_SIZE;
+
+    /** Removes the threads that terminated from the list. */
+    private void evictTerminatedThreads() {
+        Iterator<Entry<T>> iterator = map.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isTerminated()) {
+                iterator.remove();
+            }
+        }
+        evictionSize = Math.max(MIN_EVICTION_SIZE, 2 * map.size());
+    }
 
     /**
      * Adds a thread to a list, if not registered yet.
@@ -29,7 +91,10 @@ class ThreadList<T> {
      *            the data associated to the thread
      */
     void addOrUpdate(Thread thread, T data) {
-        map.put(thread.getId(), data);
+        map.put(thread.getId(), new Entry<T>(thread, data));
+        if (map.size() >= evictionSize) {
+            evictTerminatedThreads();
+        }
     }
 
     /**
@@ -40,6 +105,12 @@ class ThreadList<T> {
      * @return The thread data, null if not found.
      */
     T getData(Thread thread) {
-        return map.get(thread.getId());
+        Entry<T> entry = map.get(thread.getId());
+        return entry == null ? null : entry.data;
+    }
+
+    /** @return The number of threads in the list. */
+    int size() {
+        return map.size();
     }
 }
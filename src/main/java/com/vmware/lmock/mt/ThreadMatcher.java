@@ -10,8 +10,11 @@ package com.vmware.lmock.mt;
 import com.vmware.lmock.checker.ThreadChecker;
 import com.vmware.lmock.exception.ThreadNotFoundException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Fetches threads with data.
@@ -29,6 +32,22 @@ import java.util.List;
  * the list whenever they recognized one thread. This allows to provide multiple
  * checkers with similar properties without any confusion.
  * </p>
+ * <p>
+ * The checkers of thread pools, registered by <code>registerNewPoolChecker</code>,
+ * remain in the list and associate every thread they recognize with the same
+ * data.
+ * </p>
+ * <p>
+ * The checkers are consulted in their order of registration: when several
+ * checkers recognize a thread, the first registered one wins.
+ * </p>
+ * <p>
+ * To bind threads without scanning every checker, the checkers restricted to
+ * one thread, one thread name or one thread class (see
+ * <code>ThreadChecker.getMatchedThread</code>, <code>getMatchedName</code>
+ * and <code>getMatchedClass</code>) are indexed in hash buckets. Only the
+ * other checkers are scanned.
+ * </p>
  *
  * @param <T>
  *            the type of data associated to threads
@@ -38,9 +57,13 @@ class ThreadMatcher<T> {
      * Association of checkers with thread data.
      */
     private class MatcherData {
+        /** The rank of registration of this checker. */
+        private final long rank;
         private final ThreadChecker checker;
         private final T data;
         private final ThreadMatcherNotificationHandler callback;
+        /** Set if the checker matches any number of threads. */
+        private final boolean pool;
 
         /**
          * Creates a new pair of data.
@@ -52,12 +75,27 @@ class ThreadMatcher<T> {
          * @param callback
          *            called back when the matching thread is found
          *            (<code>null</code> if none)
+         * @param pool
+         *            <code>true</code> if the checker matches any number of
+         *            threads
          */
         MatcherData(ThreadChecker checker, T data,
-          ThreadMatcherNotificationHandler callback) {
+          ThreadMatcherNotificationHandler callback, boolean pool) {
+            this.rank = nextRank++;
             this.checker = checker;
             this.data = data;
             this.callback = callback;
+            this.pool = pool;
+        }
+
+        /** @return The rank of registration of this checker. */
+        long getRank() {
+            return rank;
+        }
+
+        /** @return <code>true</code> if the checker matches any number of threads. */
+        boolean isPool() {
+            return pool;
         }
 
         /** @return The checker enclosed by this. */
@@ -82,8 +120,21 @@ class ThreadMatcher<T> {
             }
         }
     }
-    /** The list of checkers. */
-    private final List<MatcherData> checkers = new ArrayList<MatcherData>();
+    /** Protects the checkers, without pinning virtual threads. */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** The rank given to the next registered checker. */
+    private long nextRank;
+    /** The checkers of one thread, indexed by thread. */
+    private final Map<Thread, List<MatcherData>> threadCheckers =
+      new HashMap<Thread, List<MatcherData>>();
+    /** The checkers of one thread name, indexed by name. */
+    private final Map<String, List<MatcherData>> nameCheckers =
+      new HashMap<String, List<MatcherData>>();
+    /** The checkers of one thread class, indexed by class. */
+    private final Map<Class<?>, List<MatcherData>> classCheckers =
+      new HashMap<Class<?>, List<MatcherData>>();
+    /** The checkers that cannot be indexed, in their order of registration. */
+    private final List<MatcherData> otherCheckers = new ArrayList<MatcherData>();
 
     /**
      * Registers a new checker to consider when facing an unknown thread.
@@ -96,16 +147,208 @@ class ThreadMatcher<T> {
      *            if not <code>null</code>, called when a matching thread is
      *            found.
      */
-    synchronized void registerNewChecker(ThreadChecker checker, T data,
+    void registerNewChecker(ThreadChecker checker, T data,
+      ThreadMatcherNotificationHandler callback) {
+        register(checker, data, callback, false);
+    }
+
+    /**
+     * Registers a new checker associating any number of threads with the
+     * same data.
+     *
+     * @param checker
+     *            the new checker
+     * @param data
+     *            the data that will be associated to the threads when fetched
+     * @param callback
+     *            if not <code>null</code>, called each time a matching thread
+     *            is found.
+     */
+    void registerNewPoolChecker(ThreadChecker checker, T data,
       ThreadMatcherNotificationHandler callback) {
-        checkers.add(new MatcherData(checker, data, callback));
+        register(checker, data, callback, true);
+    }
+
+    /**
+     * Adds a checker to a bucket of indexed checkers.
+     *
+     * @param <K>
+     *            the type of index
+     * @param buckets
+     *            the buckets
+     * @param key
+     *            the index of the checker
+     * @param data
+     *            the checker and its data
+     */
+    private <K> void addToBucket(Map<K, List<MatcherData>> buckets, K key, MatcherData data) {
+        List<MatcherData> bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new LinkedList<MatcherData>();
+            buckets.put(key, bucket);
+        }
+        bucket.add(data);
+    }
+
+    /**
+     * Adds a checker to the index or to the list of other checkers.
+     *
+     * @param checker
+     *            the new checker
+     * @param data
+     *            the data that will be associated to the threads when fetched
+     * @param callback
+     *            if not <code>null</code>, called each time a matching thread
+     *            is found.
+     * @param pool
+     *            <code>true</code> if the checker matches any number of
+     *            threads
+     */
+    private void register(ThreadChecker checker, T data,
+      ThreadMatcherNotificationHandler callback, boolean pool) {
+        lock.lock();
+        try {
+            MatcherData matcherData = new MatcherData(checker, data, callback, pool);
+            if (checker.getMatchedThread() != null) {
+                addToBucket(threadCheckers, checker.getMatchedThread(), matcherData);
+            } else if (checker.getMatchedName() != null) {
+                addToBucket(nameCheckers, checker.getMatchedName(), matcherData);
+            } else if (checker.getMatchedClass() != null) {
+                addToBucket(classCheckers, checker.getMatchedClass(), matcherData);
+            } else {
+                otherCheckers.add(matcherData);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the first registered checker of a bucket.
+     *
+     * <p>
+     * All the checkers of a bucket recognize the same threads, so that the
+     * first one is the candidate of the bucket.
+     * </p>
+     *
+     * @param <K>
+     *            the type of index
+     * @param buckets
+     *            the buckets
+     * @param key
+     *            the index of the thread
+     * @param best
+     *            the best candidate found so far, <code>null</code> if none
+     * @return The first checker of the bucket if registered before the best
+     *         candidate, the best candidate otherwise.
+     */
+    private <K> MatcherData firstOfBucket(Map<K, List<MatcherData>> buckets, K key,
+      MatcherData best) {
+        List<MatcherData> bucket = buckets.get(key);
+        if (bucket == null) {
+            return best;
+        }
+        MatcherData first = bucket.get(0);
+        return best == null || first.getRank() < best.getRank() ? first : best;
+    }
+
+    /**
+     * Gets the first registered class checker recognizing a thread, walking
+     * through the superclasses and interfaces of the thread class.
+     *
+     * @param clazz
+     *            the visited class
+     * @param best
+     *            the best candidate found so far, <code>null</code> if none
+     * @return The best candidate.
+     */
+    private MatcherData firstOfClassBuckets(Class<?> clazz, MatcherData best) {
+        best = firstOfBucket(classCheckers, clazz, best);
+        for (Class<?> implemented : clazz.getInterfaces()) {
+            best = firstOfClassBuckets(implemented, best);
+        }
+        if (clazz.getSuperclass() != null) {
+            best = firstOfClassBuckets(clazz.getSuperclass(), best);
+        }
+        return best;
+    }
+
+    /**
+     * Gets the first registered checker recognizing a thread.
+     *
+     * <p>
+     * The scan of the checkers that are not indexed stops as soon as they
+     * were registered after the best indexed candidate.
+     * </p>
+     *
+     * @param thread
+     *            the checked thread
+     * @return The checker, <code>null</code> if none.
+     */
+    private MatcherData searchFirstMatchingChecker(Thread thread) {
+        MatcherData best = firstOfBucket(threadCheckers, thread, null);
+        if (thread.getName() != null) {
+            best = firstOfBucket(nameCheckers, thread.getName(), best);
+        }
+        if (!classCheckers.isEmpty()) {
+            best = firstOfClassBuckets(thread.getClass(), best);
+        }
+        for (MatcherData data : otherCheckers) {
+            if (best != null && best.getRank() < data.getRank()) {
+                break;
+            }
+            if (data.getChecker().valueIsCompatibleWith(thread)) {
+                return data;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Removes a checker from the index or from the list of other checkers.
+     *
+     * @param data
+     *            the checker and its data
+     */
+    private void unregister(MatcherData data) {
+        ThreadChecker checker = data.getChecker();
+        if (checker.getMatchedThread() != null) {
+            removeFromBucket(threadCheckers, checker.getMatchedThread(), data);
+        } else if (checker.getMatchedName() != null) {
+            removeFromBucket(nameCheckers, checker.getMatchedName(), data);
+        } else if (checker.getMatchedClass() != null) {
+            removeFromBucket(classCheckers, checker.getMatchedClass(), data);
+        } else {
+            otherCheckers.remove(data);
+        }
+    }
+
+    /**
+     * Removes a checker from a bucket of indexed checkers.
+     *
+     * @param <K>
+     *            the type of index
+     * @param buckets
+     *            the buckets
+     * @param key
+     *            the index of the checker
+     * @param data
+     *            the checker and its data
+     */
+    private <K> void removeFromBucket(Map<K, List<MatcherData>> buckets, K key, MatcherData data) {
+        List<MatcherData> bucket = buckets.get(key);
+        bucket.remove(data);
+        if (bucket.isEmpty()) {
+            buckets.remove(key);
+        }
     }
 
     /**
      * Searches for a thread recognized by one registered checker.
      *
      * <p>
-     * When the thread is matching a checker, that checker is unregistered.
+     * When the thread is matching a checker, that checker is unregistered,
+     * unless it is the checker of a thread pool.
      * </p>
      *
      * @param thread
@@ -114,16 +357,19 @@ class ThreadMatcher<T> {
      * @throws ThreadNotFoundException
      *            The specified thread was not recognized by the known checkers.
      */
-    synchronized T searchDataForThread(Thread thread) {
-        Iterator<MatcherData> iterator = checkers.iterator();
-
-        while (iterator.hasNext()) {
-            MatcherData data = iterator.next();
-            if (data.getChecker().valueIsCompatibleWith(thread)) {
-                iterator.remove();
+    T searchDataForThread(Thread thread) {
+        lock.lock();
+        try {
+            MatcherData data = searchFirstMatchingChecker(thread);
+            if (data != null) {
+                if (!data.isPool()) {
+                    unregister(data);
+                }
                 data.callbackWhenThreadFound(thread);
                 return data.getData();
             }
+        } finally {
+            lock.unlock();
         }
 
         throw new ThreadNotFoundException(thread);
@@ -26,8 +26,15 @@ public final class Trace {
 
     /** Singleton in charge of managing traces. */
     private static final Trace trace = new Trace();
-    /** The user supplied activity logger, <code>null</code> if none defined. */
-    private ActivityLogger activityLogger;
+    /**
+     * The user supplied activity logger, <code>null</code> if none defined.
+     *
+     * <p>
+     * Checked before producing any trace, so that the traces cost nothing when
+     * no logger is defined.
+     * </p>
+     */
+    private volatile ActivityLogger activityLogger;
 
     /**
      * Defines an activity logger used by Lmock to output its activity.
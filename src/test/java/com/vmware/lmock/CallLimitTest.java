@@ -0,0 +1,246 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock;
+
+import static com.vmware.lmock.mt.Actor.aPooledActorForThreadsLike;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.vmware.lmock.LatencyTest.Bank;
+import com.vmware.lmock.checker.ThreadChecker;
+import com.vmware.lmock.exception.IncompatibleThrowableException;
+import com.vmware.lmock.impl.CallLimit;
+import com.vmware.lmock.impl.DispatchMode;
+import com.vmware.lmock.impl.InvocationResultProvider;
+import com.vmware.lmock.impl.Latency;
+import com.vmware.lmock.impl.Mock;
+import com.vmware.lmock.impl.Scenario;
+import com.vmware.lmock.impl.Story;
+import com.vmware.lmock.impl.Stubs;
+import com.vmware.lmock.impl.VirtualClock;
+
+/**
+ * Validation of the call limits of stubs.
+ */
+public class CallLimitTest {
+    /** Number of threads calling a limited stub. */
+    private static final int NR_THREADS = 8;
+    /** Number of calls issued by each thread. */
+    private static final int NR_CALLS = 20;
+
+    /**
+     * Creates and begins a story with stubs, measuring time with a virtual
+     * clock.
+     *
+     * @param stubs
+     *            the stubs
+     * @param clock
+     *            the clock
+     * @return The story.
+     */
+    private static Story beginStory(Stubs stubs, VirtualClock clock) {
+        Story story = Story.create(new Scenario(), stubs).withLatencyClock(clock);
+        story.begin();
+        return story;
+    }
+
+    /**
+     * Verifies that a stub rejects the calls exceeding its rate.
+     */
+    @Test
+    public void testRateLimitWithException() {
+        final Bank bank = Mock.getObject("bank", Bank.class);
+        VirtualClock clock = new VirtualClock();
+        Story story = beginStory(new Stubs() {
+            {
+                stub(bank).getBalance();
+                willReturn(100);
+                willAccept(CallLimit.perSecond(10).orThrow(new IllegalStateException("busy")));
+            }
+        }, clock);
+
+        for (int count = 0; count < 10; count++) {
+            assertEquals(100, bank.getBalance());
+        }
+        try {
+            bank.getBalance();
+            fail("no exception thrown by the saturated stub");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        clock.advance(100, TimeUnit.MILLISECONDS);
+        assertEquals(100, bank.getBalance());
+        story.end();
+    }
+
+    /**
+     * Verifies that the calls exceeding a rate block until the stub accepts
+     * them.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testRateLimitBlocking() throws InterruptedException {
+        final Bank bank = Mock.getObject("bank", Bank.class);
+        final VirtualClock clock = new VirtualClock();
+        Story story = beginStory(new Stubs() {
+            {
+                stub(bank).getBalance();
+                willReturn(100);
+                willAccept(CallLimit.perSecond(1));
+            }
+        }, clock);
+
+        assertEquals(100, bank.getBalance());
+        Thread timeKeeper = new Thread(new Runnable() {
+            public void run() {
+                while (clock.getWaitingCount() == 0) {
+                    Thread.yield();
+                }
+                clock.advance(1, TimeUnit.SECONDS);
+            }
+        });
+        timeKeeper.start();
+        assertEquals(100, bank.getBalance());
+        assertEquals(TimeUnit.SECONDS.toNanos(1), clock.nanoTime());
+        timeKeeper.join();
+        story.end();
+    }
+
+    /**
+     * Verifies that the calls of asynchronous methods exceeding a rate are
+     * delayed.
+     */
+    @Test
+    public void testRateLimitDelaying() {
+        final Bank bank = Mock.getObject("bank", Bank.class);
+        VirtualClock clock = new VirtualClock();
+        Story story = beginStory(new Stubs() {
+            {
+                stub(bank).getBalanceLater();
+                willReturn(CompletableFuture.completedFuture(100));
+                willAccept(CallLimit.perSecond(1).orDelay());
+            }
+        }, clock);
+
+        CompletableFuture<Integer> first = bank.getBalanceLater();
+        CompletableFuture<Integer> second = bank.getBalanceLater();
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        clock.advance(1, TimeUnit.SECONDS);
+        assertEquals(100, second.getNow(0).intValue());
+        story.end();
+    }
+
+    /**
+     * Verifies that a stub rejects the calls exceeding its concurrency, until
+     * the ongoing calls complete.
+     */
+    @Test
+    public void testConcurrencyLimitWithException() {
+        final Bank bank = Mock.getObject("bank", Bank.class);
+        VirtualClock clock = new VirtualClock();
+        Story story = beginStory(new Stubs() {
+            {
+                stub(bank).getBalanceLater();
+                willReturn(CompletableFuture.completedFuture(100));
+                willTakeTime(Latency.fixed(1, TimeUnit.SECONDS));
+                willAccept(CallLimit.concurrentCalls(2).orThrow(new IllegalStateException("busy")));
+            }
+        }, clock);
+
+        CompletableFuture<Integer> first = bank.getBalanceLater();
+        CompletableFuture<Integer> second = bank.getBalanceLater();
+        assertTrue(bank.getBalanceLater().isCompletedExceptionally());
+        clock.advance(1, TimeUnit.SECONDS);
+        assertEquals(100, first.getNow(0).intValue());
+        assertEquals(100, second.getNow(0).intValue());
+        assertFalse(bank.getBalanceLater().isCompletedExceptionally());
+        story.end();
+    }
+
+    /**
+     * Verifies that a stub called by many threads never runs more calls at
+     * the same time than its limit.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testConcurrencyLimitBlocking() throws InterruptedException {
+        final Bank bank = Mock.getObject("bank", Bank.class);
+        final AtomicInteger ongoingCalls = new AtomicInteger();
+        final AtomicInteger maxOngoingCalls = new AtomicInteger();
+        final InvocationResultProvider slowBalance = new InvocationResultProvider() {
+            public Object apply() throws Throwable {
+                int ongoing = ongoingCalls.incrementAndGet();
+                int max;
+                while ((max = maxOngoingCalls.get()) < ongoing
+                  && !maxOngoingCalls.compareAndSet(max, ongoing)) {
+                    // Retry.
+                }
+                Thread.sleep(1);
+                ongoingCalls.decrementAndGet();
+                return 100;
+            }
+        };
+        Stubs stubs = new Stubs() {
+            {
+                stub(bank).getBalance();
+                willDelegateTo(slowBalance);
+                willAccept(CallLimit.concurrentCalls(2));
+            }
+        };
+        Story story = Story.create(aPooledActorForThreadsLike(ThreadChecker.anyThread).using(stubs))
+          .withDispatchMode(DispatchMode.CONCURRENT);
+        story.begin();
+
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[NR_THREADS];
+        for (int index = 0; index < NR_THREADS; index++) {
+            threads[index] = new Thread(new Runnable() {
+                public void run() {
+                    for (int count = 0; count < NR_CALLS; count++) {
+                        if (bank.getBalance() != 100) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads[index].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        story.end();
+        assertEquals(0, failures.get());
+        assertTrue(maxOngoingCalls.get() <= 2);
+    }
+
+    /**
+     * Verifies that the exception thrown by the calls exceeding a limit must
+     * be compatible with the stubbed method.
+     */
+    @Test(expected = IncompatibleThrowableException.class)
+    public void testIncompatibleSaturationException() {
+        final Bank bank = Mock.getObject("bank", Bank.class);
+        new Stubs() {
+            {
+                stub(bank).getBalance();
+                willAccept(CallLimit.concurrentCalls(1).orThrow(new Exception("busy")));
+            }
+        };
+    }
+}
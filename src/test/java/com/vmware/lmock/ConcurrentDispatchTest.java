@@ -0,0 +1,201 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock;
+
+import static com.vmware.lmock.checker.Occurrences.exactly;
+import static com.vmware.lmock.mt.Actor.anActorForAnyThread;
+import static com.vmware.lmock.mt.Actor.anActorForCurrentThread;
+import static com.vmware.lmock.mt.Actor.aPooledActorForThreadsLike;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.vmware.lmock.checker.ThreadChecker;
+import com.vmware.lmock.checker.ThreadFactoryChecker;
+import com.vmware.lmock.impl.DispatchMode;
+import com.vmware.lmock.impl.Scenario;
+import com.vmware.lmock.impl.Story;
+import com.vmware.lmock.impl.Stubs;
+import com.vmware.lmock.mt.Actor;
+
+/**
+ * Validation of the concurrent dispatch mode.
+ */
+public class ConcurrentDispatchTest {
+    /** Number of threads invoking the mocks concurrently. */
+    private static final int NR_THREADS = 8;
+    /** Number of invocations performed by each thread. */
+    private static final int NR_INVOCATIONS = 10000;
+
+    /**
+     * Starts a set of threads running the same code and waits for their
+     * termination.
+     *
+     * @param runnable
+     *            the code run by every thread
+     * @throws InterruptedException
+     */
+    private static void runConcurrently(Runnable runnable) throws InterruptedException {
+        Thread[] threads = new Thread[NR_THREADS];
+        for (int index = 0; index < NR_THREADS; index++) {
+            threads[index] = new Thread(runnable);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Creates one actor per thread plus one for the testing thread, each one
+     * following the same scenario and using the same stubs.
+     *
+     * @param scenario
+     *            the shared scenario
+     * @param stubs
+     *            the shared stubs
+     * @return The actors.
+     */
+    private static Actor[] someActors(Scenario scenario, Stubs stubs) {
+        Actor[] actors = new Actor[NR_THREADS + 1];
+        actors[0] = anActorForCurrentThread().following(scenario).using(stubs);
+        for (int index = 1; index <= NR_THREADS; index++) {
+            actors[index] = anActorForAnyThread().following(scenario).using(stubs);
+        }
+        return actors;
+    }
+
+    /**
+     * Verifies that several threads can concurrently invoke stubs.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testConcurrentStubInvocations() throws InterruptedException {
+        final AtomicInteger mismatches = new AtomicInteger();
+        Stubs stubs = new Stubs() {
+            {
+                stub(Dalton.joe).getInt();
+                willReturn(999);
+                stub(Dalton.joe).ping(Dalton.jack);
+                willReturn(1);
+            }
+        };
+        Actor[] actors = someActors(new Scenario(), stubs);
+        Story story = Story.create(actors).withDispatchMode(DispatchMode.CONCURRENT);
+
+        story.begin();
+        runConcurrently(new Runnable() {
+            public void run() {
+                for (int count = 0; count < NR_INVOCATIONS; count++) {
+                    if (Dalton.joe.getInt() != 999 || Dalton.joe.ping(Dalton.jack) != 1) {
+                        mismatches.incrementAndGet();
+                    }
+                }
+            }
+        });
+        story.end();
+
+        assertEquals(0, mismatches.get());
+        for (Actor actor : actors) {
+            assertTrue(actor.assertNoError());
+        }
+    }
+
+    /**
+     * Verifies that a scenario shared by concurrent threads is still strictly
+     * validated.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testConcurrentInvocationsOfASharedScenario() throws InterruptedException {
+        Scenario scenario = new Scenario() {
+            {
+                expect(Dalton.joe).ping();
+                occurs(exactly(NR_THREADS * NR_INVOCATIONS));
+                expect(Dalton.jack).ping();
+                occurs(1);
+            }
+        };
+        Stubs stubs = new Stubs() {
+            {
+                stub(Dalton.joe).getInt();
+                willReturn(999);
+            }
+        };
+        Actor[] actors = someActors(scenario, stubs);
+        Story story = Story.create(actors).withDispatchMode(DispatchMode.CONCURRENT);
+
+        story.begin();
+        runConcurrently(new Runnable() {
+            public void run() {
+                for (int count = 0; count < NR_INVOCATIONS; count++) {
+                    Dalton.joe.ping();
+                    Dalton.joe.getInt();
+                }
+            }
+        });
+        Dalton.jack.ping();
+        story.end();
+    }
+
+    /**
+     * Verifies that the workers of an executor can share a single pooled
+     * actor, following the same scenario.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testPooledActor() throws InterruptedException {
+        final AtomicInteger mismatches = new AtomicInteger();
+        Scenario scenario = new Scenario() {
+            {
+                expect(Dalton.joe).ping();
+                occurs(exactly(NR_THREADS * NR_INVOCATIONS));
+            }
+        };
+        Stubs stubs = new Stubs() {
+            {
+                stub(Dalton.joe).getInt();
+                willReturn(999);
+            }
+        };
+        ThreadFactoryChecker workers = ThreadChecker.threadsCreatedBy(Executors.defaultThreadFactory());
+        Actor pool = aPooledActorForThreadsLike(workers).following(scenario).using(stubs);
+        Story story = Story.create(pool).withDispatchMode(DispatchMode.CONCURRENT);
+        ExecutorService executor = Executors.newFixedThreadPool(NR_THREADS, workers);
+
+        story.begin();
+        for (int index = 0; index < NR_THREADS * NR_INVOCATIONS; index++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    Dalton.joe.ping();
+                    if (Dalton.joe.getInt() != 999) {
+                        mismatches.incrementAndGet();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        story.end();
+
+        assertEquals(0, mismatches.get());
+        assertEquals(NR_THREADS, pool.getThreadCount());
+        assertTrue(pool.assertNoError());
+    }
+}
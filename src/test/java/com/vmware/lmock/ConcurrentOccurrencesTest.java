@@ -0,0 +1,244 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock;
+
+import static com.vmware.lmock.checker.Occurrences.any;
+import static com.vmware.lmock.checker.Occurrences.atLeast;
+import static com.vmware.lmock.checker.Occurrences.exactly;
+import static com.vmware.lmock.mt.Actor.aPooledActorForThreadsLike;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.vmware.lmock.LatencyTest.Bank;
+import com.vmware.lmock.checker.ConcurrentOccurrences;
+import com.vmware.lmock.checker.ThreadChecker;
+import com.vmware.lmock.impl.DispatchMode;
+import com.vmware.lmock.impl.Mock;
+import com.vmware.lmock.impl.Scenario;
+import com.vmware.lmock.impl.Story;
+
+/**
+ * Validation of the occurrences recorded by concurrent threads.
+ */
+public class ConcurrentOccurrencesTest {
+    /** Number of concurrent threads. */
+    private static final int NR_THREADS = 8;
+    /** Number of calls issued by each thread. */
+    private static final int NR_CALLS = 200;
+
+    /**
+     * Runs threads invoking a bank concurrently.
+     *
+     * @param bank
+     *            the bank
+     * @param expectedBalance
+     *            the balance returned to every call
+     * @return The number of calls that did not return the expected balance.
+     * @throws InterruptedException
+     */
+    private static int runThreads(final Bank bank, final int expectedBalance)
+      throws InterruptedException {
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[NR_THREADS];
+        for (int index = 0; index < NR_THREADS; index++) {
+            threads[index] = new Thread(new Runnable() {
+                public void run() {
+                    for (int count = 0; count < NR_CALLS; count++) {
+                        if (bank.getBalance() != expectedBalance) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads[index].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return failures.get();
+    }
+
+    /**
+     * Verifies that concurrent occurrences never exceed their limit, whatever
+     * the number of threads recording them.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testLimitUnderContention() throws InterruptedException {
+        final ConcurrentOccurrences occurrences = exactly(NR_CALLS).concurrently();
+        final AtomicInteger accepted = new AtomicInteger();
+        Thread[] threads = new Thread[NR_THREADS];
+        for (int index = 0; index < NR_THREADS; index++) {
+            threads[index] = new Thread(new Runnable() {
+                public void run() {
+                    for (int count = 0; count < NR_CALLS; count++) {
+                        if (occurrences.tryIncrement()) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads[index].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(NR_CALLS, accepted.get());
+        assertTrue(occurrences.hasReachedLimit());
+        assertTrue(occurrences.canEndNow());
+        occurrences.reset();
+        assertFalse(occurrences.canEndNow());
+        assertEquals("[" + NR_CALLS + ".." + NR_CALLS + "]", occurrences.toString());
+    }
+
+    /**
+     * Verifies that unlimited occurrences are satisfied by the calls of
+     * concurrent threads.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testAtLeast() throws InterruptedException {
+        final Bank bank = Mock.getObject("bank", Bank.class);
+        Story story = Story.create(aPooledActorForThreadsLike(ThreadChecker.anyThread).following(
+          new Scenario() {
+              {
+                  expect(bank).getBalance();
+                  willReturn(100);
+                  occurs(atLeast(NR_THREADS * NR_CALLS).concurrently());
+              }
+          })).withDispatchMode(DispatchMode.CONCURRENT);
+        story.begin();
+        assertEquals(0, runThreads(bank, 100));
+        story.end();
+    }
+
+    /**
+     * Verifies that the story moves to the next expectation exactly when the
+     * limit of concurrent occurrences is reached.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testExactly() throws InterruptedException {
+        final Bank bank = Mock.getObject("bank", Bank.class);
+        Story story = Story.create(aPooledActorForThreadsLike(ThreadChecker.anyThread).following(
+          new Scenario() {
+              {
+                  expect(bank).getBalance();
+                  willReturn(100);
+                  occurs(exactly(NR_THREADS * NR_CALLS).concurrently());
+                  expect(bank).getBalance();
+                  willReturn(200);
+                  occurs(1);
+              }
+          })).withDispatchMode(DispatchMode.CONCURRENT);
+        story.begin();
+        assertEquals(0, runThreads(bank, 100));
+        assertEquals(200, bank.getBalance());
+        story.end();
+    }
+
+    /**
+     * Verifies that the concurrent occurrences are counted precisely while
+     * the threads keep invoking the expectation that follows.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testMovingOnUnderContention() throws InterruptedException {
+        final Bank bank = Mock.getObject("bank", Bank.class);
+        Story story = Story.create(aPooledActorForThreadsLike(ThreadChecker.anyThread).following(
+          new Scenario() {
+              {
+                  expect(bank).getBalance();
+                  willReturn(100);
+                  occurs(exactly(NR_CALLS).concurrently());
+                  expect(bank).getBalance();
+                  willReturn(200);
+                  occurs(any());
+              }
+          })).withDispatchMode(DispatchMode.CONCURRENT);
+        story.begin();
+        assertEquals(NR_THREADS * NR_CALLS - NR_CALLS, runThreads(bank, 100));
+        story.end();
+    }
+
+    /**
+     * Verifies that an occurrence counted by a concurrent thread remains
+     * counted when another thread makes the story leave the expectation at
+     * the same time.
+     *
+     * <p>
+     * The threads issue the invocations required by the expectation, while
+     * the main thread keeps converting another mock to a string: the default
+     * hook answers until the expectation can end, then the story moves on to
+     * the next expectation. Every invocation of the threads happens before the story
+     * moves on, so none may fail.
+     * </p>
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testMovingOnWhileRecording() throws InterruptedException {
+        final int nrCalls = 20;
+        for (int iteration = 0; iteration < 200; iteration++) {
+            final Bank bank = Mock.getObject("bank", Bank.class);
+            final Bank otherBank = Mock.getObject("otherBank", Bank.class);
+            Story story = Story.create(aPooledActorForThreadsLike(ThreadChecker.anyThread).following(
+              new Scenario() {
+                  {
+                      expect(bank).getBalance();
+                      willReturn(100);
+                      occurs(atLeast(NR_THREADS * nrCalls).concurrently());
+                      expect(otherBank).toString();
+                      willReturn("moved");
+                  }
+              })).withDispatchMode(DispatchMode.CONCURRENT);
+            story.begin();
+
+            final AtomicInteger started = new AtomicInteger();
+            final AtomicInteger failures = new AtomicInteger();
+            Thread[] threads = new Thread[NR_THREADS];
+            for (int index = 0; index < NR_THREADS; index++) {
+                threads[index] = new Thread(new Runnable() {
+                    public void run() {
+                        for (int count = 0; count < nrCalls; count++) {
+                            started.incrementAndGet();
+                            try {
+                                if (bank.getBalance() != 100) {
+                                    failures.incrementAndGet();
+                                }
+                            } catch (Throwable e) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    }
+                });
+                threads[index].start();
+            }
+            while (started.get() < NR_THREADS * nrCalls) {
+                Thread.yield();
+            }
+            while (!"moved".equals(otherBank.toString())) {
+                Thread.yield();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            story.end();
+            assertEquals(0, failures.get());
+        }
+    }
+}
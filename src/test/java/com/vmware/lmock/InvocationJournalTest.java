@@ -0,0 +1,357 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock;
+
+import static com.vmware.lmock.Dalton.jack;
+import static com.vmware.lmock.Dalton.joe;
+import static com.vmware.lmock.Dalton.william;
+import static com.vmware.lmock.checker.IntegerChecker.valuesBetween;
+import static com.vmware.lmock.checker.Occurrences.any;
+import static com.vmware.lmock.mt.Actor.aPooledActorForThreadsLike;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.vmware.lmock.checker.ThreadChecker;
+import com.vmware.lmock.exception.UnexpectedInvocationError;
+import com.vmware.lmock.impl.DispatchMode;
+import com.vmware.lmock.impl.InvocationJournal;
+import com.vmware.lmock.impl.Invocations;
+import com.vmware.lmock.impl.Scenario;
+import com.vmware.lmock.impl.Story;
+import com.vmware.lmock.impl.Stubs;
+
+/**
+ * Validation of the invocation journals.
+ */
+public class InvocationJournalTest {
+    /**
+     * Creates a story stubbing the Daltons and recording the invocations in a
+     * journal.
+     *
+     * @param journal
+     *            the journal
+     * @return The story.
+     */
+    private Story createStubbedStory(InvocationJournal journal) {
+        return Story.create(null, new Stubs() {
+            {
+                stub(joe).ping(anyOf(Dalton.class), anyOf(String.class));
+                willReturn(0);
+                stub(joe).setInt(anyOf(int.class));
+                stub(jack).setInt(anyOf(int.class));
+            }
+        }).withJournal(journal);
+    }
+
+    /**
+     * Verifies that the journal counts the invocations of stubs.
+     */
+    @Test
+    public void testCountStubbedInvocations() {
+        InvocationJournal journal = new InvocationJournal();
+        Story story = createStubbedStory(journal);
+        story.begin();
+        for (int value = 0; value < 10; value++) {
+            joe.setInt(value);
+            jack.setInt(value * 2);
+        }
+        joe.ping(jack, "hello");
+        joe.ping(william, "hello");
+        joe.ping(jack, "bye");
+        story.end();
+
+        assertEquals(23, journal.size());
+        assertEquals(10, journal.count(new Invocations() {
+            {
+                invoked(joe).setInt(anyOf(int.class));
+            }
+        }));
+        assertEquals(1, journal.count(new Invocations() {
+            {
+                invoked(jack).setInt(4);
+            }
+        }));
+        assertEquals(5, journal.count(new Invocations() {
+            {
+                invoked(joe).setInt(with(valuesBetween(0, 4)));
+            }
+        }));
+        assertEquals(3, journal.count(new Invocations() {
+            {
+                invoked(joe).ping(with(jack), anyOf(String.class));
+                invoked(joe).ping(anyOf(Dalton.class), with("hello"));
+            }
+        }));
+        assertEquals(3, journal.count(new Invocations() {
+            {
+                invoked(joe).ping(anyOf(Dalton.class), anyOf(String.class));
+            }
+        }));
+    }
+
+    /**
+     * Verifies that the journal reports the invocations never issued.
+     */
+    @Test
+    public void testNeverInvoked() {
+        InvocationJournal journal = new InvocationJournal();
+        Story story = createStubbedStory(journal);
+        story.begin();
+        joe.setInt(1);
+        story.end();
+
+        Invocations neverInvoked = new Invocations() {
+            {
+                invoked(jack).setInt(anyOf(int.class));
+                invoked(joe).setInt(2);
+                invoked(joe).ping(anyOf(Dalton.class));
+            }
+        };
+        assertEquals(0, journal.count(neverInvoked));
+        assertFalse(journal.contains(neverInvoked));
+        assertTrue(journal.find(neverInvoked).isEmpty());
+        assertTrue(journal.contains(new Invocations() {
+            {
+                invoked(joe).setInt(1);
+            }
+        }));
+    }
+
+    /**
+     * Verifies that the found invocations are given in their recording order,
+     * with their context.
+     */
+    @Test
+    public void testFindInvocationsInOrder() {
+        InvocationJournal journal = new InvocationJournal();
+        Story story = createStubbedStory(journal);
+        story.begin();
+        joe.setInt(1);
+        jack.setInt(2);
+        joe.ping(jack, "hello");
+        jack.setInt(3);
+        joe.setInt(4);
+        story.end();
+
+        List<InvocationJournal.Entry> entries = journal.find(new Invocations() {
+            {
+                invoked(joe).setInt(anyOf(int.class));
+                invoked(jack).setInt(anyOf(int.class));
+            }
+        });
+        assertEquals(4, entries.size());
+        int[] expectedValues = { 1, 2, 3, 4 };
+        Object[] expectedObjects = { joe, jack, jack, joe };
+        long previousTimestamp = Long.MIN_VALUE;
+        for (int index = 0; index < entries.size(); index++) {
+            InvocationJournal.Entry entry = entries.get(index);
+            assertSame(expectedObjects[index], entry.getObject());
+            assertEquals("setInt", entry.getMethod().getName());
+            assertEquals(expectedValues[index], entry.getArguments()[0]);
+            assertSame(Thread.currentThread(), entry.getThread());
+            assertTrue(entry.getTimestamp() >= previousTimestamp);
+            previousTimestamp = entry.getTimestamp();
+        }
+
+        journal.clear();
+        assertEquals(0, journal.size());
+        assertTrue(journal.getEntries().isEmpty());
+    }
+
+    /**
+     * Verifies that the journal records the expected invocations as well as
+     * the unexpected ones.
+     */
+    @Test
+    public void testJournalOfAScenario() {
+        InvocationJournal journal = new InvocationJournal();
+        Story story = Story.create(new Scenario() {
+            {
+                expect(joe).setInt(1);
+                expect(jack).setInt(anyOf(int.class));
+                occurs(any());
+            }
+        }).withJournal(journal);
+        story.begin();
+        joe.setInt(1);
+        jack.setInt(5);
+        jack.setInt(6);
+        try {
+            joe.setInt(7);
+            fail("unexpected invocation not reported");
+        } catch (UnexpectedInvocationError e) {
+            // Expected
+        }
+        try {
+            story.end();
+            fail("unexpected invocation not reported at the end of the story");
+        } catch (UnexpectedInvocationError e) {
+            // Expected
+        }
+
+        assertEquals(4, journal.size());
+        assertEquals(1, journal.count(new Invocations() {
+            {
+                invoked(joe).setInt(7);
+            }
+        }));
+        assertEquals(2, journal.count(new Invocations() {
+            {
+                invoked(jack).setInt(anyOf(int.class));
+            }
+        }));
+    }
+
+    /**
+     * Verifies that the invocations are no longer recorded once the journal
+     * is detached from the story.
+     */
+    @Test
+    public void testDetachJournal() {
+        InvocationJournal journal = new InvocationJournal();
+        Story story = createStubbedStory(journal);
+        story.begin();
+        joe.setInt(1);
+        story.withJournal(null);
+        joe.setInt(2);
+        story.end();
+
+        assertEquals(1, journal.size());
+    }
+
+    /**
+     * Verifies that the invocations of concurrent threads are all recorded,
+     * each thread keeping its recording order.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final int nrCalls = 1000;
+        InvocationJournal journal = new InvocationJournal();
+        Story story = Story.create(aPooledActorForThreadsLike(ThreadChecker.anyThread).using(
+          new Stubs() {
+              {
+                  stub(joe).setInt(anyOf(int.class));
+                  stub(jack).setInt(anyOf(int.class));
+              }
+          })).withJournal(journal).withDispatchMode(DispatchMode.CONCURRENT);
+        story.begin();
+        Thread[] threads = new Thread[4];
+        for (int index = 0; index < threads.length; index++) {
+            final Dalton dalton = (index % 2 == 0) ? joe : jack;
+            threads[index] = new Thread(new Runnable() {
+                public void run() {
+                    for (int count = 0; count < nrCalls; count++) {
+                        dalton.setInt(count);
+                    }
+                }
+            });
+            threads[index].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        story.end();
+
+        assertEquals(threads.length * nrCalls, journal.size());
+        assertEquals(2 * nrCalls, journal.count(new Invocations() {
+            {
+                invoked(joe).setInt(anyOf(int.class));
+            }
+        }));
+        for (Thread thread : threads) {
+            int expectedValue = 0;
+            for (InvocationJournal.Entry entry : journal.getEntries()) {
+                if (entry.getThread() == thread) {
+                    assertEquals(expectedValue++, entry.getArguments()[0]);
+                }
+            }
+            assertEquals(nrCalls, expectedValue);
+        }
+    }
+
+    /**
+     * Verifies that a long recording keeps every invocation in order, across
+     * the growing chunks and the largest ones.
+     */
+    @Test
+    public void testLongRecording() {
+        final int nrCalls = 10000;
+        InvocationJournal journal = new InvocationJournal();
+        Story story = createStubbedStory(journal);
+        story.begin();
+        for (int count = 0; count < nrCalls; count++) {
+            joe.setInt(count);
+        }
+        story.end();
+
+        List<InvocationJournal.Entry> entries = journal.getEntries();
+        assertEquals(nrCalls, entries.size());
+        for (int count = 0; count < nrCalls; count++) {
+            assertEquals(count, entries.get(count).getArguments()[0]);
+        }
+        assertEquals(1, journal.count(new Invocations() {
+            {
+                invoked(joe).setInt(nrCalls - 1);
+            }
+        }));
+    }
+
+    /**
+     * Verifies that the journal keeps the invocations of a terminated thread
+     * without keeping the thread itself.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testTerminatedThreadReleased() throws InterruptedException {
+        InvocationJournal journal = new InvocationJournal();
+        Story story = Story.create(aPooledActorForThreadsLike(ThreadChecker.anyThread).using(
+          new Stubs() {
+              {
+                  stub(joe).setInt(anyOf(int.class));
+              }
+          })).withJournal(journal);
+        story.begin();
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                joe.setInt(1);
+            }
+        });
+        WeakReference<Thread> threadReference = new WeakReference<Thread>(thread);
+        thread.start();
+        thread.join();
+        thread = null;
+        story.end();
+        // The actor of the story refers to the latest thread it matched, and
+        // the mock refers to the story until it joins another one.
+        story = null;
+        Story nextStory = createStubbedStory(new InvocationJournal());
+        nextStory.begin();
+        joe.setInt(2);
+        nextStory.end();
+        for (int count = 0; count < 50 && threadReference.get() != null; count++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull(threadReference.get());
+        assertEquals(1, journal.size());
+        assertNull(journal.getEntries().get(0).getThread());
+    }
+}
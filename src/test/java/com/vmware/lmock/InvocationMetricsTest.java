@@ -0,0 +1,260 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock;
+
+import static com.vmware.lmock.mt.Actor.aPooledActorForThreadsLike;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.vmware.lmock.LatencyTest.Bank;
+import com.vmware.lmock.checker.ThreadChecker;
+import com.vmware.lmock.impl.InvocationMetrics;
+import com.vmware.lmock.impl.Latency;
+import com.vmware.lmock.impl.LatencyHistogram;
+import com.vmware.lmock.impl.MethodMetrics;
+import com.vmware.lmock.impl.Mock;
+import com.vmware.lmock.impl.Scenario;
+import com.vmware.lmock.impl.Story;
+import com.vmware.lmock.impl.Stubs;
+
+/**
+ * Validation of the invocation metrics.
+ */
+public class InvocationMetricsTest {
+    /** Number of calls issued by each thread. */
+    private static final int NR_CALLS = 50;
+
+    /**
+     * Creates stubs for a bank.
+     *
+     * @param bank
+     *            the bank
+     * @return The stubs.
+     */
+    private static Stubs bankStubs(final Bank bank) {
+        return new Stubs() {
+            {
+                stub(bank).getBalance();
+                willReturn(100);
+            }
+        };
+    }
+
+    /**
+     * Verifies that the metrics count the invocations of each method and
+     * remain available once the story is over.
+     */
+    @Test
+    public void testInvocationCounts() {
+        Bank bank = Mock.getObject("bank", Bank.class);
+        InvocationMetrics metrics = new InvocationMetrics();
+        Story story = Story.create(new Scenario(), bankStubs(bank)).withMetrics(metrics);
+        story.begin();
+        for (int count = 0; count < NR_CALLS; count++) {
+            bank.getBalance();
+        }
+        story.end();
+
+        assertEquals(NR_CALLS, metrics.getInvocationCount(bank, "getBalance"));
+        assertEquals(0, metrics.getInvocationCount(bank, "getBalanceLater"));
+        assertEquals(NR_CALLS, metrics.getTotalInvocationCount());
+        assertEquals(Long.valueOf(NR_CALLS), metrics.getInvocationCounts().get("bank.getBalance"));
+
+        List<MethodMetrics> methodMetrics = metrics.getMethodMetrics(bank, "getBalance");
+        assertEquals(1, methodMetrics.size());
+        assertEquals(bank, methodMetrics.get(0).getObject());
+        assertEquals(1, methodMetrics.get(0).getThreadCount());
+        assertEquals(NR_CALLS, methodMetrics.get(0).getDispatchTime().getCount());
+        assertEquals(NR_CALLS, methodMetrics.get(0).getCallTime().getCount());
+
+        metrics.reset();
+        assertEquals(0, metrics.getTotalInvocationCount());
+    }
+
+    /**
+     * Verifies that a story stops measuring once its metrics are removed.
+     */
+    @Test
+    public void testNoMetrics() {
+        Bank bank = Mock.getObject("bank", Bank.class);
+        InvocationMetrics metrics = new InvocationMetrics();
+        Story story = Story.create(new Scenario(), bankStubs(bank)).withMetrics(metrics);
+        story.begin();
+        bank.getBalance();
+        story.withMetrics(null);
+        bank.getBalance();
+        story.end();
+        assertEquals(1, metrics.getTotalInvocationCount());
+    }
+
+    /**
+     * Verifies that the metrics count the threads invoking a method.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testThreadCounts() throws InterruptedException {
+        final Bank bank = Mock.getObject("bank", Bank.class);
+        InvocationMetrics metrics = new InvocationMetrics();
+        Story story = Story.create(aPooledActorForThreadsLike(ThreadChecker.anyThread).using(
+          bankStubs(bank))).withMetrics(metrics);
+        story.begin();
+        Thread[] threads = new Thread[2];
+        for (int index = 0; index < threads.length; index++) {
+            threads[index] = new Thread(new Runnable() {
+                public void run() {
+                    for (int count = 0; count < NR_CALLS; count++) {
+                        bank.getBalance();
+                    }
+                }
+            });
+            threads[index].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        story.end();
+
+        assertEquals(2 * NR_CALLS, metrics.getInvocationCount(bank, "getBalance"));
+        assertEquals(Integer.valueOf(2), metrics.getThreadCounts().get("bank.getBalance"));
+        MethodMetrics methodMetrics = metrics.getMethodMetrics(bank, "getBalance").get(0);
+        assertEquals(2 * NR_CALLS, methodMetrics.getLockWaitTime().getCount());
+    }
+
+    /**
+     * Verifies that the threads invoking methods sharing a name are counted
+     * once, whatever the mock they invoked.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testThreadCountsOfMocksWithTheSameName() throws InterruptedException {
+        final Bank[] banks = { Mock.getObject("bank", Bank.class), Mock.getObject("bank", Bank.class) };
+        InvocationMetrics metrics = new InvocationMetrics();
+        Story story = Story.create(aPooledActorForThreadsLike(ThreadChecker.anyThread).using(
+          bankStubs(banks[0]), bankStubs(banks[1]))).withMetrics(metrics);
+        story.begin();
+        Thread[] threads = new Thread[banks.length];
+        for (int index = 0; index < threads.length; index++) {
+            final Bank bank = banks[index];
+            threads[index] = new Thread(new Runnable() {
+                public void run() {
+                    bank.getBalance();
+                }
+            });
+            threads[index].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        banks[0].getBalance();
+        banks[1].getBalance();
+        story.end();
+
+        assertEquals(Integer.valueOf(3), metrics.getThreadCounts().get("bank.getBalance"));
+    }
+
+    /**
+     * Verifies that the call times include the latency of the results and
+     * the approximations of their histogram.
+     */
+    @Test
+    public void testHistogram() {
+        final Bank bank = Mock.getObject("bank", Bank.class);
+        InvocationMetrics metrics = new InvocationMetrics();
+        Story story = Story.create(new Scenario(), new Stubs() {
+            {
+                stub(bank).getBalance();
+                willReturn(100);
+                willTakeTime(Latency.fixed(1, TimeUnit.MILLISECONDS));
+            }
+        }).withMetrics(metrics);
+        story.begin();
+        for (int count = 0; count < 5; count++) {
+            bank.getBalance();
+        }
+        story.end();
+
+        LatencyHistogram callTime = metrics.getMethodMetrics(bank, "getBalance").get(0).getCallTime();
+        assertEquals(5, callTime.getCount());
+        long millisecond = TimeUnit.MILLISECONDS.toNanos(1);
+        assertTrue(callTime.getMean() >= millisecond);
+        assertTrue(callTime.getMax() >= callTime.getMean());
+        assertTrue(callTime.getPercentile(50) >= millisecond);
+        assertTrue(callTime.getPercentile(50) <= callTime.getMax());
+        assertTrue(callTime.getTotal() >= 5 * millisecond);
+    }
+
+    /**
+     * Verifies that the mean times of the methods sharing a name are weighted
+     * by their number of invocations.
+     */
+    @Test
+    public void testMeansOfMocksWithTheSameName() {
+        final Bank fastBank = Mock.getObject("bank", Bank.class);
+        final Bank slowBank = Mock.getObject("bank", Bank.class);
+        InvocationMetrics metrics = new InvocationMetrics();
+        Story story = Story.create(new Scenario(), new Stubs() {
+            {
+                stub(fastBank).getBalance();
+                willReturn(100);
+                stub(slowBank).getBalance();
+                willReturn(100);
+                willTakeTime(Latency.fixed(1, TimeUnit.MILLISECONDS));
+            }
+        }).withMetrics(metrics);
+        story.begin();
+        for (int count = 0; count < 4; count++) {
+            fastBank.getBalance();
+        }
+        slowBank.getBalance();
+        story.end();
+
+        LatencyHistogram fastCallTime = metrics.getMethodMetrics(fastBank, "getBalance").get(0).getCallTime();
+        LatencyHistogram slowCallTime = metrics.getMethodMetrics(slowBank, "getBalance").get(0).getCallTime();
+        assertEquals(Long.valueOf((fastCallTime.getTotal() + slowCallTime.getTotal()) / 5),
+          metrics.getMeanCallTimes().get("bank.getBalance"));
+        LatencyHistogram fastDispatchTime = metrics.getMethodMetrics(fastBank, "getBalance").get(0).getDispatchTime();
+        LatencyHistogram slowDispatchTime = metrics.getMethodMetrics(slowBank, "getBalance").get(0).getDispatchTime();
+        assertEquals(Long.valueOf((fastDispatchTime.getTotal() + slowDispatchTime.getTotal()) / 5),
+          metrics.getMeanDispatchTimes().get("bank.getBalance"));
+    }
+
+    /**
+     * Verifies that the metrics can be read through JMX.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMBean() throws Exception {
+        Bank bank = Mock.getObject("bank", Bank.class);
+        InvocationMetrics metrics = new InvocationMetrics();
+        Story story = Story.create(new Scenario(), bankStubs(bank)).withMetrics(metrics);
+        story.begin();
+        bank.getBalance();
+        bank.getBalance();
+        story.end();
+
+        ObjectName name = metrics.registerMBean("testMBean");
+        try {
+            assertEquals(2L, ManagementFactory.getPlatformMBeanServer().getAttribute(name,
+              "TotalInvocationCount"));
+        } finally {
+            metrics.unregisterMBean();
+        }
+        assertTrue(!ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
@@ -0,0 +1,268 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.vmware.lmock.impl.Latency;
+import com.vmware.lmock.impl.Mock;
+import com.vmware.lmock.impl.Scenario;
+import com.vmware.lmock.impl.Story;
+import com.vmware.lmock.impl.Stubs;
+import com.vmware.lmock.impl.VirtualClock;
+import com.vmware.lmock.masquerade.Masquerade;
+import com.vmware.lmock.masquerade.Schemer;
+
+/**
+ * Validation of the latency clauses.
+ */
+public class LatencyTest {
+    /** Number of concurrent delayed invocations. */
+    private static final int NR_DELAYED_INVOCATIONS = 10000;
+
+    /**
+     * A slow service.
+     */
+    public interface Bank {
+        /** @return The balance of the account. */
+        public int getBalance();
+
+        /** @return The balance of the account, once known. */
+        public CompletableFuture<Integer> getBalanceLater();
+    }
+
+    /**
+     * Verifies that a stub of a synchronous method takes the specified time.
+     */
+    @Test
+    public void testFixedLatencyOfStub() {
+        final Bank bank = Mock.getObject("bank", Bank.class);
+        Story story = Story.create(new Scenario(), new Stubs() {
+            {
+                stub(bank).getBalance();
+                willReturn(100);
+                willTakeTime(Latency.fixed(20, TimeUnit.MILLISECONDS));
+            }
+        });
+        story.begin();
+        long start = System.nanoTime();
+        assertEquals(100, bank.getBalance());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        story.end();
+    }
+
+    /**
+     * Verifies that an expectation of a synchronous method waits for a
+     * virtual clock.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testLatencyOfExpectationWithVirtualClock() throws InterruptedException {
+        final Bank bank = Mock.getObject("bank", Bank.class);
+        final VirtualClock clock = new VirtualClock();
+        Story story = Story.create(new Scenario() {
+            {
+                expect(bank).getBalance();
+                willReturn(100);
+                willTakeTime(Latency.fixed(1, TimeUnit.HOURS));
+            }
+        }).withLatencyClock(clock);
+        story.begin();
+
+        // Move the time forward once the test waits for the clock.
+        Thread timeKeeper = new Thread(new Runnable() {
+            public void run() {
+                while (clock.getWaitingCount() == 0) {
+                    Thread.yield();
+                }
+                clock.advance(1, TimeUnit.HOURS);
+            }
+        });
+        timeKeeper.start();
+        long start = System.nanoTime();
+        assertEquals(100, bank.getBalance());
+        assertTrue(System.nanoTime() - start < TimeUnit.MINUTES.toNanos(1));
+        assertEquals(TimeUnit.HOURS.toNanos(1), clock.nanoTime());
+        timeKeeper.join();
+        story.end();
+    }
+
+    /**
+     * Verifies that the future returned by a delayed invocation completes
+     * when the virtual clock reaches the deadline.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testAsynchronousLatencyWithVirtualClock() throws Exception {
+        final Bank bank = Mock.getObject("bank", Bank.class);
+        VirtualClock clock = new VirtualClock();
+        Story story = Story.create(new Scenario() {
+            {
+                expect(bank).getBalanceLater();
+                willReturn(CompletableFuture.completedFuture(100));
+                willTakeTime(Latency.fixed(100, TimeUnit.MILLISECONDS));
+                occurs(1);
+                expect(bank).getBalanceLater();
+                willThrow(new IllegalStateException("closed"));
+                willTakeTime(Latency.fixed(100, TimeUnit.MILLISECONDS));
+                occurs(1);
+            }
+        }).withLatencyClock(clock);
+        story.begin();
+        CompletableFuture<Integer> balance = bank.getBalanceLater();
+        CompletableFuture<Integer> failure = bank.getBalanceLater();
+        clock.advance(50, TimeUnit.MILLISECONDS);
+        assertFalse(balance.isDone());
+        assertFalse(failure.isDone());
+        clock.advance(50, TimeUnit.MILLISECONDS);
+        assertEquals(100, balance.getNow(0).intValue());
+        try {
+            failure.get();
+            fail("no exception thrown by the failing invocation");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        story.end();
+    }
+
+    /**
+     * Verifies that many concurrent delayed invocations complete without
+     * creating a thread for each of them.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testManyAsynchronousInvocations() throws Exception {
+        final Bank bank = Mock.getObject("bank", Bank.class);
+        Story story = Story.create(new Scenario(), new Stubs() {
+            {
+                stub(bank).getBalanceLater();
+                willReturn(CompletableFuture.completedFuture(100));
+                willTakeTime(Latency.uniform(10, 50, TimeUnit.MILLISECONDS));
+            }
+        });
+        story.begin();
+        int threadCount = Thread.activeCount();
+        List<CompletableFuture<Integer>> balances = new ArrayList<CompletableFuture<Integer>>();
+        for (int count = 0; count < NR_DELAYED_INVOCATIONS; count++) {
+            balances.add(bank.getBalanceLater());
+        }
+        assertTrue(Thread.activeCount() <= threadCount + 1);
+        for (CompletableFuture<Integer> balance : balances) {
+            assertEquals(100, balance.get(10, TimeUnit.SECONDS).intValue());
+        }
+        story.end();
+    }
+
+    /**
+     * Runs a story in a new thread, completing a delayed future.
+     *
+     * @param timerMasquerade
+     *            receives the masquerade of the thread completing the future
+     * @return The masquerade of the thread running the story.
+     * @throws Exception
+     */
+    private static Masquerade runStoryCompletingLater(final AtomicReference<Masquerade> timerMasquerade)
+      throws Exception {
+        final AtomicReference<Masquerade> storyMasquerade = new AtomicReference<Masquerade>();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread storyThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    storyMasquerade.set(Schemer.currentMasquerade());
+                    final Bank bank = Mock.getObject("bank", Bank.class);
+                    Story story = Story.create(new Scenario(), new Stubs() {
+                        {
+                            stub(bank).getBalanceLater();
+                            willReturn(CompletableFuture.completedFuture(100));
+                            willTakeTime(Latency.fixed(50, TimeUnit.MILLISECONDS));
+                        }
+                    });
+                    story.begin();
+                    bank.getBalanceLater().thenRun(new Runnable() {
+                        public void run() {
+                            timerMasquerade.set(Schemer.currentMasquerade());
+                        }
+                    }).get(10, TimeUnit.SECONDS);
+                    story.end();
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        storyThread.start();
+        storyThread.join();
+        assertNull(failure.get());
+        return storyMasquerade.get();
+    }
+
+    /**
+     * Verifies that the thread completing the delayed futures is not bound to
+     * the test threads of the successive stories.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTimerThreadIsDetached() throws Exception {
+        AtomicReference<Masquerade> firstTimerMasquerade = new AtomicReference<Masquerade>();
+        Masquerade firstMasquerade = runStoryCompletingLater(firstTimerMasquerade);
+        AtomicReference<Masquerade> secondTimerMasquerade = new AtomicReference<Masquerade>();
+        Masquerade secondMasquerade = runStoryCompletingLater(secondTimerMasquerade);
+
+        assertNotSame(firstMasquerade, firstTimerMasquerade.get());
+        assertNotSame(firstMasquerade, secondTimerMasquerade.get());
+        assertNotSame(secondMasquerade, secondTimerMasquerade.get());
+        assertTrue(firstTimerMasquerade.get() == secondTimerMasquerade.get());
+    }
+
+    /**
+     * Verifies that the delays drawn from a percentile profile remain in the
+     * profile range.
+     */
+    @Test
+    public void testPercentileProfile() {
+        Latency latency = Latency.percentiles(TimeUnit.MILLISECONDS)
+          .at(50, 10).at(90, 20).at(100, 100);
+        long min = TimeUnit.MILLISECONDS.toNanos(10);
+        long max = TimeUnit.MILLISECONDS.toNanos(100);
+        int belowMedian = 0;
+        for (int count = 0; count < 1000; count++) {
+            long delay = latency.nextDelay();
+            assertTrue(delay >= min && delay <= max);
+            if (delay == min) {
+                belowMedian++;
+            }
+        }
+        // Half the delays are expected to be the median.
+        assertTrue(belowMedian > 300 && belowMedian < 700);
+    }
+
+    /**
+     * Verifies that the percentiles of a profile must increase.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testPercentileProfileOutOfOrder() {
+        Latency.percentiles(TimeUnit.MILLISECONDS).at(90, 20).at(50, 10);
+    }
+}
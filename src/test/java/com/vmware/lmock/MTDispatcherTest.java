@@ -8,9 +8,16 @@
 package com.vmware.lmock;
 
 import com.vmware.lmock.checker.ThreadChecker;
+import com.vmware.lmock.checker.ThreadFactoryChecker;
 import com.vmware.lmock.exception.ThreadNotFoundException;
 import com.vmware.lmock.mt.MTDispatcher;
 import com.vmware.lmock.mt.ThreadMatcherNotificationHandler;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -20,6 +27,12 @@ import static org.junit.Assert.*;
 public class MTDispatcherTest {
     /** Use loops to stress the model. */
     private static final int TLOOP_LEN = 100000;
+    /** Number of short-lived threads created by the stress test. */
+    private static final int NR_SHORT_LIVED_THREADS = 100000;
+    /** Number of short-lived threads running at the same time. */
+    private static final int SHORT_LIVED_THREADS_BATCH = 1000;
+    /** Number of named threads bound by the indexing test. */
+    private static final int NR_NAMED_THREADS = 500;
 
     /**
      * Keeps track of the thread matching process.
@@ -266,4 +279,256 @@ public class MTDispatcherTest {
         assertThreadTestIsOk(test1);
         assertThreadTestIsOk(test2);
     }
+
+    /**
+     * @return A factory of virtual threads if the runtime implements them, a
+     *         factory of platform threads otherwise.
+     */
+    private static ThreadFactory aVirtualThreadFactoryIfAny() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) builder.getClass().getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            return Executors.defaultThreadFactory();
+        }
+    }
+
+    /**
+     * Verifies that a dispatcher serving many short-lived threads forgets
+     * the threads that terminated.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testDispatcherWithShortLivedThreads() throws InterruptedException {
+        final MTDispatcher<Object> instance = new MTDispatcher<Object>();
+        final AtomicInteger failures = new AtomicInteger();
+        ThreadFactoryChecker factory = ThreadChecker.threadsCreatedBy(aVirtualThreadFactoryIfAny());
+        Runnable runnable = new Runnable() {
+            public void run() {
+                try {
+                    instance.getCurrentData();
+                } catch (ThreadNotFoundException e) {
+                    failures.incrementAndGet();
+                }
+            }
+        };
+
+        WeakReference<Object> firstDataReference = null;
+        Thread[] threads = new Thread[SHORT_LIVED_THREADS_BATCH];
+        for (int count = 0; count < NR_SHORT_LIVED_THREADS; count += SHORT_LIVED_THREADS_BATCH) {
+            for (int index = 0; index < SHORT_LIVED_THREADS_BATCH; index++) {
+                Object data = new Object();
+                if (firstDataReference == null) {
+                    firstDataReference = new WeakReference<Object>(data);
+                }
+                instance.register(factory, data, null);
+                threads[index] = factory.newThread(runnable);
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        assertEquals(0, failures.get());
+        assertTrue(instance.getKnownThreadCount() <= 2 * SHORT_LIVED_THREADS_BATCH);
+        // The dispatcher is still in use, but no longer retains the data of
+        // the first thread.
+        waitForCollection(firstDataReference);
+        assertNull(firstDataReference.get());
+        assertNotNull(instance);
+    }
+
+    /**
+     * A thread class used to check the matching of checkers by class.
+     */
+    private static class DaltonThread extends Thread {
+        /**
+         * Creates a new thread.
+         *
+         * @param runnable
+         *            the code of the thread
+         * @param name
+         *            the thread name
+         */
+        DaltonThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
+    }
+
+    /**
+     * Starts a thread and waits for its termination.
+     *
+     * @param thread
+     *            the thread
+     * @throws InterruptedException
+     */
+    private static void startAndJoin(Thread thread) throws InterruptedException {
+        thread.start();
+        thread.join();
+    }
+
+    /**
+     * Verifies that the first registered checker recognizing a thread wins,
+     * whatever the kind of the checkers.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testFirstRegisteredCheckerWins() throws InterruptedException {
+        final MTDispatcher<String> instance = new MTDispatcher<String>();
+        final String[] results = new String[4];
+        Runnable runnable = new Runnable() {
+            public void run() {
+                results[Integer.parseInt(Thread.currentThread().getName())] =
+                  instance.getCurrentData();
+            }
+        };
+        Thread[] threads = {
+            new DaltonThread(runnable, "0"), new DaltonThread(runnable, "1"),
+            new Thread(runnable, "2"), new DaltonThread(runnable, "3")
+        };
+
+        instance.register(ThreadChecker.instancesOf(Runnable.class), "runnable", null);
+        instance.register(ThreadChecker.threadsCalled("0"), "named", null);
+        instance.register(ThreadChecker.equalTo(threads[1]), "identified", null);
+        instance.register(new ThreadChecker() {
+            public boolean valueIsCompatibleWith(Thread value) {
+                return true;
+            }
+        }, "any", null);
+        instance.register(ThreadChecker.instancesOf(DaltonThread.class), "dalton", null);
+
+        for (Thread thread : threads) {
+            startAndJoin(thread);
+        }
+        // The first thread consumes the checker of runnables, then each
+        // thread gets the first remaining checker that recognizes it.
+        assertArrayEquals(new String[] {
+            "runnable", "identified", "any", "dalton"
+          }, results);
+    }
+
+    /**
+     * Verifies that many threads are bound to their checkers by name.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testDispatcherWithNamedThreads() throws InterruptedException {
+        final MTDispatcher<String> instance = new MTDispatcher<String>();
+        final AtomicInteger failures = new AtomicInteger();
+        Runnable runnable = new Runnable() {
+            public void run() {
+                if (!Thread.currentThread().getName().equals(instance.getCurrentData())) {
+                    failures.incrementAndGet();
+                }
+            }
+        };
+
+        Thread[] threads = new Thread[NR_NAMED_THREADS];
+        for (int index = NR_NAMED_THREADS - 1; index >= 0; index--) {
+            instance.register(ThreadChecker.threadsCalled("thread" + index), "thread" + index, null);
+        }
+        for (int index = 0; index < NR_NAMED_THREADS; index++) {
+            threads[index] = new Thread(runnable, "thread" + index);
+            threads[index].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+    }
+
+    /**
+     * A dispatcher which can drop the data cached by the threads.
+     */
+    private static final class InvalidatedDispatcher extends MTDispatcher<Object> {
+        /** Drops the cached data. */
+        void invalidate() {
+            invalidateCachedData();
+        }
+    }
+
+    /**
+     * Verifies that a thread does not retain the data of a dispatcher once
+     * the cached data is dropped.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testCachedDataReleased() throws InterruptedException {
+        InvalidatedDispatcher instance = new InvalidatedDispatcher();
+        Object data = new Object();
+        WeakReference<Object> dataReference = new WeakReference<Object>(data);
+        instance.register(ThreadChecker.anyThread, data, null);
+        assertSame(data, instance.getCurrentData());
+        instance.invalidate();
+
+        data = null;
+        instance = null;
+        waitForCollection(dataReference);
+        assertNull(dataReference.get());
+    }
+
+    /**
+     * Verifies that a living thread does not retain the data of a dispatcher
+     * that is no longer used, even if the cached data was not dropped.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testCachedDataReleasedByLivingThreads() throws InterruptedException {
+        MTDispatcher<Object> instance = new MTDispatcher<Object>();
+        Object data = new Object();
+        WeakReference<Object> dataReference = new WeakReference<Object>(data);
+        WeakReference<Object> instanceReference = new WeakReference<Object>(instance);
+        instance.register(ThreadChecker.anyThread, data, null);
+        // The thread forgets the dispatcher once it used it.
+        final AtomicReference<MTDispatcher<Object>> instanceHolder =
+          new AtomicReference<MTDispatcher<Object>>(instance);
+        final CountDownLatch cached = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                instanceHolder.getAndSet(null).getCurrentData();
+                cached.countDown();
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        thread.start();
+        cached.await();
+
+        data = null;
+        instance = null;
+        try {
+            waitForCollection(dataReference);
+            assertNull(dataReference.get());
+            assertNull(instanceReference.get());
+        } finally {
+            released.countDown();
+            thread.join();
+        }
+    }
+
+    /**
+     * Waits for an object to be collected, within a reasonable delay.
+     *
+     * @param reference
+     *            a weak reference to the object
+     * @throws InterruptedException
+     */
+    private static void waitForCollection(WeakReference<Object> reference) throws InterruptedException {
+        for (int count = 0; count < 50 && reference.get() != null; count++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+    }
 }
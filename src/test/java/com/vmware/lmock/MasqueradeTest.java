@@ -16,6 +16,7 @@ import static com.vmware.lmock.masquerade.Schemer.aNonNullOf;
 import static com.vmware.lmock.masquerade.Schemer.anyOf;
 import static com.vmware.lmock.masquerade.Schemer.append;
 import static com.vmware.lmock.masquerade.Schemer.begin;
+import static com.vmware.lmock.masquerade.Schemer.defaultRole;
 import static com.vmware.lmock.masquerade.Schemer.end;
 import static com.vmware.lmock.masquerade.Schemer.will;
 import static com.vmware.lmock.masquerade.Schemer.willInvoke;
@@ -30,6 +31,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
@@ -42,6 +44,7 @@ import com.vmware.lmock.exception.UnsatisfiedOccurrenceError;
 import com.vmware.lmock.impl.Mock;
 import com.vmware.lmock.impl.Scenario;
 import com.vmware.lmock.impl.Stubs;
+import com.vmware.lmock.masquerade.Masquerade;
 import com.vmware.lmock.masquerade.Role;
 import com.vmware.lmock.Dalton.SpecialDaltonException;
 
@@ -376,4 +379,80 @@ public class MasqueradeTest {
         }
         end();
     }
+
+    /** Number of threads running masquerades in parallel. */
+    private static final int NR_THREADS = 4;
+    /** Number of masquerades run by each thread. */
+    private static final int NR_MASQUERADES = 200;
+
+    /**
+     * Creates the code of a thread running masquerades on its own mock,
+     * with the schemer directives.
+     *
+     * @param dalton
+     *            the mock of the thread
+     * @param failures
+     *            counts the masquerades that did not behave as expected
+     * @return The code of the thread.
+     */
+    private static Runnable aThreadRunningMasquerades(final Dalton dalton,
+      final AtomicInteger failures) {
+        return new Runnable() {
+            public void run() {
+                for (int count = 0; count < NR_MASQUERADES; count++) {
+                    try {
+                        begin();
+                        willInvoke(1).willReturn(count).when(dalton).getInt();
+                        if (dalton.getInt() != count) {
+                            failures.incrementAndGet();
+                        }
+                        end();
+                    } catch (Throwable e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Verifies that threads can run their own masquerades in parallel.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testParallelMasquerades() throws InterruptedException {
+        AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[NR_THREADS];
+        for (int index = 0; index < NR_THREADS; index++) {
+            Dalton dalton = Mock.getObject("dalton" + index, Dalton.class);
+            threads[index] = new Thread(aThreadRunningMasquerades(dalton, failures));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+    }
+
+    /**
+     * Verifies that a masquerade can be driven explicitly, independently
+     * of the one bound to the testing thread.
+     */
+    @Test
+    public void testExplicitMasquerade() {
+        Masquerade masquerade = new Masquerade();
+        masquerade.begin();
+        masquerade.willInvoke(1).willReturn(3).when(jack).getInt();
+        assertEquals(3, jack.getInt());
+        masquerade.end();
+        // The masquerade of the testing thread did not begin.
+        try {
+            defaultRole();
+            fail("got a default role while the masquerade of the thread did not begin");
+        } catch (SchemerException e) {
+        }
+    }
 }
@@ -263,4 +263,55 @@ public class MiscellaneousTest {
         } catch (MissingInvocationException e) {
         }
     }
+
+    /**
+     * Creates a story stubbing <code>joe.getInt</code>.
+     *
+     * @param value
+     *            the value returned by the stub
+     * @return The story.
+     */
+    private Story aStoryWhereJoeReturns(final int value) {
+        return create(null, new Stubs() {
+            {
+                stub(Dalton.joe).getInt();
+                willReturn(value);
+            }
+        });
+    }
+
+    /**
+     * Verifies that several stories sharing the same mocks can run one after
+     * the other, whatever their order of creation.
+     */
+    @Test
+    public void testStoriesSharingMocks() {
+        Story story1 = aStoryWhereJoeReturns(1);
+        Story story2 = aStoryWhereJoeReturns(2);
+
+        story1.begin();
+        // Creating a story does not change the running one.
+        Story story3 = aStoryWhereJoeReturns(3);
+        assertEquals(1, Dalton.joe.getInt());
+        story1.end();
+
+        story2.begin();
+        assertEquals(2, Dalton.joe.getInt());
+        story2.end();
+
+        story1.begin();
+        assertEquals(1, Dalton.joe.getInt());
+        story1.end();
+
+        story3.begin();
+        assertEquals(3, Dalton.joe.getInt());
+        story3.end();
+
+        try {
+            Dalton.joe.getInt();
+            fail("invoked a mock out of any story");
+        } catch (UnexpectedInvocationError e) {
+            // Expected
+        }
+    }
 }
@@ -7,16 +7,58 @@
  * ************************************************************************** */
 package com.vmware.lmock;
 
+import org.junit.After;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import com.vmware.lmock.exception.MockCreationException;
 import com.vmware.lmock.impl.Mock;
+import com.vmware.lmock.impl.ProxyFactory;
+import com.vmware.lmock.impl.Scenario;
+import com.vmware.lmock.impl.Story;
+import com.vmware.lmock.impl.Stubs;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Validation of the creation of mocks.
  */
 public class MockTest {
+    /**
+     * A proxy factory keeping track of the proxies it creates.
+     */
+    private static class RecordingProxyFactory implements ProxyFactory {
+        /** The created proxies. */
+        private final Map<Object, InvocationHandler> proxies = new IdentityHashMap<Object, InvocationHandler>();
+
+        @Override
+        public Object newProxy(Class<?> clazz, InvocationHandler handler) {
+            Object proxy = Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[]{clazz}, handler);
+            proxies.put(proxy, handler);
+            return proxy;
+        }
+
+        @Override
+        public boolean isProxyClass(Class<?> clazz) {
+            return Proxy.isProxyClass(clazz);
+        }
+
+        @Override
+        public InvocationHandler getInvocationHandler(Object object) {
+            return proxies.get(object);
+        }
+    }
+
+    /**
+     * Restores the default proxy factory.
+     */
+    @After
+    public void restoreDefaultProxyFactory() {
+        Mock.setProxyFactory(null);
+    }
+
     /**
      * Verifies that we cannot mock something that is not an interface.
      */
@@ -37,4 +79,71 @@ public class MockTest {
         List<?> myMock = Mock.getObject("myMock", List.class);
         assertEquals("myMock", myMock.toString());
     }
+
+    /**
+     * Verifies that mocks can be created by a user supplied proxy factory,
+     * along with mocks created by the default factory.
+     */
+    @Test
+    public void testMockWithProxyFactory() {
+        RecordingProxyFactory factory = new RecordingProxyFactory();
+        Mock.setProxyFactory(factory);
+        final List<?> myMock = Mock.getObject("myMock", List.class);
+        assertEquals(1, factory.proxies.size());
+        assertTrue(factory.proxies.containsKey(myMock));
+
+        Story story = Story.create(new Scenario() {
+            {
+                expect(Dalton.joe).ping(Dalton.jack);
+                willReturn(5);
+            }
+        }, new Stubs() {
+            {
+                stub(myMock).size();
+                willReturn(3);
+            }
+        });
+        story.begin();
+        assertEquals(3, myMock.size());
+        assertEquals(5, Dalton.joe.ping(Dalton.jack));
+        story.end();
+    }
+
+    /**
+     * Verifies the creation of a series of mocks.
+     */
+    @Test
+    public void testGetObjects() {
+        final Dalton[] mocks = Mock.getObjects(Dalton.class, 3);
+        assertEquals(3, mocks.length);
+        assertFalse(mocks[0].equals(mocks[1]));
+        assertFalse(mocks[1].toString().equals(mocks[2].toString()));
+
+        Story story = Story.create(new Scenario(), new Stubs() {
+            {
+                for (int index = 0; index < mocks.length; index++) {
+                    stub(mocks[index]).ping();
+                    willReturn(index);
+                }
+            }
+        });
+        story.begin();
+        for (int index = 0; index < mocks.length; index++) {
+            assertEquals(index, mocks[index].ping());
+        }
+        story.end();
+    }
+
+    /**
+     * Verifies that we cannot create a series of mocks of something that is
+     * not an interface.
+     */
+    @Test
+    public void testGetObjectsOfInvalidClass() {
+        try {
+            Mock.getObjects(String.class, 2);
+            fail("mocked strings");
+        } catch (MockCreationException e) {
+        }
+    }
 }
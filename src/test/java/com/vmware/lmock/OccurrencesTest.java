@@ -994,4 +994,61 @@ public class OccurrencesTest {
         }
         assertEndReportsError(lastError);
     }
+
+    /**
+     * Verifies that an invocation skips a long series of optional
+     * expectations to reach the one accepting it.
+     */
+    @Test
+    public void testSkipManyOptionalExpectations() {
+        Story story = Story.create(new Scenario() {
+            {
+                for (int i = 0; i < 100; i++) {
+                    expect(joe).ping();
+                    occurs(any());
+                    expect(jack).ping();
+                    occurs(any());
+                }
+                expect(william).ping();
+                occurs(exactly(2));
+                expect(joe).ping();
+                occurs(exactly(1));
+            }
+        });
+        story.begin();
+        william.ping();
+        william.ping();
+        joe.ping();
+        story.end();
+    }
+
+    /**
+     * Verifies that an invocation cannot skip an expectation that is not
+     * satisfied, even if a later expectation accepts the invocation.
+     */
+    @Test
+    public void testSkipUnsatisfiedExpectation() {
+        ExpectationError lastError = null;
+
+        Story story = Story.create(new Scenario() {
+            {
+                for (int i = 0; i < 10; i++) {
+                    expect(joe).ping();
+                    occurs(any());
+                }
+                expect(jack).ping();
+                occurs(exactly(1));
+                expect(william).ping();
+                occurs(exactly(1));
+            }
+        });
+        story.begin();
+        try {
+            william.ping();
+            fail("skipped an unsatisfied expectation");
+        } catch (UnsatisfiedOccurrenceError e) {
+            lastError = e;
+        }
+        assertEndReportsError(story, lastError);
+    }
 }
@@ -0,0 +1,154 @@
+/* **************************************************************************
+ * Copyright (C) 2010-2011 VMware, Inc. All rights reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0.
+ * Please see the LICENSE file to review the full text of the Apache License 2.0.
+ * You may not use this product except in compliance with the License.
+ * ************************************************************************** */
+package com.vmware.lmock;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.vmware.lmock.exception.UnexpectedInvocationError;
+import com.vmware.lmock.impl.Mock;
+import com.vmware.lmock.impl.Scenario;
+import com.vmware.lmock.impl.Story;
+
+/**
+ * Validation of independent stories running in parallel threads.
+ */
+public class ParallelStoriesTest {
+    /** Number of threads running stories in parallel. */
+    private static final int NR_THREADS = 4;
+    /** Number of stories run by each thread. */
+    private static final int NR_STORIES = 200;
+    /** Maximum time to wait for the other threads, in seconds. */
+    private static final int TIMEOUT = 10;
+
+    /**
+     * Starts a set of threads, each one running its own code, and waits for
+     * their termination.
+     *
+     * @param runnables
+     *            the code run by every thread
+     * @throws InterruptedException
+     */
+    private static void runInParallel(Runnable... runnables) throws InterruptedException {
+        Thread[] threads = new Thread[runnables.length];
+        for (int index = 0; index < runnables.length; index++) {
+            threads[index] = new Thread(runnables[index]);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Creates a story expecting one invocation of <code>getInt</code>.
+     *
+     * @param dalton
+     *            the invoked mock
+     * @param value
+     *            the value returned by the invocation
+     * @return The story.
+     */
+    private static Story aStoryWhereDaltonReturns(final Dalton dalton, final int value) {
+        return Story.create(new Scenario() {
+            {
+                expect(dalton).getInt();
+                willReturn(value);
+            }
+        });
+    }
+
+    /**
+     * Creates the code of a thread running stories on its own mock.
+     *
+     * @param id
+     *            an identifier for the thread
+     * @param barrier
+     *            a barrier synchronizing the threads before each story ends
+     * @param failing
+     *            <code>true</code> if the stories of the thread end with an
+     *            unexpected invocation
+     * @param failures
+     *            counts the stories that did not behave as expected
+     * @return The code of the thread.
+     */
+    private static Runnable aThreadRunningStories(int id, final CyclicBarrier barrier,
+      final boolean failing, final AtomicInteger failures) {
+        final Dalton dalton = Mock.getObject("dalton" + id, Dalton.class);
+        return new Runnable() {
+            public void run() {
+                for (int count = 0; count < NR_STORIES; count++) {
+                    Story story = aStoryWhereDaltonReturns(dalton, count);
+                    story.begin();
+                    try {
+                        if (dalton.getInt() != count) {
+                            failures.incrementAndGet();
+                        }
+                        barrier.await(TIMEOUT, TimeUnit.SECONDS);
+                        if (failing) {
+                            dalton.setInt(count);
+                        }
+                        story.end();
+                        if (failing) {
+                            failures.incrementAndGet();
+                        }
+                    } catch (UnexpectedInvocationError e) {
+                        if (!failing) {
+                            failures.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Verifies that stories running in parallel on disjoint mocks do not
+     * interfere.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testParallelStories() throws InterruptedException {
+        CyclicBarrier barrier = new CyclicBarrier(NR_THREADS);
+        AtomicInteger failures = new AtomicInteger();
+        Runnable[] runnables = new Runnable[NR_THREADS];
+        for (int index = 0; index < NR_THREADS; index++) {
+            runnables[index] = aThreadRunningStories(index, barrier, false, failures);
+        }
+        runInParallel(runnables);
+        assertEquals(0, failures.get());
+    }
+
+    /**
+     * Verifies that a failing story does not affect the stories running in
+     * parallel threads.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testAFailingStoryAmongParallelStories() throws InterruptedException {
+        CyclicBarrier barrier = new CyclicBarrier(NR_THREADS);
+        AtomicInteger failures = new AtomicInteger();
+        Runnable[] runnables = new Runnable[NR_THREADS];
+        for (int index = 0; index < NR_THREADS; index++) {
+            runnables[index] = aThreadRunningStories(index, barrier, index == 0, failures);
+        }
+        runInParallel(runnables);
+        assertEquals(0, failures.get());
+    }
+}
@@ -418,9 +418,11 @@ public class SimpleMTTest {
 
         Story story = createWithMultipleActors(actors);
         story.begin();
+        // The failure of a thread aborts the story: let the other thread
+        // complete first.
         threadOk.start();
-        threadNok.start();
         threadOk.join(JOIN_TIMESOUT_AFTER);
+        threadNok.start();
         threadNok.join(JOIN_TIMESOUT_AFTER);
         assertActorMatchesADeadThread(actors[0]);
         assertActorMatchesAThreadInError(actors[1]);
@@ -463,9 +465,11 @@ public class SimpleMTTest {
         Schemer.begin(roleOk, roleNok);
         roleOk.willInvoke(1).of(Dalton.joe).fillPocket("data ok");
         roleNok.willInvoke(1).of(Dalton.joe).fillPocket("data ok");
+        // The failure of a thread aborts the story: let the other thread
+        // complete first.
         threadOk.start();
-        threadNok.start();
         threadOk.join(JOIN_TIMESOUT_AFTER);
+        threadNok.start();
         threadNok.join(JOIN_TIMESOUT_AFTER);
         assertEveryActorMatchesADeadThread(roleOk);
         assertEveryActorMatchesAThreadInError(roleNok);
@@ -673,4 +677,50 @@ public class SimpleMTTest {
             Schemer.end();
         }
     }
+
+    /**
+     * Verifies that an actor updated while the story is ongoing immediately
+     * uses its new stubs, although its thread is already known.
+     */
+    @Test
+    public void testActorUsingNewStubsDuringStory() {
+        Actor actor = anActorForCurrentThread().using(new Stubs() {
+            {
+                stub(Dalton.joe).getInt();
+                willReturn(1);
+            }
+        });
+        Story story = createWithMultipleActors(actor);
+
+        story.begin();
+        assertEquals(1, Dalton.joe.getInt());
+        actor.using(new Stubs() {
+            {
+                stub(Dalton.joe).getInt();
+                willReturn(2);
+            }
+        });
+        assertEquals(2, Dalton.joe.getInt());
+        story.end();
+    }
+
+    /**
+     * Verifies that a story can be played again by the same threads.
+     */
+    @Test
+    public void testStoryPlayedTwice() {
+        Actor actor = anActorForCurrentThread().using(new Stubs() {
+            {
+                stub(Dalton.joe).getInt();
+                willReturn(1);
+            }
+        });
+        Story story = createWithMultipleActors(actor);
+
+        for (int round = 0; round < 2; round++) {
+            story.begin();
+            assertEquals(1, Dalton.joe.getInt());
+            story.end();
+        }
+    }
 }
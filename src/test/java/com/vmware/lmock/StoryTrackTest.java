@@ -8,9 +8,13 @@
 package com.vmware.lmock;
 
 import com.vmware.lmock.masquerade.Role;
+import com.vmware.lmock.impl.Scenario;
+import com.vmware.lmock.impl.Story;
 import com.vmware.lmock.impl.StoryTrack;
+import com.vmware.lmock.impl.TrackRetention;
 import static com.vmware.lmock.masquerade.Schemer.*;
 import static com.vmware.lmock.mt.Actor.*;
+import static com.vmware.lmock.checker.Occurrences.any;
 
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -130,4 +134,153 @@ public class StoryTrackTest {
           "satisfied 1 time: interface com.vmware.lmock.Dalton.ping():void/[1..1]"));
         assertTrue(track.contains("1 time from Thread[" + messenger.getName()));
     }
+
+    /**
+     * Validates that a track reports the successive threads invoking an
+     * expectation in the order of their invocations.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testAStoryWithInterleavedThreads() throws InterruptedException {
+        Thread pinger = new Thread("pinger") {
+            @Override
+            public void run() {
+                joe.ping();
+            }
+        };
+        Scenario scenario = new Scenario() {
+            {
+                expect(joe).ping();
+                occurs(any());
+            }
+        };
+        Story story = Story.create(anActorForCurrentThread().following(scenario),
+          anActorForThread(pinger).following(scenario));
+        story.begin();
+        joe.ping();
+        joe.ping();
+        pinger.start();
+        pinger.join();
+        joe.ping();
+        joe.ping();
+        joe.ping();
+        story.end();
+
+        String track = StoryTrack.get().toString();
+        assertTrue(track.contains("satisfied 6 times: "));
+        assertStringContains(track,
+          "2 times from Thread\\[main[^\\n]*\\n\\t1 time from Thread\\[pinger[^\\n]*\\n\\t3 times from Thread\\[main");
+    }
+
+    /**
+     * Validates that a track with a bounded retention keeps the latest
+     * reports and thread switches, and counts the older ones.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testAStoryWithABoundedTrack() throws InterruptedException {
+        Thread pinger = new Thread("pinger") {
+            @Override
+            public void run() {
+                for (int round = 0; round < 5; round++) {
+                    synchronized (this) {
+                        joe.ping();
+                        notify();
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }
+        };
+        Scenario scenario = new Scenario() {
+            {
+                for (int index = 0; index < 4; index++) {
+                    expect(joe).setInt(index);
+                }
+                expect(joe).ping();
+                occurs(any());
+            }
+        };
+        Story story = Story.create(anActorForCurrentThread().following(scenario),
+          anActorForThread(pinger).following(scenario)).withTrackRetention(TrackRetention.keepLast(2, 2));
+        story.begin();
+        for (int index = 0; index < 4; index++) {
+            joe.setInt(index);
+        }
+        synchronized (pinger) {
+            pinger.start();
+            for (int round = 0; round < 5; round++) {
+                pinger.wait();
+                joe.ping();
+                pinger.notify();
+            }
+        }
+        pinger.join();
+        story.end();
+
+        String track = StoryTrack.get().toString();
+        assertEquals(5, StoryTrack.get().size());
+        assertTrue(track.contains("3 earlier expectation(s) not shown"));
+        assertTrue(track.contains("satisfied 10 times: "));
+        assertTrue(track.contains("3 times earlier from Thread[main"));
+        assertTrue(track.contains("3 times earlier from Thread[pinger"));
+        assertStringContains(track,
+          "\\t1 time from Thread\\[pinger[^\\n]*\\n\\t1 time from Thread\\[main[^\\n]*\\n\\t1 time from Thread\\[pinger");
+    }
+
+    /**
+     * Validates that the default retention keeps every thread switch, when
+     * threads interleave at every call.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testAStoryWithTheDefaultRetention() throws InterruptedException {
+        final int rounds = 300;
+        Thread pinger = new Thread("pinger") {
+            @Override
+            public void run() {
+                for (int round = 0; round < rounds; round++) {
+                    synchronized (this) {
+                        joe.ping();
+                        notify();
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }
+        };
+        Scenario scenario = new Scenario() {
+            {
+                expect(joe).ping();
+                occurs(any());
+            }
+        };
+        Story story = Story.create(anActorForCurrentThread().following(scenario),
+          anActorForThread(pinger).following(scenario));
+        story.begin();
+        synchronized (pinger) {
+            pinger.start();
+            for (int round = 0; round < rounds; round++) {
+                pinger.wait();
+                joe.ping();
+                pinger.notify();
+            }
+        }
+        pinger.join();
+        story.end();
+
+        String track = StoryTrack.get().toString();
+        assertTrue(track.contains("satisfied " + (2 * rounds) + " times: "));
+        assertFalse(track.contains("earlier"));
+        assertEquals(2 * rounds, track.split("\t1 time from Thread\\[").length - 1);
+    }
 }
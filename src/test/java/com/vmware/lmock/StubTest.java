@@ -11,11 +11,14 @@ import static com.vmware.lmock.Dalton.averell;
 import static com.vmware.lmock.Dalton.jack;
 import static com.vmware.lmock.Dalton.joe;
 import static com.vmware.lmock.Dalton.william;
+import static com.vmware.lmock.checker.IntegerChecker.valuesBetween;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import org.junit.Test;
 
+import com.vmware.lmock.impl.InvocationJournal;
+
 import com.vmware.lmock.impl.Scenario;
 import com.vmware.lmock.impl.Story;
 import com.vmware.lmock.impl.Stubs;
@@ -251,4 +254,144 @@ public class StubTest {
         assertEquals(22, joe.ping(jack.next().next()));
         Schemer.end();
     }
+
+    /**
+     * Verifies the selection of stubs by literal, null and mock arguments on
+     * overloaded methods.
+     */
+    @Test
+    public void testStubsWithLiteralArguments() {
+        Story story = Story.create(new Scenario(), new Stubs() {
+            {
+                stub(joe).ping(jack, "hello");
+                willReturn(1);
+                stub(joe).ping(jack, (String) null);
+                willReturn(2);
+                stub(joe).ping(william);
+                willReturn(3);
+            }
+        });
+
+        story.begin();
+        assertEquals(1, joe.ping(jack, "hello"));
+        assertEquals(2, joe.ping(jack, (String) null));
+        assertEquals(3, joe.ping(william));
+        story.end();
+    }
+
+    /**
+     * Verifies that stubs on many mocks and methods are all reachable, and
+     * that a stub appended during the story takes the priority over the older
+     * ones.
+     */
+    @Test
+    public void testManyStubsAndAppendedStubs() {
+        final Dalton[] daltons = { joe, jack, william, averell };
+        Story story = Story.create(new Scenario(), new Stubs() {
+            {
+                for (int index = 0; index < daltons.length; index++) {
+                    stub(daltons[index]).ping();
+                    willReturn(index);
+                    stub(daltons[index]).next();
+                    willReturn(daltons[(index + 1) % daltons.length]);
+                    stub(daltons[index]).getBoolean();
+                    willReturn(index % 2 == 0);
+                    for (Dalton brother : daltons) {
+                        stub(daltons[index]).ping(brother);
+                        willReturn(index * 10);
+                    }
+                }
+            }
+        });
+
+        story.begin();
+        for (int index = 0; index < daltons.length; index++) {
+            assertEquals(index, daltons[index].ping());
+            assertEquals(daltons[(index + 1) % daltons.length], daltons[index].next());
+            assertEquals(index % 2 == 0, daltons[index].getBoolean());
+            assertEquals(index * 10, daltons[index].ping(averell));
+        }
+        story.append(new Stubs() {
+            {
+                stub(william).ping(averell);
+                willReturn(666);
+            }
+        });
+        assertEquals(666, william.ping(averell));
+        assertEquals(20, william.ping(joe));
+        story.end();
+    }
+
+    /**
+     * Invokes <code>setInt</code> on joe and returns the message of the
+     * exception thrown by the stub.
+     *
+     * @param value
+     *            the value passed to the mock
+     * @return The message of the thrown exception.
+     */
+    private static String setIntOnJoe(int value) {
+        try {
+            joe.setInt(value);
+            fail("stub did not throw an exception");
+            return null;
+        } catch (IllegalStateException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Verifies the priority of the younger stubs when mixing stubs expecting
+     * literal values and stubs expecting values validated by checkers.
+     */
+    @Test
+    public void testPriorityOfLiteralAndCheckerStubs() {
+        Story story = Story.create(new Scenario(), new Stubs() {
+            {
+                stub(joe).setInt(1);
+                willThrow(new IllegalStateException("one"));
+                stub(joe).setInt(with(valuesBetween(0, 10)));
+                willThrow(new IllegalStateException("between"));
+                stub(joe).setInt(2);
+                willThrow(new IllegalStateException("two"));
+                stub(joe).setInt(20);
+                willThrow(new IllegalStateException("twenty"));
+            }
+        });
+
+        story.begin();
+        assertEquals("between", setIntOnJoe(1));
+        assertEquals("two", setIntOnJoe(2));
+        assertEquals("between", setIntOnJoe(5));
+        assertEquals("twenty", setIntOnJoe(20));
+        story.append(new Stubs() {
+            {
+                stub(joe).setInt(1);
+                willThrow(new IllegalStateException("new one"));
+            }
+        });
+        assertEquals("new one", setIntOnJoe(1));
+        assertEquals("between", setIntOnJoe(3));
+        story.end();
+    }
+
+    /**
+     * Verifies that searching the stubs does not invoke a mock passed as an
+     * argument, even if some stubs of the method are indexed by literals.
+     */
+    @Test
+    public void testMockArgumentWithLiteralStubs() {
+        InvocationJournal journal = new InvocationJournal();
+        Story story = Story.create(new Scenario(), new Stubs() {
+            {
+                stub(joe).setObject("a");
+                stub(joe).setObject(anyOf(Object.class));
+            }
+        }).withJournal(journal);
+
+        story.begin();
+        joe.setObject(joe);
+        story.end();
+        assertEquals(1, journal.size());
+    }
 }
@@ -8,6 +8,8 @@
 package com.vmware.lmock;
 
 import com.vmware.lmock.checker.ThreadChecker;
+import com.vmware.lmock.checker.ThreadFactoryChecker;
+import java.util.concurrent.Executors;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
@@ -86,4 +88,31 @@ public class ThreadCheckerTest {
         ThreadChecker instance = ThreadChecker.instancesOf(TestInterface.class);
         assertTrue(instance.valueIsCompatibleWith(thread1));
     }
+
+    /**
+     * Verifies that the checker of virtual threads does not accept platform
+     * threads.
+     */
+    @Test
+    public void testVirtualThreads() {
+        ThreadChecker instance = ThreadChecker.virtualThreads;
+        assertFalse(instance.valueIsCompatibleWith(Thread.currentThread()));
+        assertFalse(instance.valueIsCompatibleWith(new Thread()));
+    }
+
+    /**
+     * Verifies that a thread factory checker recognizes its own threads.
+     */
+    @Test
+    public void testThreadsCreatedBy() {
+        Runnable runnable = new Runnable() {
+            public void run() {
+            }
+        };
+        ThreadFactoryChecker instance = ThreadChecker.threadsCreatedBy(Executors.defaultThreadFactory());
+        Thread thread = instance.newThread(runnable);
+        assertFalse(instance.valueIsCompatibleWith(Thread.currentThread()));
+        assertFalse(instance.valueIsCompatibleWith(new Thread(runnable)));
+        assertTrue(instance.valueIsCompatibleWith(thread));
+    }
 }